@@ -7,19 +7,40 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
 
-import lab4.common.Board;
+import lab4.common.BoardSnapshot;
 import lab4.common.JsonUtil;
+import lab4.common.OwnershipMap;
 
 /**
  * Simple line-based connection to server.
+ * <p>
+ * If the connection drops during a game, it reconnects on its own and sends
+ * {@code REJOIN token lastSeq}, so the server only replays the missed moves.
  */
 public class ClientConnection {
+    /** How long to keep trying to reconnect (should match the server grace window) */
+    private static final long RECONNECT_TIMEOUT_MS = 30_000;
+    /** Pause between reconnection attempts */
+    private static final long RECONNECT_DELAY_MS = 1_000;
+
+    /** Server address */
+    private final String host;
+    /** Server port */
+    private final int port;
     /** Socket used for communication with the server */
-    private final Socket socket;
+    private volatile Socket socket;
     /** Input stream used to receive data from the server */
-    private final BufferedReader in;
+    private volatile BufferedReader in;
     /** Output stream used to send data to the server */
-    private final PrintWriter out;
+    private volatile PrintWriter out;
+    /** Resume token received after START (null until the game starts) */
+    private volatile String resumeToken;
+    /** Sequence number of the last move this client has seen */
+    private volatile int lastSeq;
+    /** Set when the connection should not be re-established any more */
+    private volatile boolean closed;
+    /** Last decoded board; unchanged rows of the next board are shared with it (listener thread only) */
+    private BoardSnapshot lastBoard;
 
     /**
      * Creates a new connection to the server with the given host and port.
@@ -29,9 +50,44 @@ public class ClientConnection {
      * @throws IOException if the connection cannot be established
      */
     public ClientConnection(String host, int port) throws IOException {
-        socket = new Socket(host, port); // tworzymy nowy socket i do niego mamy in i out (z niego)
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+        this.host = host;
+        this.port = port;
+        connect();
+    }
+
+    /**
+     * Opens a new socket and replaces the current streams.
+     *
+     * @throws IOException if the connection cannot be established
+     */
+    private void connect() throws IOException {
+        Socket s = new Socket(host, port); // tworzymy nowy socket i do niego mamy in i out (z niego)
+        in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+        out = new PrintWriter(new OutputStreamWriter(s.getOutputStream()), true);
+        socket = s;
+    }
+
+    /**
+     * Tries to reconnect and rejoin the game until {@link #RECONNECT_TIMEOUT_MS} passes.
+     *
+     * @return true if a new connection was opened and REJOIN was sent
+     */
+    private boolean reconnect() {
+        long deadline = System.currentTimeMillis() + RECONNECT_TIMEOUT_MS;
+        while (!closed && resumeToken != null && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+                connect();
+                sendLine("REJOIN " + resumeToken + " " + lastSeq);
+                return true;
+            } catch (IOException e) {
+                // serwer jeszcze niedostepny, probujemy dalej
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
     }
 
     /**
@@ -62,53 +118,110 @@ public class ClientConnection {
      */
     public void startListening(MessageHandler handler) {
         new Thread(() -> {
-            try {
-                String line;
-                while ((line = in.readLine()) != null) { //odbierane linie (z serwera)
-                    if (line.startsWith("START ")) {
-                        handler.onStart(Integer.parseInt(line.substring(6).trim()));
-                    } else if (line.startsWith("BOARD ")) {
-                        try {
-                            Board b = JsonUtil.jsonToBoard(line.substring(6).trim());
-                            handler.onBoard(b);
-                        } catch (Exception e) {
-                            System.err.println("Failed parse BOARD JSON: " + e.getMessage());
-                        }
-                    } else if (line.equals("YOUR_TURN")) {
-                        handler.onYourTurn();
-                    } else if (line.equals("OPPONENT_TURN")) {
-                        handler.onOpponentTurn();
-                    } else if (line.equals("AGREEMENT_ON")) {
-                        handler.onstoppedForAgreement();
-                    } else if (line.equals("AGREEMENT_OFF")) {
-                        handler.offstoppedForAgreement();
-                    } else if (line.startsWith("WYNIKI1 ")) {
-                        int value = Integer.parseInt(line.substring(8));
-                        handler.wynikiPierwszego(value);
-                    } else if (line.startsWith("WYNIKI2 ")) {
-                        int value = Integer.parseInt(line.substring(8));
-                        handler.wynikiDrugiego(value);
-                    }
-                    else if (line.startsWith("INFO ")) {
-                        handler.onInfo(line.substring(5));
-                    } else if (line.startsWith("ERROR ")) {
-                        handler.onError(line.substring(6));
-                    } else if (line.startsWith("GAME_OVER")) {
-                        handler.onGameOver(line.substring(9).trim());
-                    } else {
-                        handler.onUnknown(line);
+            while (true) {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) { //odbierane linie (z serwera)
+                        dispatch(line, handler);
                     }
+                } catch (IOException e) {
+                    // polaczenie zerwane, ponizej probujemy wrocic do gry
                 }
-            } catch (IOException e) {
-                handler.onDisconnect();
+                if (closed || resumeToken == null || !reconnect()) {
+                    handler.onDisconnect();
+                    return;
+                }
+                handler.onInfo("Connection lost. Reconnecting...");
             }
         }, "ServerListener").start();
     }
 
+    /**
+     * Interprets one line received from the server and forwards it to the handler.
+     *
+     * @param line received line
+     * @param handler object responsible for handling server messages
+     */
+    private void dispatch(String line, MessageHandler handler) {
+        if (line.startsWith("START ")) {
+            handler.onStart(Integer.parseInt(line.substring(6).trim()));
+        } else if (line.startsWith("TOKEN ")) {
+            resumeToken = line.substring(6).trim();
+        } else if (line.startsWith("SEQ ")) {
+            lastSeq = Integer.parseInt(line.substring(4).trim());
+        } else if (line.startsWith("REJOINED ")) {
+            handler.onInfo("Reconnected as player " + line.substring(9).trim());
+        } else if (line.startsWith("REJOIN_FAILED")) {
+            resumeToken = null; // nie ma do czego wracac
+            handler.onError("Reconnect failed: " + line.substring(13).trim());
+            close(); // konczy petle nasluchu -> onDisconnect
+        } else if (line.startsWith("CATCHUP ")) {
+            String[] p = line.substring(8).split(" ", 2);
+            lastSeq = Integer.parseInt(p[0]);
+            handler.onInfo("Missed move #" + p[0] + ": " + (p.length > 1 ? p[1] : ""));
+        } else if (line.startsWith("BOARD ")) {
+            try {
+                lastBoard = JsonUtil.jsonToSnapshot(line.substring(6), lastBoard); // dekodujemy tutaj, nie na watku GUI
+                handler.onBoard(lastBoard);
+            } catch (Exception e) {
+                System.err.println("Failed parse BOARD JSON: " + e.getMessage());
+            }
+        } else if (line.startsWith("HISTORY ")) {
+            handler.onHistory(Integer.parseInt(line.substring(8).trim()));
+        } else if (line.startsWith("POSITION ")) {
+            String[] p = line.substring(9).split(" ", 2);
+            try {
+                handler.onPosition(Integer.parseInt(p[0]), JsonUtil.jsonToSnapshot(p[1], null));
+            } catch (Exception e) {
+                System.err.println("Failed parse POSITION: " + e.getMessage());
+            }
+        } else if (line.equals("YOUR_TURN")) {
+            handler.onYourTurn();
+        } else if (line.equals("OPPONENT_TURN")) {
+            handler.onOpponentTurn();
+        } else if (line.equals("AGREEMENT_ON")) {
+            handler.onstoppedForAgreement();
+        } else if (line.equals("AGREEMENT_OFF")) {
+            handler.offstoppedForAgreement();
+        } else if (line.startsWith("WYNIKI1 ")) {
+            int value = Integer.parseInt(line.substring(8));
+            handler.wynikiPierwszego(value);
+        } else if (line.startsWith("WYNIKI2 ")) {
+            int value = Integer.parseInt(line.substring(8));
+            handler.wynikiDrugiego(value);
+        }
+        else if (line.startsWith("INFO ")) {
+            handler.onInfo(line.substring(5));
+        } else if (line.startsWith("ERROR ")) {
+            handler.onError(line.substring(6));
+        } else if (line.startsWith("OWNERSHIP ")) {
+            try {
+                handler.onOwnership(JsonUtil.jsonToOwnership(line.substring(10)));
+            } catch (IllegalArgumentException e) {
+                handler.onError("Bad ownership from server: " + e.getMessage());
+            }
+        } else if (line.startsWith("ANALYSIS ")) {
+            String[] p = line.substring(9).trim().split(" ");
+            try {
+                handler.onAnalysis(Integer.parseInt(p[0]), Integer.parseInt(p[1]), Integer.parseInt(p[2]), Integer.parseInt(p[3]));
+            } catch (RuntimeException e) {
+                System.err.println("Failed parse ANALYSIS: " + e.getMessage());
+            }
+        } else if (line.startsWith("OK #")) {
+            handler.onOk(line.substring(4));
+        } else if (line.startsWith("GAME_OVER")) {
+            closed = true; // po koncu gry nie wracamy
+            handler.onGameOver(line.substring(9).trim());
+        } else {
+            handler.onUnknown(line);
+        }
+    }
+
     /**
      * Closes the connection to the server.
      */
     public void close() {
+        closed = true;
         try { socket.close(); } catch (IOException ignored) {}
     }
 
@@ -124,11 +237,11 @@ public class ClientConnection {
          */
         void onStart(int myId);
         /**
-         * Called when the current board state is received.
+         * Called on the listener thread when the current board state is received.
          *
-         * @param b object representing the board
+         * @param b immutable board snapshot (safe to pass to other threads)
          */
-        void onBoard(Board b);
+        void onBoard(BoardSnapshot b);
         /** Indicates that it is the current player's turn */
         void onYourTurn();
          /** Indicates that it is the opponent's turn */
@@ -175,5 +288,48 @@ public class ClientConnection {
          * @param a result value
          */
         void wynikiDrugiego(int a);
+        /**
+         * Passes the number of moves played so far (reply to HISTORY).
+         *
+         * @param moves number of moves and passes
+         */
+        default void onHistory(int moves) {
+            onInfo("Game has " + moves + " moves. Use GOTO n to see a position.");
+        }
+        /**
+         * Passes a past position (reply to GOTO n).
+         *
+         * @param n move number
+         * @param b board after move n
+         */
+        default void onPosition(int n, BoardSnapshot b) {
+            onInfo("Position after move " + n + ":\n" + b);
+        }
+        /**
+         * Confirms a command sent with a request id ({@code #id COMMAND ...}).
+         *
+         * @param requestId id of the successful request
+         */
+        default void onOk(String requestId) {}
+        /**
+         * Passes the server's ownership estimate of the stopped position
+         * (sent during the agreement phase).
+         *
+         * @param m ownership map with suggested dead stones
+         */
+        default void onOwnership(OwnershipMap m) {
+            onInfo("Ownership estimate (X/O area, x/o dead stones):\n" + m);
+        }
+        /**
+         * Passes the node of the analysis tree just shown (after its BOARD line).
+         *
+         * @param node node id
+         * @param depth moves from the start
+         * @param variations number of variations from this position
+         * @param toMove player to move (1 or 2)
+         */
+        default void onAnalysis(int node, int depth, int variations, int toMove) {
+            onInfo("Analysis: node " + node + ", move " + depth + ", " + variations + " variation(s), player " + toMove + " to move");
+        }
     }
 }
\ No newline at end of file
@@ -3,24 +3,32 @@ package lab4.client;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 
-import lab4.common.Board;
+import lab4.common.BoardSnapshot;
 import lab4.common.JsonUtil;
 import lab4.common.Move;
 
 /**
  * Console client:
- * - commands: row col  (MOVE), PASS, RESIGN, quit/exit
+ * - commands: row col  (MOVE), PASS, RESIGN, HISTORY, GOTO n, quit/exit
+ * - pre-moves: IF row col THEN row col (PASS allowed on both sides), IF CLEAR
+ * - lobby: joins the matchmaking queue on start; NAME nick [secret], RATING [nick], LIST, CREATE [size], JOIN id
+ * - arguments: [name [secret]] are sent as NAME before QUEUE
  * - trims and uppercases commands, so PASS/Resign/move are robust against whitespace/case
+ * - {@code -Dlab4.ansi=true}: the board stays at the top of the terminal and only changed stones are redrawn
  */
 public class ClientMain
 {
+    /** System property turning on the in-place (ANSI) board display */
+    static final String ANSI_PROPERTY = "lab4.ansi";
+
     /**
      * Entry point of the console client application.
      * Establishes a connection to the server, sets up message handling,
      * and processes user input from the console.
      *
-     * @param args command-line arguments (not used)
+     * @param args optional player name (rated games)
      * @throws IOException if an I/O error occurs while reading input
      */
      public static void main(String[] args) throws IOException
@@ -43,12 +51,16 @@ public class ClientMain
         final int[] myId = {-1}; //tablica jednoelementowa; finalna; ale jej elementy mozna zmieniac
         /** Indicates whether the game is paused due to an agreement */
         final boolean[] stoppedForAgreement = {false};  // nowo dodane (jak true to czekamy na finish/resume)
+        /** Indicates whether the client explores variations (ANALYZE) instead of playing */
+        final boolean[] analyzing = {false};
         /**
          * Stores captured stones counts:
          * index 0 – first player,
          * index 1 – second player
          */
         final int[] wyniki = {0,0}; // 0 indeks -> zbite 1 gracza; 1 indeks -> zbite 2 gracza (do uzycia pozniej w gui)
+        /** Draws boards (reused buffer; in-place redraw with -Dlab4.ansi=true) */
+        final ConsoleBoardRenderer renderer = new ConsoleBoardRenderer(new OutputStreamWriter(System.out), Boolean.getBoolean(ANSI_PROPERTY));
 
         conn.startListening(new ClientConnection.MessageHandler() {
             @Override
@@ -59,10 +71,16 @@ public class ClientMain
             }
 
             @Override
-            public void onBoard(Board b)
+            public void onBoard(BoardSnapshot b)
             {
-                System.out.println("--- BOARD ---");
-                System.out.println(b.toString());
+                try
+                {
+                    if (!renderer.isAnsi()) System.out.println("--- BOARD ---");
+                    renderer.draw(b);
+                } catch (IOException e)
+                {
+                    System.err.println("Cannot draw board: " + e.getMessage());
+                }
             }
 
             @Override
@@ -94,6 +112,7 @@ public class ClientMain
             @Override
             public void onGameOver(String msg)
             {
+                resetScreen(renderer);
                 System.out.println("[GAME OVER] " + msg);
                 System.exit(0);
             }
@@ -101,6 +120,7 @@ public class ClientMain
             @Override
             public void onDisconnect()
             {
+                resetScreen(renderer);
                 System.err.println("Disconnected from server.");
                 System.exit(0);
             }
@@ -130,9 +150,18 @@ public class ClientMain
             public void wynikiDrugiego(int a) {
                 wyniki[1]=a;
             }
+
+            @Override
+            public void onAnalysis(int node, int depth, int variations, int toMove) {
+                analyzing[0] = true;
+                System.out.println("Analysis: move " + depth + ", " + variations + " variation(s), "
+                        + (toMove == 1 ? "X" : "O") + " to move. Use row col, PASS, BACK [n], FORWARD [i], ROOT, VARIATIONS, LEAVE");
+            }
         });
 
-        System.out.println("Connected. Wait until game starts...");
+        if (args.length > 0) conn.sendLine("NAME " + String.join(" ", args)); // nazwa [sekret]: gry z nazwa sa liczone do rankingu
+        conn.sendLine("QUEUE"); // automatyczne dobranie przeciwnika (inne: LIST, CREATE [size], JOIN id)
+        System.out.println("Connected. Wait until game starts... (or type LIST, CREATE [size], JOIN id)");
         BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
         while (true) 
         {
@@ -169,6 +198,54 @@ public class ClientMain
                 continue;
             }
 
+            if (up.startsWith("NAME ") || up.equals("RATING") || up.startsWith("RATING "))
+            {
+                String[] p = line.split("\\s+", 2);
+                conn.sendLine(p[0].toUpperCase() + (p.length > 1 ? " " + p[1] : "")); // nazwa bez zmiany wielkosci liter
+                continue;
+            }
+
+            if (up.equals("LIST") || up.equals("QUEUE") || up.startsWith("QUEUE ") || up.equals("CREATE")
+                    || up.startsWith("CREATE ") || up.startsWith("JOIN "))
+            {
+                conn.sendLine(up); // komendy lobby
+                continue;
+            }
+
+            if (up.equals("ANALYZE") || up.startsWith("ANALYZE ") || up.equals("BACK") || up.startsWith("BACK ")
+                    || up.equals("FORWARD") || up.startsWith("FORWARD ") || up.equals("ROOT") || up.equals("VARIATIONS"))
+            {
+                conn.sendLine(up); // drzewo wariantow (analiza na serwerze)
+                continue;
+            }
+
+            if (up.equals("LEAVE"))
+            {
+                analyzing[0] = false;
+                conn.sendLine("LEAVE");
+                continue;
+            }
+
+            if (up.equals("HISTORY") || up.startsWith("GOTO "))
+            {
+                conn.sendLine(up); // podglad poprzednich pozycji, dziala tez poza swoja tura
+                continue;
+            }
+
+            if (up.equals("IF CLEAR"))
+            {
+                conn.sendLine("IF CLEAR");
+                continue;
+            }
+
+            if (up.startsWith("IF "))
+            {
+                String cmd = conditionalCommand(up.substring(3), myId[0]);
+                if (cmd == null) System.out.println("Bad input. Use: IF row col THEN row col   (or PASS instead of row col)");
+                else conn.sendLine(cmd); // odpowiedz zagra serwer, gdy tylko przeciwnik wykona ten ruch
+                continue;
+            }
+
             if (up.equals("SCORE"))
             {
                 System.out.println("Player1: " + wyniki[0] + ", Plater2: " + wyniki[1]);
@@ -185,7 +262,7 @@ public class ClientMain
             }
 
             // otherwise try to parse move row col
-            if (!myTurn[0])
+            if (!myTurn[0] && !analyzing[0]) // w analizie kolor wybiera serwer
             {
                 System.out.println("Not your turn yet.");
                 continue;
@@ -201,7 +278,7 @@ public class ClientMain
             try {
                 int r = Integer.parseInt(parts[0]);
                 int c = Integer.parseInt(parts[1]);
-                Move m = new Move(r, c, myId[0]);
+                Move m = new Move(r, c, myId[0] > 0 ? myId[0] : 1);
                 String json = JsonUtil.moveToJson(m);
                 conn.sendMoveJson(json);
             } catch (NumberFormatException e) {
@@ -209,4 +286,53 @@ public class ClientMain
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Gives the terminal its normal scrolling back before the client prints its last lines.
+     *
+     * @param renderer board renderer
+     */
+    private static void resetScreen(ConsoleBoardRenderer renderer)
+    {
+        try
+        {
+            renderer.reset();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Builds an IF command from console input "row col THEN row col" (PASS allowed on either side).
+     *
+     * @param text input after "IF", upper case
+     * @param myId this player's id
+     * @return protocol line, or null if the input is malformed
+     */
+    static String conditionalCommand(String text, int myId)
+    {
+        String[] sides = text.split("\\s+THEN\\s+");
+        if (sides.length != 2) return null;
+        String ifMove = conditionalSide(sides[0].trim(), myId == 1 ? 2 : 1);
+        String reply = conditionalSide(sides[1].trim(), myId);
+        if (ifMove == null || reply == null) return null;
+        return "IF " + ifMove + " THEN " + reply;
+    }
+
+    /**
+     * Converts "row col" to move JSON, or keeps PASS.
+     *
+     * @param side "row col" or "PASS"
+     * @param player player making that move
+     * @return move JSON or PASS, or null if malformed
+     */
+    private static String conditionalSide(String side, int player)
+    {
+        if (side.equals("PASS")) return "PASS";
+        String[] rc = side.split("\\s+");
+        if (rc.length != 2) return null;
+        try {
+            return JsonUtil.moveToJson(new Move(Integer.parseInt(rc[0]), Integer.parseInt(rc[1]), player));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
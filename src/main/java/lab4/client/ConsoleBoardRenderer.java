@@ -0,0 +1,244 @@
+package lab4.client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import lab4.common.BoardSnapshot;
+
+/**
+ * Rysowanie planszy w konsoli bez String.format i bez nowych napisow na kazdy ruch.
+ * <p>
+ * The header line and the row labels are built once per board size, and every
+ * board is written into one reusable char buffer with a single
+ * {@link Writer#write(char[], int, int)}. The text is the same as
+ * {@link lab4.common.Board#toString()}.
+ * <p>
+ * In ANSI mode the board is drawn once at the top of the screen and the lines
+ * below it become a scroll region for messages. Every later board only moves
+ * the cursor to the cells that changed (usually one or a few stones), writes
+ * them and puts the cursor back, so a fast game over SSH sends a few dozen
+ * bytes per move instead of the whole board. Used by one thread (the network
+ * listener).
+ */
+public final class ConsoleBoardRenderer {
+    /** Control Sequence Introducer */
+    private static final String CSI = "\u001b[";
+
+    /** Destination (flushed after every board) */
+    private final Writer out;
+    /** True for in-place redraw with ANSI escape sequences */
+    private final boolean ansi;
+    /** Reused output buffer */
+    private char[] buf = new char[1024];
+    /** Characters in buf */
+    private int len;
+    /** Board size of header and labels (-1 = not built yet) */
+    private int preparedSize = -1;
+    /** Column header line for preparedSize, including '\n' */
+    private char[] header;
+    /** Row labels ("%2d: ") for preparedSize */
+    private char[][] labels;
+    /** ANSI mode: board currently on the screen, or null (next board is drawn in full) */
+    private BoardSnapshot shown;
+
+    /**
+     * Creates a renderer.
+     *
+     * @param out console writer
+     * @param ansi redraw changed cells in place (terminal must support ANSI escapes)
+     */
+    public ConsoleBoardRenderer(Writer out, boolean ansi) {
+        this.out = out;
+        this.ansi = ansi;
+    }
+
+    /**
+     * Returns whether the renderer redraws in place.
+     *
+     * @return true in ANSI mode
+     */
+    public boolean isAnsi() {
+        return ansi;
+    }
+
+    /**
+     * Draws a board: the full text, or in ANSI mode only the cells that changed
+     * since the previous board.
+     *
+     * @param b board to show
+     * @throws IOException if writing fails
+     */
+    public void draw(BoardSnapshot b) throws IOException {
+        len = 0;
+        if (!ansi) {
+            appendBoard(b);
+        } else if (shown == null || shown.size != b.size) {
+            append(CSI).append("2J").append(CSI).append('H'); // czysty ekran, kursor w lewym gornym rogu
+            appendBoard(b);
+            append(CSI).appendInt(b.size + 2).append('r'); // komunikaty przewijaja sie pod plansza
+            append(CSI).appendInt(b.size + 2).append(";1H");
+        } else {
+            appendChanges(b);
+        }
+        shown = b;
+        if (len == 0) return;
+        out.write(buf, 0, len);
+        out.flush();
+    }
+
+    /**
+     * Leaves ANSI mode: restores the whole screen as the scroll region. The
+     * next board is drawn in full.
+     *
+     * @throws IOException if writing fails
+     */
+    public void reset() throws IOException {
+        if (ansi && shown != null) {
+            out.write(CSI + "r");
+            out.flush();
+        }
+        shown = null;
+    }
+
+    /**
+     * Appends the full board text (same format as Board.toString()).
+     *
+     * @param b board
+     */
+    private void appendBoard(BoardSnapshot b) {
+        prepare(b.size);
+        append(header);
+        for (int r = 0; r < b.size; r++) {
+            append(labels[r]);
+            ensure(b.size * 2 + 1);
+            for (int c = 0; c < b.size; c++) {
+                buf[len++] = ' ';
+                buf[len++] = symbol(b.get(r, c));
+            }
+            buf[len++] = '\n';
+        }
+    }
+
+    /**
+     * Appends cursor moves and symbols for the cells that differ from the
+     * board on the screen; the cursor is saved and restored around them.
+     *
+     * @param b new board of the same size
+     */
+    private void appendChanges(BoardSnapshot b) {
+        int start = len;
+        append("\u001b7"); // zapamietaj kursor (tam pisze uzytkownik i komunikaty)
+        boolean changed = false;
+        for (int r = 0; r < b.size; r++) {
+            if (b.sameRow(shown, r)) continue; // wspolny wiersz = bez zmian
+            for (int c = 0; c < b.size; c++) {
+                if (b.get(r, c) == shown.get(r, c)) continue;
+                append(CSI).appendInt(r + 2).append(';').appendInt(6 + 2 * c).append('H').append(symbol(b.get(r, c)));
+                changed = true;
+            }
+        }
+        if (changed) append("\u001b8");
+        else len = start;
+    }
+
+    /**
+     * Builds the header and row labels for a board size.
+     *
+     * @param size board size
+     */
+    private void prepare(int size) {
+        if (size == preparedSize) return;
+        header = new char[4 + 2 * size + 1];
+        Arrays.fill(header, ' ');
+        for (int c = 0; c < size; c++) twoDigits(header, 4 + 2 * c, c);
+        header[header.length - 1] = '\n';
+        labels = new char[size][];
+        for (int r = 0; r < size; r++) {
+            labels[r] = new char[] {' ', ' ', ':', ' '};
+            twoDigits(labels[r], 0, r);
+        }
+        preparedSize = size;
+    }
+
+    /**
+     * Writes a number right-aligned in two characters (like "%2d").
+     *
+     * @param dst destination
+     * @param at first of the two positions
+     * @param v number (0..99)
+     */
+    private static void twoDigits(char[] dst, int at, int v) {
+        dst[at] = v < 10 ? ' ' : (char) ('0' + v / 10 % 10);
+        dst[at + 1] = (char) ('0' + v % 10);
+    }
+
+    /**
+     * Returns the symbol of a point.
+     *
+     * @param v 0 empty, 1 player 1, 2 player 2
+     * @return '.', 'X' or 'O'
+     */
+    private static char symbol(int v) {
+        return v == 1 ? 'X' : v == 2 ? 'O' : '.';
+    }
+
+    /**
+     * Makes room for more characters.
+     *
+     * @param n characters to be appended
+     */
+    private void ensure(int n) {
+        if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+    }
+
+    /**
+     * Appends characters.
+     *
+     * @param s text
+     * @return this renderer
+     */
+    private ConsoleBoardRenderer append(String s) {
+        ensure(s.length());
+        s.getChars(0, s.length(), buf, len);
+        len += s.length();
+        return this;
+    }
+
+    /**
+     * Appends characters.
+     *
+     * @param s text
+     * @return this renderer
+     */
+    private ConsoleBoardRenderer append(char[] s) {
+        ensure(s.length);
+        System.arraycopy(s, 0, buf, len, s.length);
+        len += s.length;
+        return this;
+    }
+
+    /**
+     * Appends one character.
+     *
+     * @param ch character
+     * @return this renderer
+     */
+    private ConsoleBoardRenderer append(char ch) {
+        ensure(1);
+        buf[len++] = ch;
+        return this;
+    }
+
+    /**
+     * Appends a small non-negative number without creating a String.
+     *
+     * @param v number (0..999)
+     * @return this renderer
+     */
+    private ConsoleBoardRenderer appendInt(int v) {
+        if (v >= 100) append((char) ('0' + v / 100));
+        if (v >= 10) append((char) ('0' + v / 10 % 10));
+        return append((char) ('0' + v % 10));
+    }
+}
@@ -7,11 +7,15 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridLayout;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -28,9 +32,10 @@ import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 
-import lab4.common.Board;
+import lab4.common.BoardSnapshot;
 import lab4.common.JsonUtil;
 import lab4.common.Move;
+import lab4.common.OwnershipMap;
 
 /**
  * Swing GUI client (działa jak ClientMain konsolowy, można ich używać zamiennie)
@@ -53,8 +58,14 @@ public class SwingClientMain {
     private boolean stoppedForAgreement = false;
     /** Stores captured stones count for both players */
     private final int[] wyniki = {0, 0};
-    /** Current board state */
-    private Board board;
+    /** Newest board received from the server; the only hand-off point between listener thread and EDT */
+    private volatile BoardSnapshot latestBoard;
+    /** True while a render of latestBoard is queued on the EDT (coalesces bursts of BOARD lines) */
+    private final AtomicBoolean renderQueued = new AtomicBoolean(false);
+    /** Board currently displayed (EDT only) */
+    private BoardSnapshot board;
+    /** Server's ownership estimate shown during the agreement phase, or null (EDT only) */
+    private OwnershipMap ownership;
 
     // Swing
     /** Main application window */
@@ -89,16 +100,19 @@ public class SwingClientMain {
      * Application entry point.
      * Ensures that the GUI is created on the Swing event dispatch thread.
      *
-     * @param args command-line arguments (not used)
+     * @param args optional player name and its secret (rated games)
      */
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new SwingClientMain().start()); // kod wewnątrz niej (stworzenie lambdą SwingClientMain oraz wywołanie start) zostanie wykonany na głównym wątku aplikacji Swing
+        String name = args.length > 0 ? String.join(" ", args) : null; // "nazwa [sekret]" idzie w NAME
+        SwingUtilities.invokeLater(() -> new SwingClientMain().start(name)); // kod wewnątrz niej (stworzenie lambdą SwingClientMain oraz wywołanie start) zostanie wykonany na głównym wątku aplikacji Swing
     }
 
     /**
      * Initializes the client connection and builds the GUI.
+     *
+     * @param name player name with an optional secret ("nick [secret]"), or null to play anonymously (not rated)
      */
-    private void start() {
+    private void start(String name) {
         try {
             conn = new ClientConnection("localhost", 55555);
         } catch (IOException e) {
@@ -108,6 +122,8 @@ public class SwingClientMain {
         // jak połączenie się powiedzie
         buildGui();
         registerHandlers();
+        if (name != null) conn.sendLine("NAME " + name);
+        conn.sendLine("QUEUE"); // czekamy na automatycznie dobranego przeciwnika
     }
 
     // GUI
@@ -275,9 +291,10 @@ public class SwingClientMain {
                 log("SYSTEM", "You are Player " + id + " (" + color + ")");
             }
 
-            @Override public void onBoard(Board b) {
-                board = b;
-                boardPanel.repaint(); // wywołuje PaintComponent
+            @Override public void onBoard(BoardSnapshot b) {
+                latestBoard = b;
+                // jesli render jest juz w kolejce, pokaze on najnowsza plansze - nie dokladamy kolejnego
+                if (renderQueued.compareAndSet(false, true)) SwingUtilities.invokeLater(SwingClientMain.this::renderLatestBoard);
             }
 
             @Override public void onYourTurn() {
@@ -328,7 +345,19 @@ public class SwingClientMain {
                 updateButtons();
             }
 
+            @Override public void onOwnership(OwnershipMap m) {
+                SwingUtilities.invokeLater(() -> {
+                    ownership = m;
+                    boardPanel.repaint();
+                    log("SYSTEM", "Estimated territory shown; " + m.deadCount() + " stone(s) marked as dead");
+                });
+            }
+
             @Override public void offstoppedForAgreement() {
+                SwingUtilities.invokeLater(() -> {
+                    ownership = null; // po wznowieniu szacunek jest nieaktualny
+                    boardPanel.repaint();
+                });
                 stoppedForAgreement = false;
                 agreementLabel.setText(" ");
                 log("SYSTEM", "Game resumed");
@@ -347,14 +376,42 @@ public class SwingClientMain {
         });
     }
 
+    /**
+     * Displays the newest received board (runs on the EDT).
+     * Intermediate boards that arrived in the meantime are skipped.
+     */
+    private void renderLatestBoard() {
+        renderQueued.set(false);
+        BoardSnapshot old = board;
+        board = latestBoard;
+        boardPanel.repaintChanged(old, board); // wywołuje PaintComponent tylko dla zmienionych pól
+    }
+
     // BoardPanel !!!
     /**
      * Custom panel responsible for rendering the game board
      * and handling mouse input.
+     * <p>
+     * The wooden background with grid lines and the two stone images are drawn
+     * once into cached images and rebuilt only when the panel or board size
+     * changes. After a move only the cells that changed are repainted.
      */
     private class BoardPanel extends JPanel {
+        /** Serialization version (JPanel is Serializable; the image caches are transient) */
+        private static final long serialVersionUID = 1L;
         /** Margin from panel edges to the board grid */
         private static final int M = 40; // margines planszy od krawędzi
+        /** Board background colour */
+        private static final Color WOOD = new Color(220, 180, 120);
+
+        /** Cached background with grid lines (null until first paint or after resize) */
+        private transient BufferedImage background;
+        /** Pre-rendered black stone */
+        private transient BufferedImage blackStone;
+        /** Pre-rendered white stone */
+        private transient BufferedImage whiteStone;
+        /** Panel width, height, board size and cell size the caches were built for */
+        private int cachedW = -1, cachedH = -1, cachedSize = -1, cachedCell = -1;
 
         /**
          * Creates the board panel and registers mouse input handling.
@@ -385,23 +442,47 @@ public class SwingClientMain {
         }
 
         /**
-         * Renders the board grid and stones.
+         * Schedules a repaint of only the cells that differ between two boards.
+         * Falls back to a full repaint when there is no previous board or the size changed.
          *
-         * @param g graphics context
+         * @param old previously displayed board (may be null)
+         * @param b new board
          */
-        @Override protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            if (board == null) return;
-
-            Graphics2D g2 = (Graphics2D) g; // Graphics2D pozwala na bardziej zaawansowane rysowanie niż zwykły Graphics
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON); // Antyaliasing sprawia, że linie i okręgi są wygładzone
-
-            int size = board.size;
-            int cell = Math.min(getWidth(), getHeight()) / (size + 1); // rozmiar pojedynczej komorki w px
-
-            g2.setColor(new Color(220, 180, 120)); // kolor tła
-            g2.fillRect(0, 0, getWidth(), getHeight()); // wypełniamy nim cały BoardPanel
+        void repaintChanged(BoardSnapshot old, BoardSnapshot b) {
+            if (old == b) return;
+            if (old == null || old.size != b.size) {
+                repaint();
+                return;
+            }
+            int cell = Math.min(getWidth(), getHeight()) / (b.size + 1);
+            for (int r = 0; r < b.size; r++) {
+                if (b.sameRow(old, r)) continue; // wiersz wspoldzielony = bez zmian
+                for (int c = 0; c < b.size; c++) {
+                    if (old.get(r, c) != b.get(r, c)) {
+                        repaint(M + c * cell - cell / 2, M + r * cell - cell / 2, cell + 1, cell + 1); // tylko ta komórka
+                    }
+                }
+            }
+        }
 
+        /**
+         * Rebuilds the background and stone images if the panel or board size changed.
+         *
+         * @param size board size
+         * @param cell cell size in pixels
+         */
+        private void ensureCaches(int size, int cell) {
+            if (background != null && cachedW == getWidth() && cachedH == getHeight() && cachedSize == size && cachedCell == cell) return;
+            cachedW = getWidth();
+            cachedH = getHeight();
+            cachedSize = size;
+            cachedCell = cell;
+
+            background = getGraphicsConfiguration().createCompatibleImage(Math.max(cachedW, 1), Math.max(cachedH, 1));
+            Graphics2D g2 = background.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(WOOD); // kolor tła
+            g2.fillRect(0, 0, cachedW, cachedH); // wypełniamy nim cały BoardPanel
             //rysowanie planszy ( czarnych linii)
             g2.setColor(Color.BLACK);
             for (int i = 0; i < size; i++) {
@@ -409,18 +490,100 @@ public class SwingClientMain {
                 g2.drawLine(M, p, M + cell * (size - 1), p); // poziome; od (M, p) do (M + cell*(size-1), p)
                 g2.drawLine(p, M, p, M + cell * (size - 1)); // pionowe; od (p, M) do (p, M + cell*(size-1))
             }
-            //rysowanie kamieni
-            int rStone = cell / 2 - 2; // promień kamienia
-            for (int r = 0; r < size; r++) for (int c = 0; c < size; c++) {
-                int v = board.grid[r][c];
+            g2.dispose();
+
+            int rStone = Math.max(cell / 2 - 2, 1); // promień kamienia
+            blackStone = stoneImage(rStone, Color.BLACK);
+            whiteStone = stoneImage(rStone, Color.WHITE);
+        }
+
+        /**
+         * Renders a single antialiased stone with a black outline into a translucent image.
+         *
+         * @param rStone stone radius
+         * @param fill stone colour
+         * @return stone image of size 2*rStone+1
+         */
+        private BufferedImage stoneImage(int rStone, Color fill) {
+            BufferedImage img = getGraphicsConfiguration().createCompatibleImage(rStone * 2 + 1, rStone * 2 + 1, Transparency.TRANSLUCENT);
+            Graphics2D g2 = img.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(fill);
+            g2.fillOval(0, 0, rStone * 2, rStone * 2); // fillOval rysuje wypełniony kamień
+            g2.setColor(Color.BLACK);
+            g2.drawOval(0, 0, rStone * 2, rStone * 2); // drawOval rysuje obwódkę
+            g2.dispose();
+            return img;
+        }
+
+        /**
+         * Renders the board grid and stones inside the current clip.
+         *
+         * @param g graphics context
+         */
+        @Override protected void paintComponent(Graphics g) {
+            BoardSnapshot b = board;
+            if (b == null) {
+                super.paintComponent(g);
+                return;
+            }
+
+            int size = b.size;
+            int cell = Math.min(getWidth(), getHeight()) / (size + 1); // rozmiar pojedynczej komorki w px
+            ensureCaches(size, cell);
+            g.drawImage(background, 0, 0, null);
+
+            //rysowanie kamieni, tylko tych które wchodzą w obszar do odświeżenia
+            Rectangle clip = g.getClipBounds();
+            int r0 = 0, r1 = size - 1, c0 = 0, c1 = size - 1;
+            if (clip != null && cell > 0) {
+                r0 = Math.max(0, (clip.y - M) / cell - 1);
+                r1 = Math.min(size - 1, (clip.y + clip.height - M) / cell + 1);
+                c0 = Math.max(0, (clip.x - M) / cell - 1);
+                c1 = Math.min(size - 1, (clip.x + clip.width - M) / cell + 1);
+            }
+            int rStone = blackStone.getWidth() / 2;
+            for (int r = r0; r <= r1; r++) for (int c = c0; c <= c1; c++) {
+                int v = b.get(r, c);
                 if (v == 0) continue; // puste pole
                 int x = M + c * cell; // wspolrzedne do wstawienia kamienia
                 int y = M + r * cell;
-                g2.setColor(v == 1 ? Color.BLACK : Color.WHITE); // kolor zalezny czy 1 czy nie
-                g2.fillOval(x - rStone, y - rStone, rStone * 2, rStone * 2); // fillOval rysuje wypełniony kamień
-                g2.setColor(Color.BLACK);
-                g2.drawOval(x - rStone, y - rStone, rStone * 2, rStone * 2); // drawOval rysuje obwódkę
+                g.drawImage(v == 1 ? blackStone : whiteStone, x - rStone, y - rStone, null);
+            }
+            OwnershipMap own = ownership;
+            if (own != null && own.size == size) paintOwnership(g, b, own, cell, r0, r1, c0, c1);
+        }
+
+        /**
+         * Draws the ownership estimate: small squares on empty points in the
+         * owner's colour (more opaque = more certain) and red crosses on dead stones.
+         *
+         * @param g graphics context
+         * @param b displayed board
+         * @param own ownership estimate
+         * @param cell cell size in pixels
+         * @param r0 first row to draw
+         * @param r1 last row to draw
+         * @param c0 first column to draw
+         * @param c1 last column to draw
+         */
+        private void paintOwnership(Graphics g, BoardSnapshot b, OwnershipMap own, int cell, int r0, int r1, int c0, int c1) {
+            int half = Math.max(cell / 6, 2);
+            for (int r = r0; r <= r1; r++) for (int c = c0; c <= c1; c++) {
+                int x = M + c * cell;
+                int y = M + r * cell;
+                if (own.isDead(r, c)) {
+                    g.setColor(Color.RED);
+                    g.drawLine(x - half, y - half, x + half, y + half);
+                    g.drawLine(x - half, y + half, x + half, y - half);
+                    continue;
+                }
+                int o = own.ownership(r, c);
+                if (b.get(r, c) != 0 || Math.abs(o) < 20) continue; // kamienie i pola niepewne bez znacznika
+                int alpha = Math.min(255, Math.abs(o) * 2);
+                g.setColor(o > 0 ? new Color(0, 0, 0, alpha) : new Color(255, 255, 255, alpha));
+                g.fillRect(x - half, y - half, half * 2, half * 2);
             }
         }
     }
-}
\ No newline at end of file
+}
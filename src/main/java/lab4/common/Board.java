@@ -1,6 +1,6 @@
 package lab4.common;
 
-import java.util.Stack;
+import java.util.Arrays;
 
 /**
  * DTO + logika planszy (capture, suicide check).
@@ -18,6 +18,18 @@ public class Board {
      */
     public int[][] grid; // 0 empty, 1 player1 (X), 2 player2 (O) !!!
 
+    /** Row offsets of the four neighbours (down, up, right, left) */
+    private static final int[] DR = {1, -1, 0, 0};
+    /** Column offsets of the four neighbours */
+    private static final int[] DC = {0, 0, 1, -1};
+
+    /** Group search stack / removed group, points encoded as r * size + c (reused, so a move allocates nothing) */
+    private final int[] stack;
+    /** Visit stamps for hasLiberties; a point is visited when mark[r][c] == stamp */
+    private final int[][] mark;
+    /** Current visit stamp */
+    private int stamp = 0;
+
     /**
      * Creates an empty board of the given size.
      *
@@ -26,6 +38,8 @@ public class Board {
     public Board(int size) {
         this.size = size;
         this.grid = new int[size][size];
+        this.stack = new int[size * size];
+        this.mark = new int[size][size];
     }
 
     /**
@@ -77,10 +91,9 @@ public class Board {
         int enemy = (player == 1 ? 2 : 1);
         int captured = 0;
 
-        int[][] dirs = {{1,0},{-1,0},{0,1},{0,-1}}; // do iteracji po kierunkach na boki, gora i dol
-        // check neighbor enemy groups for capture
-        for (int[] d : dirs) {
-            int nr = r + d[0], nc = c + d[1];
+        // check neighbor enemy groups for capture (DR/DC - kierunki na boki, gora i dol)
+        for (int d = 0; d < 4; d++) {
+            int nr = r + DR[d], nc = c + DC[d];
             if (!inBounds(nr,nc)) continue;
             if (grid[nr][nc] == enemy) {
                 if (!hasLiberties(grid, nr, nc)) { // sprawdzamy czy jakis wrogi sasiad nie ma teraz 0 oddechow (umieramy go)
@@ -115,35 +128,22 @@ public class Board {
         if (!inBounds(r,c)) return 0;
         if (grid[r][c] != color) return 0;
 
-        int removed = 0;
-        Stack<int[]> st = new Stack<>();
-        st.push(new int[]{r,c}); // opis w funkcji nizej
-        // mark visited by negating color (temporary marker); zeby nie wpasc w petle z tymi ktore juz zaznaczylismy
-        grid[r][c] = -color;
-
-        while (!st.isEmpty()) {
-            int[] p = st.pop();
-            int pr = p[0], pc = p[1];
-            removed++;
-            int[][] dirs = {{1,0},{-1,0},{0,1},{0,-1}};
-            for (int[] d : dirs) {
-                int nr = pr + d[0], nc = pc + d[1];
+        // stack[0..count) to cala grupa; zdjete kamienie od razu zerujemy, wiec nie odwiedzimy ich drugi raz
+        int count = 0;
+        stack[count++] = r * size + c;
+        grid[r][c] = 0;
+        for (int i = 0; i < count; i++) {
+            int pr = stack[i] / size, pc = stack[i] % size;
+            for (int d = 0; d < 4; d++) {
+                int nr = pr + DR[d], nc = pc + DC[d];
                 if (!inBounds(nr,nc)) continue;
                 if (grid[nr][nc] == color) {
-                    st.push(new int[]{nr,nc});
-                    grid[nr][nc] = -color;
+                    stack[count++] = nr * size + nc;
+                    grid[nr][nc] = 0;
                 }
             }
         }
-
-        // clear markers -> set to 0 (removed)
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                if (grid[i][j] == -color) grid[i][j] = 0;
-            }
-        }
-
-        return removed;
+        return count;
     }
 
     // check if group at r,c has liberties on the given board array
@@ -164,22 +164,24 @@ public class Board {
         int color = boardCopy[r][c];
         if (color == 0) return true;
 
-        boolean[][] visited = new boolean[size][size];
-        Stack<int[]> st = new Stack<>();
-        st.push(new int[]{r,c}); // wrzucamy pierwszy kamien
-        visited[r][c] = true; // odwiedzony
-
-        while (!st.isEmpty()) {
-            int[] p = st.pop();
-            int pr = p[0], pc = p[1];
-            int[][] dirs = {{1,0},{-1,0},{0,1},{0,-1}}; // cztery kierunki
-            for (int[] d : dirs) {
-                int nr = pr + d[0], nc = pc + d[1];
+        if (++stamp == 0) { // przepelnienie licznika: czyscimy znaczniki
+            for (int[] row : mark) Arrays.fill(row, 0);
+            stamp = 1;
+        }
+        int top = 0;
+        stack[top++] = r * size + c; // wrzucamy pierwszy kamien
+        mark[r][c] = stamp; // odwiedzony
+
+        while (top > 0) {
+            int p = stack[--top];
+            int pr = p / size, pc = p % size;
+            for (int d = 0; d < 4; d++) { // cztery kierunki
+                int nr = pr + DR[d], nc = pc + DC[d];
                 if (!inBounds(nr,nc)) continue;
                 if (boardCopy[nr][nc] == 0) return true; // znalezlismy wolne pole, czyli ma jakis oodech
-                if (!visited[nr][nc] && boardCopy[nr][nc] == color) {
-                    visited[nr][nc] = true;
-                    st.push(new int[]{nr,nc});
+                if (mark[nr][nc] != stamp && boardCopy[nr][nc] == color) {
+                    mark[nr][nc] = stamp;
+                    stack[top++] = nr * size + nc;
                 }
             }
         }
@@ -198,6 +200,15 @@ public class Board {
         return copy;
     }
 
+    /**
+     * Copies the board grid into an existing array (no allocation).
+     *
+     * @param dst destination grid of the same size
+     */
+    public synchronized void copyGridTo(int[][] dst) {
+        for (int i = 0; i < size; i++) System.arraycopy(grid[i], 0, dst[i], 0, size);
+    }
+
     // restore from copy
     /**
      * Restores the board state from a given grid copy.
@@ -235,12 +246,12 @@ public class Board {
      */
     @Override
     public synchronized String toString() {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(4 + (size + 2) * (2 * size + 5));
         sb.append("    ");
-        for (int c = 0; c < size; c++) sb.append(String.format("%2d", c));
+        for (int c = 0; c < size; c++) sb.append(c < 10 ? " " : "").append(c); // jak "%2d", bez String.format
         sb.append("\n");
         for (int r = 0; r < size; r++) {
-            sb.append(String.format("%2d: ", r));
+            sb.append(r < 10 ? " " : "").append(r).append(": ");
             for (int c = 0; c < size; c++) {
                 char ch = '.';
                 if (grid[r][c] == 1) ch = 'X';
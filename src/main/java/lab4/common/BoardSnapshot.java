@@ -0,0 +1,95 @@
+package lab4.common;
+
+/**
+ * Niezmienny obraz planszy po stronie klienta.
+ * <p>
+ * Rows are never modified after construction, so a snapshot can be handed from
+ * the network thread to the GUI without locking. Rows that did not change since
+ * the previous snapshot are shared with it (same array instance), which also
+ * lets renderers skip unchanged rows with a reference check.
+ */
+public final class BoardSnapshot {
+    /** Board size (number of rows and columns) */
+    public final int size;
+    /** Rows of the board: 0 empty, 1 player1 (X), 2 player2 (O); never modified */
+    private final int[][] rows;
+
+    /**
+     * Creates a snapshot from rows that the caller will no longer modify.
+     *
+     * @param size board size
+     * @param rows row arrays (taken over, not copied)
+     */
+    BoardSnapshot(int size, int[][] rows) {
+        this.size = size;
+        this.rows = rows;
+    }
+
+    /**
+     * Creates a snapshot by copying a mutable board.
+     *
+     * @param b source board
+     * @return snapshot of the board
+     */
+    public static BoardSnapshot of(Board b) {
+        return new BoardSnapshot(b.size, b.getGridCopy());
+    }
+
+    /**
+     * Returns the stone at the given point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 or 2 player
+     */
+    public int get(int r, int c) {
+        return rows[r][c];
+    }
+
+    /**
+     * Checks whether the given row is shared with (hence equal to) another snapshot's row.
+     *
+     * @param other other snapshot (may be null)
+     * @param r row index
+     * @return true if both snapshots use the same row array
+     */
+    public boolean sameRow(BoardSnapshot other, int r) {
+        return other != null && other.size == size && other.rows[r] == rows[r];
+    }
+
+    /**
+     * Returns the row array of another snapshot if it holds the same values, so it can be shared.
+     *
+     * @param previous previous snapshot (may be null)
+     * @param r row index
+     * @param row freshly decoded row
+     * @return previous row instance if equal, otherwise {@code row}
+     */
+    static int[] shareRow(BoardSnapshot previous, int r, int[] row) {
+        if (previous == null || previous.size != row.length) return row;
+        int[] old = previous.rows[r];
+        for (int c = 0; c < row.length; c++) if (old[c] != row[c]) return row;
+        return old;
+    }
+
+    /**
+     * Returns a mutable copy of this snapshot.
+     *
+     * @return new board with the same stones
+     */
+    public Board toBoard() {
+        Board b = new Board(size);
+        b.setGridFromCopy(rows);
+        return b;
+    }
+
+    /**
+     * Returns a human-readable textual representation of the board (same format as Board).
+     *
+     * @return board as formatted string
+     */
+    @Override
+    public String toString() {
+        return toBoard().toString();
+    }
+}
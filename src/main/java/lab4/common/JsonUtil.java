@@ -24,20 +24,57 @@ public class JsonUtil {
      * @throws IllegalArgumentException if the JSON is invalid or fields are missing
      */
     public static Move jsonToMove(String json) {
+        return parseMove(json, new Move());
+    }
+
+    /**
+     * Parses a move JSON into an existing Move object (no allocation on success,
+     * used by the server for every MOVE command).
+     *
+     * @param json JSON string representing a move
+     * @param into move to fill
+     * @return {@code into}
+     * @throws IllegalArgumentException if the JSON is invalid or fields are missing
+     */
+    public static Move parseMove(String json, Move into) {
+        int row, col, player;
         try {
-            String s = json.trim().replaceAll("[{}\" ]", "");
-            String[] parts = s.split(",");
-            int row = -1, col = -1, player = -1;
-            for (String p : parts) {
-                if (p.startsWith("row:")) row = Integer.parseInt(p.substring(4)); //czesc indeksu od 4 do konca
-                if (p.startsWith("col:")) col = Integer.parseInt(p.substring(4));
-                if (p.startsWith("player:")) player = Integer.parseInt(p.substring(7));
-            }
-            if (row < 0 || col < 0 || player <= 0) throw new IllegalArgumentException("Bad move fields");
-            return new Move(row, col, player);
+            row = moveField(json, "row");
+            col = moveField(json, "col");
+            player = moveField(json, "player");
         } catch (Exception e) {
             throw new IllegalArgumentException("Invalid Move JSON: " + e.getMessage());
         }
+        if (row < 0 || col < 0 || player <= 0) throw new IllegalArgumentException("Invalid Move JSON: Bad move fields");
+        into.row = row;
+        into.col = col;
+        into.player = player;
+        return into;
+    }
+
+    /**
+     * Reads an integer field of a move ({@code "key":value}, quotes optional).
+     *
+     * @param json move JSON
+     * @param key field name without quotes
+     * @return value, or -1 if the field is missing or negative
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    private static int moveField(String json, String key) {
+        for (int i = json.indexOf(key); i >= 0; i = json.indexOf(key, i + 1)) {
+            if (i > 0 && Character.isLetter(json.charAt(i - 1))) continue; // np. "arrow" to nie "row"
+            int j = i + key.length();
+            while (j < json.length() && (json.charAt(j) == '"' || json.charAt(j) == ' ')) j++;
+            if (j >= json.length() || json.charAt(j) != ':') continue;
+            j++;
+            while (j < json.length() && (json.charAt(j) == '"' || json.charAt(j) == ' ')) j++;
+            if (j < json.length() && json.charAt(j) == '-') return -1;
+            int start = j, v = 0;
+            while (j < json.length() && Character.isDigit(json.charAt(j)) && j - start < 9) v = v * 10 + (json.charAt(j++) - '0');
+            if (j == start) throw new IllegalArgumentException("Bad value of " + key);
+            return v;
+        }
+        return -1;
     }
 
     /**
@@ -47,7 +84,18 @@ public class JsonUtil {
      * @return JSON representation of the board
      */
     public static String boardToJson(Board b) {
-        StringBuilder sb = new StringBuilder();
+        return appendBoard(new StringBuilder(16 + b.size * b.size * 2), b).toString();
+    }
+
+    /**
+     * Appends the JSON form of a board to a builder (reused by the server, so a
+     * broadcast does not allocate).
+     *
+     * @param sb output
+     * @param b board to serialize
+     * @return {@code sb}
+     */
+    public static StringBuilder appendBoard(StringBuilder sb, Board b) {
         sb.append("{\"size\":").append(b.size).append(",\"grid\":[");
         for (int r = 0; r < b.size; r++) {
             sb.append("[");
@@ -59,7 +107,29 @@ public class JsonUtil {
             if (r < b.size - 1) sb.append(",");
         }
         sb.append("]}");
-        return sb.toString();
+        return sb;
+    }
+
+    /**
+     * Appends the JSON form of a persistent board (same format as a Board).
+     *
+     * @param sb output
+     * @param b board to serialize
+     * @return {@code sb}
+     */
+    public static StringBuilder appendBoard(StringBuilder sb, PersistentBoard b) {
+        sb.append("{\"size\":").append(b.size).append(",\"grid\":[");
+        for (int r = 0; r < b.size; r++) {
+            sb.append("[");
+            for (int c = 0; c < b.size; c++) {
+                sb.append(b.get(r, c));
+                if (c < b.size - 1) sb.append(",");
+            }
+            sb.append("]");
+            if (r < b.size - 1) sb.append(",");
+        }
+        sb.append("]}");
+        return sb;
     }
 
      /**
@@ -95,4 +165,144 @@ public class JsonUtil {
             throw new IllegalArgumentException("Invalid Board JSON: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Deserializes a board JSON string into an immutable snapshot.
+     * Rows equal to the corresponding rows of {@code previous} reuse its arrays,
+     * so consecutive snapshots share everything except the rows a move touched.
+     *
+     * @param json JSON string representing a board
+     * @param previous previously decoded snapshot (may be null)
+     * @return new snapshot
+     * @throws IllegalArgumentException if the JSON is invalid or missing required fields
+     */
+    public static BoardSnapshot jsonToSnapshot(String json, BoardSnapshot previous) {
+        try {
+            int sizePos = json.indexOf("\"size\":");
+            if (sizePos < 0) throw new IllegalArgumentException("size missing");
+            int i = skipToDigit(json, sizePos + 7);
+            int size = 0;
+            while (i < json.length() && Character.isDigit(json.charAt(i))) size = size * 10 + (json.charAt(i++) - '0');
+
+            int gridPos = json.indexOf("\"grid\":", i);
+            if (gridPos < 0) throw new IllegalArgumentException("grid missing");
+            i = gridPos + 7;
+            int[][] rows = new int[size][];
+            for (int r = 0; r < size; r++) {
+                int[] row = new int[size];
+                for (int c = 0; c < size; c++) {
+                    i = skipToDigit(json, i); // pomijamy [ ] , i spacje
+                    row[c] = json.charAt(i++) - '0'; // pola maja wartosci 0..2
+                }
+                rows[r] = BoardSnapshot.shareRow(previous, r, row);
+            }
+            return new BoardSnapshot(size, rows);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid Board JSON: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serializes an ownership estimate:
+     * {@code {"size":n,"playouts":k,"own":[...],"dead":[...]}} with ownership in
+     * row-major order and dead stones as indexes {@code r * size + c}.
+     *
+     * @param m ownership map
+     * @return JSON representation
+     */
+    public static String ownershipToJson(OwnershipMap m) {
+        StringBuilder sb = new StringBuilder(16 + m.size * m.size * 4);
+        sb.append("{\"size\":").append(m.size).append(",\"playouts\":").append(m.playouts).append(",\"own\":[");
+        for (int p = 0; p < m.size * m.size; p++) {
+            if (p > 0) sb.append(',');
+            sb.append(m.ownership(p / m.size, p % m.size));
+        }
+        sb.append("],\"dead\":[");
+        boolean first = true;
+        for (int p = 0; p < m.size * m.size; p++) {
+            if (!m.isDead(p / m.size, p % m.size)) continue;
+            if (!first) sb.append(',');
+            sb.append(p);
+            first = false;
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * Deserializes an ownership estimate written by {@link #ownershipToJson(OwnershipMap)}.
+     *
+     * @param json JSON string
+     * @return ownership map
+     * @throws IllegalArgumentException if the JSON is invalid
+     */
+    public static OwnershipMap jsonToOwnership(String json) {
+        try {
+            int size = intField(json, "\"size\":");
+            int playouts = intField(json, "\"playouts\":");
+            int[] own = new int[size * size];
+            int i = json.indexOf('[', json.indexOf("\"own\":"));
+            for (int p = 0; p < own.length; p++) {
+                i = skipToNumber(json, i);
+                int sign = 1;
+                if (json.charAt(i) == '-') { sign = -1; i++; }
+                int v = 0;
+                while (Character.isDigit(json.charAt(i))) v = v * 10 + (json.charAt(i++) - '0');
+                own[p] = sign * v;
+            }
+            boolean[] dead = new boolean[size * size];
+            i = json.indexOf('[', json.indexOf("\"dead\":")) + 1;
+            int end = json.indexOf(']', i);
+            for (String d : json.substring(i, end).split(",")) {
+                if (!d.isBlank()) dead[Integer.parseInt(d.trim())] = true;
+            }
+            return new OwnershipMap(size, playouts, own, dead);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid ownership JSON: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a non-negative integer field.
+     *
+     * @param json JSON text
+     * @param key quoted key with colon
+     * @return field value
+     */
+    private static int intField(String json, String key) {
+        int pos = json.indexOf(key);
+        if (pos < 0) throw new IllegalArgumentException(key + " missing");
+        int i = skipToDigit(json, pos + key.length());
+        int v = 0;
+        while (i < json.length() && Character.isDigit(json.charAt(i))) v = v * 10 + (json.charAt(i++) - '0');
+        return v;
+    }
+
+    /**
+     * Returns the index of the first digit or minus sign at or after {@code i}.
+     *
+     * @param s text
+     * @param i start index
+     * @return index of the number
+     * @throws IllegalArgumentException if no number follows
+     */
+    private static int skipToNumber(String s, int i) {
+        while (i < s.length() && !Character.isDigit(s.charAt(i)) && s.charAt(i) != '-') i++;
+        if (i >= s.length()) throw new IllegalArgumentException("unexpected end of list");
+        return i;
+    }
+
+    /**
+     * Returns the index of the first digit at or after {@code i}.
+     *
+     * @param s text
+     * @param i start index
+     * @return index of the digit
+     * @throws IllegalArgumentException if no digit follows
+     */
+    private static int skipToDigit(String s, int i) {
+        while (i < s.length() && !Character.isDigit(s.charAt(i))) i++;
+        if (i >= s.length()) throw new IllegalArgumentException("unexpected end of grid");
+        return i;
+    }
+}
@@ -0,0 +1,89 @@
+package lab4.common;
+
+/**
+ * Szacunek, do kogo nalezy kazde pole (faza uzgadniania po dwoch PASS).
+ * <p>
+ * Ownership is kept per point (row-major) as a percentage from -100 to 100:
+ * 100 means the point ended up as player 1's (X) area in every playout,
+ * -100 means player 2's (O). Dead stones are the stones the estimate suggests
+ * removing before counting.
+ */
+public final class OwnershipMap {
+    /** Board size */
+    public final int size;
+    /** Number of playouts the estimate is based on */
+    public final int playouts;
+    /** Ownership per point, -100 (player 2) .. 100 (player 1), index r * size + c */
+    private final int[] ownership;
+    /** Suggested dead stones, index r * size + c */
+    private final boolean[] dead;
+
+    /**
+     * Creates an ownership map (arrays are taken over, not copied).
+     *
+     * @param size board size
+     * @param playouts number of playouts
+     * @param ownership ownership per point
+     * @param dead dead-stone flags per point
+     */
+    public OwnershipMap(int size, int playouts, int[] ownership, boolean[] dead) {
+        this.size = size;
+        this.playouts = playouts;
+        this.ownership = ownership;
+        this.dead = dead;
+    }
+
+    /**
+     * Returns the ownership of a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return -100 (player 2) .. 100 (player 1)
+     */
+    public int ownership(int r, int c) {
+        return ownership[r * size + c];
+    }
+
+    /**
+     * Checks whether the stone at a point is suggested as dead.
+     *
+     * @param r row index
+     * @param c column index
+     * @return true if dead
+     */
+    public boolean isDead(int r, int c) {
+        return dead[r * size + c];
+    }
+
+    /**
+     * Returns the number of suggested dead stones.
+     *
+     * @return dead stones
+     */
+    public int deadCount() {
+        int n = 0;
+        for (boolean d : dead) if (d) n++;
+        return n;
+    }
+
+    /**
+     * Returns the map as text: X/O for points clearly owned by a player,
+     * x/o for dead stones of that player, '.' for unclear points.
+     *
+     * @return textual map
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int o = ownership(r, c);
+                char ch = o >= 50 ? 'X' : o <= -50 ? 'O' : '.';
+                if (isDead(r, c)) ch = o < 0 ? 'x' : 'o'; // martwy kamien gracza, ktory traci to pole
+                sb.append(ch).append(' ');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
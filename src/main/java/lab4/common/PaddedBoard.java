@@ -0,0 +1,256 @@
+package lab4.common;
+
+import java.util.Arrays;
+
+/**
+ * Szybka wersja planszy do analizy i symulacji (te same zasady co Board).
+ * <p>
+ * The grid is a 1D array of {@code (size+2) * (size+2)} cells with a border of
+ * {@link #BORDER} sentinels, so neighbours are reached with fixed offsets and
+ * no bounds checks. Group searches use preallocated stacks and a stamped
+ * visit array, so a move allocates nothing.
+ * <p>
+ * Not thread-safe: each thread should use its own instance. Final, because
+ * the constructor calls {@link #clear()}.
+ */
+public final class PaddedBoard {
+    /** Empty point */
+    public static final int EMPTY = 0;
+    /** Off-board sentinel */
+    public static final int BORDER = 3;
+    /** Largest supported board size */
+    public static final int MAX_SIZE = 25;
+
+    /** Neighbour offsets per board size (N, S, W, E), shared by all boards of that size */
+    private static final int[][] OFFSETS = new int[MAX_SIZE + 1][];
+
+    static {
+        for (int n = 1; n <= MAX_SIZE; n++) {
+            int stride = n + 2;
+            OFFSETS[n] = new int[]{-stride, stride, -1, 1};
+        }
+    }
+
+    /** Board size (number of rows and columns) */
+    public final int size;
+    /** Row length of the padded array */
+    final int stride;
+    /** Padded cells: 0 empty, 1 player1, 2 player2, 3 border */
+    final int[] cells;
+    /** Neighbour offsets for this size */
+    private final int[] nbr;
+
+    /** DFS stack (positions) */
+    private final int[] stack;
+    /** Visit stamps; a cell is visited when mark[p] == stamp */
+    private final int[] mark;
+    /** Current visit stamp */
+    private int stamp = 0;
+
+    /**
+     * Creates an empty board of the given size.
+     *
+     * @param size board dimension (1..{@link #MAX_SIZE})
+     */
+    public PaddedBoard(int size) {
+        if (size < 1 || size > MAX_SIZE) throw new IllegalArgumentException("Unsupported board size: " + size);
+        this.size = size;
+        this.stride = size + 2;
+        this.cells = new int[stride * stride];
+        this.nbr = OFFSETS[size];
+        this.stack = new int[size * size];
+        this.mark = new int[cells.length];
+        clear();
+    }
+
+    /**
+     * Creates a padded copy of a reference board.
+     *
+     * @param b source board
+     * @return new padded board with the same stones
+     */
+    public static PaddedBoard of(Board b) {
+        PaddedBoard p = new PaddedBoard(b.size);
+        p.setFromGrid(b.getGridCopy());
+        return p;
+    }
+
+    /** Removes all stones. */
+    public void clear() {
+        Arrays.fill(cells, BORDER);
+        for (int r = 0; r < size; r++) {
+            Arrays.fill(cells, pos(r, 0), pos(r, 0) + size, EMPTY);
+        }
+    }
+
+    /**
+     * Converts row/column to an index into {@link #cells}.
+     *
+     * @param r row index
+     * @param c column index
+     * @return padded position
+     */
+    public int pos(int r, int c) {
+        return (r + 1) * stride + c + 1;
+    }
+
+    /**
+     * Returns the stone at the given point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 or 2 player
+     */
+    public int get(int r, int c) {
+        return cells[pos(r, c)];
+    }
+
+    /**
+     * Puts a value on the board without applying any rules (for setting up positions).
+     *
+     * @param r row index
+     * @param c column index
+     * @param v 0 empty, 1 or 2 player
+     */
+    public void set(int r, int c, int v) {
+        cells[pos(r, c)] = v;
+    }
+
+    /**
+     * Applies a move and removes captured enemy groups.
+     * Return codes are the same as {@link Board#applyMoveAndCapture(int, int, int)}.
+     *
+     * @param r row index
+     * @param c column index
+     * @param player player identifier (1 or 2)
+     * @return -1 occupied/out of bounds, -2 suicide, otherwise number of captured stones
+     */
+    public int applyMoveAndCapture(int r, int c, int player) {
+        if (r < 0 || c < 0 || r >= size || c >= size) return -1;
+        int p = pos(r, c);
+        if (cells[p] != EMPTY) return -1;
+
+        cells[p] = player;
+        int enemy = 3 - player;
+        int captured = 0;
+        for (int d = 0; d < 4; d++) {
+            int q = p + nbr[d];
+            if (cells[q] == enemy && !hasLiberties(q)) captured += removeGroup(q, enemy);
+        }
+        if (captured == 0 && !hasLiberties(p)) {
+            cells[p] = EMPTY; // suicide -> revert
+            return -2;
+        }
+        return captured;
+    }
+
+    /**
+     * Checks whether the stone at the given point is a lone stone with exactly one
+     * liberty, i.e. the shape left behind by a single-stone capture in a ko.
+     *
+     * @param r row index
+     * @param c column index
+     * @return true if the stone has no friendly neighbours and one liberty
+     */
+    public boolean isKoShape(int r, int c) {
+        int p = pos(r, c);
+        int color = cells[p];
+        if (color != 1 && color != 2) return false;
+        int liberties = 0;
+        for (int d = 0; d < 4; d++) {
+            int v = cells[p + nbr[d]];
+            if (v == color) return false;
+            if (v == EMPTY) liberties++;
+        }
+        return liberties == 1;
+    }
+
+    /**
+     * Checks whether the group containing {@code start} has at least one liberty.
+     *
+     * @param start padded position of a stone
+     * @return true if the group has a liberty
+     */
+    private boolean hasLiberties(int start) {
+        int color = cells[start];
+        if (++stamp == 0) { // przepelnienie licznika: czyscimy znaczniki, jak w Board
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+        int s = stamp;
+        int sp = 0;
+        stack[sp++] = start;
+        mark[start] = s;
+        while (sp > 0) {
+            int q = stack[--sp];
+            for (int d = 0; d < 4; d++) {
+                int n = q + nbr[d];
+                int v = cells[n];
+                if (v == EMPTY) return true;
+                if (v == color && mark[n] != s) {
+                    mark[n] = s;
+                    stack[sp++] = n;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the group containing {@code start}.
+     *
+     * @param start padded position of a stone
+     * @param color color of the group
+     * @return number of removed stones
+     */
+    private int removeGroup(int start, int color) {
+        int removed = 0;
+        int sp = 0;
+        stack[sp++] = start;
+        cells[start] = EMPTY;
+        while (sp > 0) {
+            int q = stack[--sp];
+            removed++;
+            for (int d = 0; d < 4; d++) {
+                int n = q + nbr[d];
+                if (cells[n] == color) {
+                    cells[n] = EMPTY;
+                    stack[sp++] = n;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Copies the position from another board of the same size.
+     *
+     * @param other source board
+     */
+    public void copyFrom(PaddedBoard other) {
+        if (other.size != size) throw new IllegalArgumentException("Size mismatch");
+        System.arraycopy(other.cells, 0, cells, 0, cells.length);
+    }
+
+    /**
+     * Loads stones from a 2D grid (as used by Board).
+     *
+     * @param grid source grid
+     */
+    public void setFromGrid(int[][] grid) {
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) cells[pos(r, c)] = grid[r][c];
+        }
+    }
+
+    /**
+     * Returns the position as a 2D grid (as used by Board and JsonUtil).
+     *
+     * @return new grid array
+     */
+    public int[][] toGrid() {
+        int[][] g = new int[size][size];
+        for (int r = 0; r < size; r++) System.arraycopy(cells, pos(r, 0), g[r], 0, size);
+        return g;
+    }
+}
@@ -0,0 +1,312 @@
+package lab4.common;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Niezmienna plansza do analizy: tanie rozgalezianie wariantow (copy-on-write po wierszach).
+ * <p>
+ * A board is never modified. {@link #play} returns a new board that shares all
+ * untouched rows with the old one and copies only the rows where a stone was
+ * placed or captured, plus the small array of row references. Forking a
+ * position is therefore free (keep the reference), and a variation tree costs
+ * about one or two rows per node instead of a full grid copy per node.
+ * <p>
+ * The rules are Board's (captures, suicide). Ko is left to the caller, as in
+ * Board; {@link #hash()} is an incrementally updated Zobrist hash of the
+ * position, so "same position as before the opponent's move" is a long
+ * comparison. Immutable, so boards can be shared between threads; the scratch
+ * arrays for group searches are per thread.
+ */
+public final class PersistentBoard {
+    /** Largest supported board size */
+    public static final int MAX_SIZE = 25;
+    /** Row offsets of the four neighbours */
+    private static final int[] DR = {1, -1, 0, 0};
+    /** Column offsets of the four neighbours */
+    private static final int[] DC = {0, 0, 1, -1};
+    /** Zobrist keys per board size, index (color - 1) * size * size + point; same keys in every run */
+    private static final long[][] KEYS = new long[MAX_SIZE + 1][];
+    /** Per-thread search scratch (stack and visit stamps), sized for MAX_SIZE */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    static {
+        for (int n = 1; n <= MAX_SIZE; n++) {
+            SplittableRandom rnd = new SplittableRandom(n);
+            KEYS[n] = new long[2 * n * n];
+            for (int i = 0; i < KEYS[n].length; i++) KEYS[n][i] = rnd.nextLong();
+        }
+    }
+
+    /**
+     * Reusable arrays for group searches of one thread.
+     */
+    private static final class Scratch {
+        /** Search stack, points r * size + c */
+        final int[] stack = new int[MAX_SIZE * MAX_SIZE];
+        /** Visit stamps; a point is visited when mark[p] == stamp */
+        final int[] mark = new int[MAX_SIZE * MAX_SIZE];
+        /** Current visit stamp */
+        int stamp = 0;
+
+        /**
+         * Starts a new search (all points unvisited).
+         *
+         * @return stamp of the new search
+         */
+        int next() {
+            if (++stamp == 0) { // przepelnienie licznika: czyscimy znaczniki
+                Arrays.fill(mark, 0);
+                stamp = 1;
+            }
+            return stamp;
+        }
+    }
+
+    /** Board size (number of rows and columns) */
+    public final int size;
+    /** Rows: 0 empty, 1 player1 (X), 2 player2 (O); shared with other boards, never modified */
+    private final byte[][] rows;
+    /** Zobrist hash of the position */
+    private final long hash;
+    /** Stones captured by the move that produced this board */
+    private final int captured;
+
+    /**
+     * Creates a board from rows nobody will modify any more.
+     *
+     * @param rows row arrays (taken over)
+     * @param hash position hash
+     * @param captured stones captured by the last move
+     */
+    private PersistentBoard(byte[][] rows, long hash, int captured) {
+        this.size = rows.length;
+        this.rows = rows;
+        this.hash = hash;
+        this.captured = captured;
+    }
+
+    /**
+     * Returns an empty board. All its rows are one shared array.
+     *
+     * @param size board dimension (1..{@link #MAX_SIZE})
+     * @return empty board
+     */
+    public static PersistentBoard empty(int size) {
+        if (size < 1 || size > MAX_SIZE) throw new IllegalArgumentException("Unsupported board size: " + size);
+        byte[] emptyRow = new byte[size];
+        byte[][] rows = new byte[size][];
+        Arrays.fill(rows, emptyRow);
+        return new PersistentBoard(rows, 0, 0);
+    }
+
+    /**
+     * Creates a persistent copy of a mutable board.
+     *
+     * @param b source board
+     * @return board with the same stones
+     */
+    public static PersistentBoard of(Board b) {
+        int[][] g = b.getGridCopy();
+        int n = b.size;
+        byte[][] rows = new byte[n][n];
+        long h = 0;
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                rows[r][c] = (byte) g[r][c];
+                if (g[r][c] != 0) h ^= KEYS[n][(g[r][c] - 1) * n * n + r * n + c];
+            }
+        }
+        return new PersistentBoard(rows, h, 0);
+    }
+
+    /**
+     * Computes the Zobrist hash of a mutable board with the same keys as
+     * {@link #hash()}, so a Board and a PersistentBoard with the same stones have
+     * the same hash.
+     *
+     * @param b board (size 1..{@link #MAX_SIZE})
+     * @return position hash
+     */
+    public static long hashOf(Board b) {
+        return hashOf(b.grid);
+    }
+
+    /**
+     * Computes the Zobrist hash of a square grid (e.g. a saved copy of a Board's grid).
+     *
+     * @param grid stones: 0 empty, 1 player 1, 2 player 2 (size 1..{@link #MAX_SIZE})
+     * @return position hash
+     */
+    public static long hashOf(int[][] grid) {
+        int n = grid.length;
+        long[] keys = KEYS[n];
+        long h = 0;
+        for (int r = 0; r < n; r++) {
+            int[] row = grid[r];
+            for (int c = 0; c < n; c++) {
+                if (row[c] != 0) h ^= keys[(row[c] - 1) * n * n + r * n + c];
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Returns the stone at a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 player 1, 2 player 2
+     */
+    public int get(int r, int c) {
+        return rows[r][c];
+    }
+
+    /**
+     * Returns the Zobrist hash of the position (equal positions have equal hashes).
+     *
+     * @return position hash
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * Returns the number of stones captured by the move that produced this board.
+     *
+     * @return captured stones (0 for a board not made by a move)
+     */
+    public int captured() {
+        return captured;
+    }
+
+    /**
+     * Checks whether two boards share a row array (for tests and memory accounting).
+     *
+     * @param other other board of the same size
+     * @param r row index
+     * @return true if row r is the same array in both boards
+     */
+    boolean sharesRow(PersistentBoard other, int r) {
+        return rows[r] == other.rows[r];
+    }
+
+    /**
+     * Copies the position into a mutable board.
+     *
+     * @param b destination board of the same size
+     */
+    public void copyTo(Board b) {
+        int[][] g = new int[size][size];
+        for (int r = 0; r < size; r++) for (int c = 0; c < size; c++) g[r][c] = rows[r][c];
+        b.setGridFromCopy(g);
+    }
+
+    /**
+     * Plays a move and returns the resulting board; this board does not change.
+     *
+     * @param r row index
+     * @param c column index
+     * @param player player identifier (1 or 2)
+     * @return new board (see {@link #captured()}), or null if the point is
+     *         occupied, out of bounds, or the move is suicide
+     */
+    public PersistentBoard play(int r, int c, int player) {
+        if (r < 0 || c < 0 || r >= size || c >= size || rows[r][c] != 0) return null;
+        byte[][] next = rows.clone(); // tylko referencje; wiersze kopiujemy przy pierwszym zapisie
+        long[] keys = KEYS[size];
+        int n = size * size;
+        writable(next, r)[c] = (byte) player;
+        long h = hash ^ keys[(player - 1) * n + r * size + c];
+
+        Scratch s = SCRATCH.get();
+        int enemy = player == 1 ? 2 : 1;
+        int taken = 0;
+        for (int d = 0; d < 4; d++) {
+            int nr = r + DR[d], nc = c + DC[d];
+            if (nr < 0 || nc < 0 || nr >= size || nc >= size || next[nr][nc] != enemy) continue;
+            int stones = deadGroup(next, nr, nc, s);
+            for (int i = 0; i < stones; i++) { // stos z deadGroup to cala zbita grupa
+                int p = s.stack[i];
+                writable(next, p / size)[p % size] = 0;
+                h ^= keys[(enemy - 1) * n + p];
+            }
+            taken += stones;
+        }
+        if (taken == 0 && deadGroup(next, r, c, s) > 0) return null; // samobojstwo
+        return new PersistentBoard(next, h, taken);
+    }
+
+    /**
+     * Returns a row of the new board that may be written: copies it the first
+     * time it is written in this move (while it is still the old board's row).
+     *
+     * @param next row references of the new board
+     * @param r row index
+     * @return own copy of the row
+     */
+    private byte[] writable(byte[][] next, int r) {
+        if (next[r] == rows[r]) next[r] = rows[r].clone();
+        return next[r];
+    }
+
+    /**
+     * Finds the group at a point and checks its liberties.
+     *
+     * @param g rows to search
+     * @param r row of a stone
+     * @param c column of a stone
+     * @param s scratch; on a dead group, stack[0..result) holds its stones
+     * @return number of stones if the group has no liberty, 0 if it has one
+     */
+    private int deadGroup(byte[][] g, int r, int c, Scratch s) {
+        int color = g[r][c];
+        int stamp = s.next();
+        int count = 0;
+        s.stack[count++] = r * size + c;
+        s.mark[r * size + c] = stamp;
+        for (int i = 0; i < count; i++) {
+            int pr = s.stack[i] / size, pc = s.stack[i] % size;
+            for (int d = 0; d < 4; d++) {
+                int nr = pr + DR[d], nc = pc + DC[d];
+                if (nr < 0 || nc < 0 || nr >= size || nc >= size) continue;
+                int v = g[nr][nc];
+                if (v == 0) return 0; // ma oddech
+                int np = nr * size + nc;
+                if (v == color && s.mark[np] != stamp) {
+                    s.mark[np] = stamp;
+                    s.stack[count++] = np;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether two boards hold the same stones.
+     *
+     * @param o other object
+     * @return true for the same position
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PersistentBoard)) return false;
+        PersistentBoard b = (PersistentBoard) o;
+        if (b.size != size || b.hash != hash) return false;
+        for (int r = 0; r < size; r++) {
+            if (rows[r] != b.rows[r] && !Arrays.equals(rows[r], b.rows[r])) return false; // wspolny wiersz = rowny
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code consistent with equals.
+     *
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+}
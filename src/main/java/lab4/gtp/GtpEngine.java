@@ -0,0 +1,526 @@
+package lab4.gtp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import lab4.common.Board;
+
+/**
+ * Silnik Go Text Protocol (GTP 2) na rdzeniu Board, bez serwera i gniazd.
+ * <p>
+ * Supported commands: protocol_version, name, version, known_command,
+ * list_commands, quit, boardsize, clear_board, komi, play, genmove, undo,
+ * final_score, showboard. Black is player 1 (X), white is player 2 (O).
+ * <p>
+ * The rules are the server's: captures and suicide from Board, simple Ko (a
+ * move may not recreate the position before the opponent's last move). Ko is
+ * checked with Zobrist hashes of all positions in the game, and undo restores
+ * a packed copy of the board, so neither needs a grid copy per move. All
+ * per-game arrays are reused after clear_board, so long tournaments do not
+ * allocate per move. genmove plays a random legal move that does not fill the
+ * player's own single-point eye, or passes.
+ * <p>
+ * Not thread-safe: one engine per game thread.
+ */
+public class GtpEngine {
+    /** Column letters of GTP vertices ('I' is skipped) */
+    static final String COLUMNS = "ABCDEFGHJKLMNOPQRSTUVWXYZ";
+    /** Largest board size GTP vertices can describe */
+    public static final int MAX_SIZE = COLUMNS.length();
+    /** Default board size */
+    static final int DEFAULT_SIZE = 19;
+    /** Default komi */
+    static final double DEFAULT_KOMI = 6.5;
+    /** Supported commands (list_commands order) */
+    private static final String[] COMMANDS = {
+            "protocol_version", "name", "version", "known_command", "list_commands", "quit",
+            "boardsize", "clear_board", "komi", "play", "genmove", "undo", "final_score", "showboard"
+    };
+    /** Neighbour row offsets */
+    private static final int[] DR = {1, -1, 0, 0};
+    /** Neighbour column offsets */
+    private static final int[] DC = {0, 0, 1, -1};
+
+    /** Random moves for genmove */
+    private final SplittableRandom rnd;
+    /** Current position */
+    private Board board;
+    /** Komi added to white's score */
+    private double komi = DEFAULT_KOMI;
+    /** Zobrist keys, index (color - 1) * size * size + point */
+    private long[] zobrist;
+    /** hashes[i] = hash of the position after i moves (hashes[ply] is the current one) */
+    private long[] hashes;
+    /** before[i] = packed board before move i + 1 (for undo) */
+    private byte[][] before;
+    /** Moves and passes played */
+    private int ply;
+    /** Scratch list of points for genmove and scoring */
+    private int[] points;
+    /** Scratch visit flags for scoring */
+    private boolean[] seen;
+    /** Set by quit */
+    private boolean quit;
+
+    /**
+     * Creates an engine with a 19x19 board.
+     *
+     * @param seed seed of genmove's random generator (same seed, same moves)
+     */
+    public GtpEngine(long seed) {
+        this.rnd = new SplittableRandom(seed);
+        setSize(DEFAULT_SIZE);
+    }
+
+    /**
+     * Reads commands until quit or end of input and writes the responses.
+     * The output is flushed only when no more input is waiting, so piped
+     * command batches are answered with few writes.
+     *
+     * @param in command input
+     * @param out response output
+     * @throws IOException if reading or writing fails
+     */
+    public void run(BufferedReader in, Writer out) throws IOException {
+        String line;
+        while (!quit && (line = in.readLine()) != null) {
+            String response = handle(line);
+            if (response == null) continue;
+            out.write(response);
+            if (quit || !in.ready()) out.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * Handles one line of GTP input.
+     *
+     * @param line raw input line
+     * @return full response ("=id text\n\n" or "?id error\n\n"), or null for empty and comment lines
+     */
+    public String handle(String line) {
+        int hash = line.indexOf('#');
+        if (hash >= 0) line = line.substring(0, hash); // komentarz
+        String[] words = line.replace('\t', ' ').trim().split(" +");
+        if (words[0].isEmpty()) return null;
+
+        int i = 0;
+        String id = "";
+        if (Character.isDigit(words[0].charAt(0))) { // opcjonalny numer komendy
+            id = words[0];
+            i = 1;
+            if (words.length == 1) return "?" + id + " missing command\n\n";
+        }
+        String cmd = words[i].toLowerCase();
+        String[] args = Arrays.copyOfRange(words, i + 1, words.length);
+        try {
+            return "=" + id + " " + execute(cmd, args) + "\n\n";
+        } catch (IllegalArgumentException e) {
+            return "?" + id + " " + e.getMessage() + "\n\n";
+        }
+    }
+
+    /**
+     * Executes one command.
+     *
+     * @param cmd command name (lower case)
+     * @param args arguments
+     * @return response text (may be empty)
+     * @throws IllegalArgumentException with the GTP error message
+     */
+    private String execute(String cmd, String[] args) {
+        switch (cmd) {
+            case "protocol_version":
+                return "2";
+            case "name":
+                return "lab4";
+            case "version":
+                return "1.0";
+            case "known_command":
+                return String.valueOf(args.length > 0 && Arrays.asList(COMMANDS).contains(args[0].toLowerCase()));
+            case "list_commands":
+                return String.join("\n", COMMANDS);
+            case "quit":
+                quit = true;
+                return "";
+            case "boardsize":
+                newGame(parseInt(arg(args, 0)));
+                return "";
+            case "clear_board":
+                clear();
+                return "";
+            case "komi":
+                try {
+                    komi = Double.parseDouble(arg(args, 0));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("syntax error");
+                }
+                return "";
+            case "play":
+                int color = parseColor(arg(args, 0));
+                int point = parseVertex(arg(args, 1));
+                if (point < 0) pass();
+                else if (play(point / board.size, point % board.size, color) < 0) throw new IllegalArgumentException("illegal move");
+                return "";
+            case "genmove":
+                return vertex(genmove(parseColor(arg(args, 0))));
+            case "undo":
+                if (!undo()) throw new IllegalArgumentException("cannot undo");
+                return "";
+            case "final_score":
+                return formatScore(score());
+            case "showboard":
+                return showboard();
+            default:
+                throw new IllegalArgumentException("unknown command");
+        }
+    }
+
+    /**
+     * Returns an argument or fails with a GTP syntax error.
+     *
+     * @param args arguments
+     * @param i index
+     * @return argument
+     */
+    private static String arg(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("syntax error");
+        return args[i];
+    }
+
+    /**
+     * Parses an integer argument.
+     *
+     * @param s text
+     * @return value
+     */
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("syntax error");
+        }
+    }
+
+    /**
+     * Parses a GTP color.
+     *
+     * @param s b, black, w or white (any case)
+     * @return 1 for black, 2 for white
+     */
+    static int parseColor(String s) {
+        switch (s.toLowerCase()) {
+            case "b": case "black": return 1;
+            case "w": case "white": return 2;
+            default: throw new IllegalArgumentException("syntax error");
+        }
+    }
+
+    /**
+     * Parses a GTP vertex (e.g. D4; row 1 is the bottom row).
+     *
+     * @param s vertex or pass
+     * @return point r * size + c, or -1 for pass
+     */
+    int parseVertex(String s) {
+        String v = s.toUpperCase();
+        if (v.equals("PASS")) return -1;
+        int c = COLUMNS.indexOf(v.charAt(0));
+        int row;
+        try {
+            row = Integer.parseInt(v.substring(1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid coordinate");
+        }
+        if (c < 0 || c >= board.size || row < 1 || row > board.size) throw new IllegalArgumentException("invalid coordinate");
+        return (board.size - row) * board.size + c;
+    }
+
+    /**
+     * Formats a point as a GTP vertex.
+     *
+     * @param point r * size + c, or -1 for pass
+     * @return vertex such as D4, or pass
+     */
+    String vertex(int point) {
+        if (point < 0) return "pass";
+        return COLUMNS.charAt(point % board.size) + String.valueOf(board.size - point / board.size);
+    }
+
+    /**
+     * Starts a new game on a board of the given size.
+     *
+     * @param size board size
+     */
+    private void setSize(int size) {
+        board = new Board(size);
+        int n = size * size;
+        zobrist = new long[2 * n];
+        SplittableRandom keys = new SplittableRandom(size); // stale klucze dla rozmiaru
+        for (int i = 0; i < zobrist.length; i++) zobrist[i] = keys.nextLong();
+        hashes = new long[n + 1];
+        before = new byte[n][];
+        points = new int[n];
+        seen = new boolean[n];
+        ply = 0;
+    }
+
+    /**
+     * Starts a new game, reusing the arrays if the size did not change.
+     *
+     * @param size board size (2..{@link #MAX_SIZE})
+     */
+    public void newGame(int size) {
+        if (size < 2 || size > MAX_SIZE) throw new IllegalArgumentException("unacceptable size");
+        if (size == board.size) clear();
+        else setSize(size);
+    }
+
+    /** Clears the board and the game history (arrays are kept). */
+    public void clear() {
+        for (int[] row : board.grid) Arrays.fill(row, 0);
+        ply = 0;
+    }
+
+    /**
+     * Returns the board size.
+     *
+     * @return size
+     */
+    public int size() {
+        return board.size;
+    }
+
+    /**
+     * Returns the stone at a point.
+     *
+     * @param r row (0 = top)
+     * @param c column
+     * @return 0 empty, 1 black, 2 white
+     */
+    public int stone(int r, int c) {
+        return board.grid[r][c];
+    }
+
+    /**
+     * Returns the number of moves and passes played.
+     *
+     * @return moves played
+     */
+    public int moves() {
+        return ply;
+    }
+
+    /**
+     * Plays a stone.
+     *
+     * @param r row (0 = top)
+     * @param c column
+     * @param color 1 black, 2 white
+     * @return captured stones, or -1 occupied/out of bounds, -2 suicide, -3 Ko
+     */
+    public int play(int r, int c, int color) {
+        if (r < 0 || c < 0 || r >= board.size || c >= board.size || board.grid[r][c] != 0) return -1;
+        save();
+        int result = board.applyMoveAndCapture(r, c, color);
+        if (result < 0) return result; // plansza bez zmian
+        long h = hash();
+        if (ply > 0 && h == hashes[ply - 1]) { // ta sama pozycja co przed ruchem przeciwnika
+            restore(before[ply]);
+            return -3;
+        }
+        hashes[++ply] = h;
+        return result;
+    }
+
+    /**
+     * Checks what a move would do without keeping it (plays and undoes it).
+     *
+     * @param r row (0 = top)
+     * @param c column
+     * @param color 1 black, 2 white
+     * @return same as {@link #play(int, int, int)}
+     */
+    public int tryMove(int r, int c, int color) {
+        int result = play(r, c, color);
+        if (result >= 0) undo();
+        return result;
+    }
+
+    /** Plays a pass (the position stays; it counts as a move for Ko and undo). */
+    public void pass() {
+        save();
+        hashes[ply + 1] = hashes[ply];
+        ply++;
+    }
+
+    /**
+     * Takes back the last move or pass.
+     *
+     * @return false if nothing was played
+     */
+    public boolean undo() {
+        if (ply == 0) return false;
+        restore(before[--ply]);
+        return true;
+    }
+
+    /**
+     * Chooses and plays a move for a color: a random legal point that does not
+     * fill the color's own eye, or a pass if there is none.
+     *
+     * @param color 1 black, 2 white
+     * @return played point r * size + c, or -1 for pass
+     */
+    public int genmove(int color) {
+        int size = board.size;
+        int k = 0;
+        for (int p = 0; p < size * size; p++) if (board.grid[p / size][p % size] == 0) points[k++] = p;
+        while (k > 0) { // losujemy bez powtorzen: nietrafione pole wypada z listy
+            int i = rnd.nextInt(k);
+            int p = points[i];
+            points[i] = points[--k];
+            if (isOwnEye(p / size, p % size, color)) continue;
+            if (play(p / size, p % size, color) >= 0) return p;
+        }
+        pass();
+        return -1;
+    }
+
+    /**
+     * Checks whether an empty point is surrounded only by the color's stones.
+     *
+     * @param r row
+     * @param c column
+     * @param color color
+     * @return true if playing there would fill the color's own eye
+     */
+    public boolean isOwnEye(int r, int c, int color) {
+        for (int d = 0; d < 4; d++) {
+            int nr = r + DR[d], nc = c + DC[d];
+            if (nr < 0 || nc < 0 || nr >= board.size || nc >= board.size) continue;
+            if (board.grid[nr][nc] != color) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts the area score: stones plus empty regions that touch only one
+     * color, minus komi for white.
+     *
+     * @return black's area minus white's area minus komi (positive = black wins)
+     */
+    public double score() {
+        int size = board.size;
+        int[][] g = board.grid;
+        int black = 0, white = 0;
+        Arrays.fill(seen, false);
+        for (int p = 0; p < size * size; p++) {
+            int v = g[p / size][p % size];
+            if (v == 1) black++;
+            else if (v == 2) white++;
+            else if (!seen[p]) {
+                // flood fill pustego obszaru; zapamietujemy kolory granicy
+                int top = 0, count = 0, border = 0;
+                points[top++] = p;
+                seen[p] = true;
+                while (top > 0) {
+                    int q = points[--top];
+                    count++;
+                    int r = q / size, c = q % size;
+                    for (int d = 0; d < 4; d++) {
+                        int nr = r + DR[d], nc = c + DC[d];
+                        if (nr < 0 || nc < 0 || nr >= size || nc >= size) continue;
+                        int nv = g[nr][nc];
+                        int np = nr * size + nc;
+                        if (nv != 0) border |= nv;
+                        else if (!seen[np]) {
+                            seen[np] = true;
+                            points[top++] = np;
+                        }
+                    }
+                }
+                if (border == 1) black += count;
+                else if (border == 2) white += count;
+            }
+        }
+        return black - white - komi;
+    }
+
+    /**
+     * Draws the board with GTP coordinates (X black, O white).
+     *
+     * @return board text starting with a newline
+     */
+    private String showboard() {
+        int size = board.size;
+        StringBuilder sb = new StringBuilder("\n   ");
+        for (int c = 0; c < size; c++) sb.append(' ').append(COLUMNS.charAt(c));
+        for (int r = 0; r < size; r++) {
+            int row = size - r;
+            sb.append('\n').append(row < 10 ? "  " : " ").append(row);
+            for (int c = 0; c < size; c++) sb.append(' ').append(".XO".charAt(board.grid[r][c]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats a score for final_score.
+     *
+     * @param score black minus white
+     * @return e.g. B+3.5, W+0.5 or 0
+     */
+    static String formatScore(double score) {
+        if (score == 0) return "0";
+        double abs = Math.abs(score);
+        String value = abs == Math.rint(abs) ? String.valueOf((long) abs) : String.valueOf(abs);
+        return (score > 0 ? "B+" : "W+") + value;
+    }
+
+    /**
+     * Returns the Zobrist hash of the current position.
+     *
+     * @return position hash
+     */
+    private long hash() {
+        int size = board.size;
+        int n = size * size;
+        long h = 0;
+        for (int r = 0; r < size; r++) {
+            int[] row = board.grid[r];
+            for (int c = 0; c < size; c++) if (row[c] != 0) h ^= zobrist[(row[c] - 1) * n + r * size + c];
+        }
+        return h;
+    }
+
+    /** Packs the current board into the undo slot of the next move. */
+    private void save() {
+        int size = board.size;
+        if (ply == before.length) { // dluga partia (ko, pasy): wiecej miejsca
+            before = Arrays.copyOf(before, ply * 2);
+            hashes = Arrays.copyOf(hashes, ply * 2 + 1);
+        }
+        byte[] slot = before[ply];
+        if (slot == null) slot = before[ply] = new byte[size * size]; // tablice zostaja na kolejne partie
+        for (int r = 0; r < size; r++) {
+            int[] row = board.grid[r];
+            for (int c = 0; c < size; c++) slot[r * size + c] = (byte) row[c];
+        }
+    }
+
+    /**
+     * Restores the board from a packed copy.
+     *
+     * @param slot packed board
+     */
+    private void restore(byte[] slot) {
+        int size = board.size;
+        for (int r = 0; r < size; r++) {
+            int[] row = board.grid[r];
+            for (int c = 0; c < size; c++) row[c] = slot[r * size + c];
+        }
+    }
+}
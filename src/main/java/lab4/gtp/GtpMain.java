@@ -0,0 +1,27 @@
+package lab4.gtp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Silnik GTP na stdin/stdout, np. dla GoGui, Sabaki albo gogui-twogtp:
+ * java -cp target/classes lab4.gtp.GtpMain [seed]
+ */
+public class GtpMain {
+    /**
+     * Runs the GTP engine until quit or end of input.
+     *
+     * @param args optional seed for genmove (default: random)
+     * @throws IOException if standard input or output fails
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+        new GtpEngine(seed).run(in, out);
+    }
+}
@@ -0,0 +1,74 @@
+package lab4.gtp;
+
+import java.util.SplittableRandom;
+
+/**
+ * Strategia wyboru ruchu dla rozgrywek samodzielnych (SelfPlay).
+ * <p>
+ * A policy only chooses; the runner plays the move. A policy may look ahead
+ * with {@link GtpEngine#tryMove}, which leaves the position unchanged. All
+ * randomness must come from the given generator, so a game can be replayed
+ * from its seed.
+ */
+public interface MovePolicy {
+
+    /**
+     * Chooses a move.
+     *
+     * @param game current position (must be left unchanged)
+     * @param color color to move, 1 black or 2 white
+     * @param rnd the game's random generator
+     * @return point r * size + c, or -1 to pass
+     */
+    int choose(GtpEngine game, int color, SplittableRandom rnd);
+
+    /**
+     * Random legal move that does not fill the player's own eye (the same
+     * policy as GTP genmove).
+     */
+    MovePolicy RANDOM = (game, color, rnd) -> {
+        int size = game.size();
+        int[] points = new int[size * size];
+        int k = 0;
+        for (int p = 0; p < points.length; p++) if (game.stone(p / size, p % size) == 0) points[k++] = p;
+        while (k > 0) {
+            int i = rnd.nextInt(k);
+            int p = points[i];
+            points[i] = points[--k];
+            if (!game.isOwnEye(p / size, p % size, color) && game.tryMove(p / size, p % size, color) >= 0) return p;
+        }
+        return -1;
+    };
+
+    /**
+     * Plays the move capturing the most stones; without a capture, a random move.
+     */
+    MovePolicy CAPTURE = (game, color, rnd) -> {
+        int size = game.size();
+        int best = -1, bestCaptures = 0;
+        for (int p = 0; p < size * size; p++) {
+            if (game.stone(p / size, p % size) != 0) continue;
+            int res = game.tryMove(p / size, p % size, color);
+            if (res > bestCaptures) {
+                best = p;
+                bestCaptures = res;
+            }
+        }
+        return best >= 0 ? best : RANDOM.choose(game, color, rnd);
+    };
+
+    /**
+     * Returns a built-in policy by name.
+     *
+     * @param name random or capture
+     * @return policy
+     * @throws IllegalArgumentException for an unknown name
+     */
+    static MovePolicy byName(String name) {
+        switch (name.toLowerCase()) {
+            case "random": return RANDOM;
+            case "capture": return CAPTURE;
+            default: throw new IllegalArgumentException("Unknown policy: " + name + " (random, capture)");
+        }
+    }
+}
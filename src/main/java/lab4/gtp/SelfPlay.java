@@ -0,0 +1,178 @@
+package lab4.gtp;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Turniej wielu pelnych partii miedzy dwiema strategiami (MovePolicy), w pamieci, bez gniazd.
+ * <p>
+ * Usage: {@code java lab4.gtp.SelfPlay [games] [size] [black] [white] [seed] [csv file]},
+ * e.g. {@code java -cp target/classes lab4.gtp.SelfPlay 10000 9 capture random 1 games.csv}.
+ * <p>
+ * Games run in parallel on the common fork-join pool (the work is pure CPU, so
+ * one thread per core is enough). Every worker thread reuses one GtpEngine. Game
+ * {@code i} gets its own random generator derived from the seed and {@code i},
+ * so its result does not depend on which thread played it, and any single game
+ * can be replayed with {@link #playGame}.
+ */
+public class SelfPlay {
+    /** One reusable engine per worker thread */
+    private static final ThreadLocal<GtpEngine> ENGINES = ThreadLocal.withInitial(() -> new GtpEngine(0));
+
+    /**
+     * Result of one game.
+     */
+    public static final class GameRecord {
+        /** Game number (0-based) */
+        public final int index;
+        /** Moves and passes played */
+        public final int moves;
+        /** Stones captured by black */
+        public final int blackCaptures;
+        /** Stones captured by white */
+        public final int whiteCaptures;
+        /** Moves a policy chose that turned out illegal (played as passes) */
+        public final int illegal;
+        /** Final area score, black minus white minus komi */
+        public final double score;
+        /** Time to play the game in nanoseconds */
+        public final long nanos;
+
+        /**
+         * Creates a game record.
+         *
+         * @param index game number
+         * @param moves moves played
+         * @param blackCaptures stones captured by black
+         * @param whiteCaptures stones captured by white
+         * @param illegal illegal moves chosen
+         * @param score final score
+         * @param nanos duration
+         */
+        GameRecord(int index, int moves, int blackCaptures, int whiteCaptures, int illegal, double score, long nanos) {
+            this.index = index;
+            this.moves = moves;
+            this.blackCaptures = blackCaptures;
+            this.whiteCaptures = whiteCaptures;
+            this.illegal = illegal;
+            this.score = score;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the winner.
+         *
+         * @return 1 black, 2 white, 0 draw
+         */
+        public int winner() {
+            return score > 0 ? 1 : score < 0 ? 2 : 0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+        MovePolicy black = MovePolicy.byName(args.length > 2 ? args[2] : "random");
+        MovePolicy white = MovePolicy.byName(args.length > 3 ? args[3] : "random");
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+        long t0 = System.nanoTime();
+        List<GameRecord> records = run(games, size, black, white, seed);
+        double seconds = (System.nanoTime() - t0) / 1e9;
+
+        System.out.print(report(records));
+        long moves = records.stream().mapToLong(r -> r.moves).sum();
+        System.out.printf("Played %d games in %.2f s (%.0f games/s, %.0f moves/s, %d threads)%n",
+                games, seconds, games / seconds, moves / seconds, Runtime.getRuntime().availableProcessors());
+        if (args.length > 5) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[5])))) {
+                out.println("game,moves,black_captures,white_captures,illegal,score,winner,micros");
+                for (GameRecord r : records) {
+                    out.println(r.index + "," + r.moves + "," + r.blackCaptures + "," + r.whiteCaptures + ","
+                            + r.illegal + "," + r.score + "," + r.winner() + "," + r.nanos / 1000);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plays all games in parallel.
+     *
+     * @param games number of games
+     * @param size board size
+     * @param black black's policy
+     * @param white white's policy
+     * @param seed tournament seed
+     * @return records in game order
+     */
+    public static List<GameRecord> run(int games, int size, MovePolicy black, MovePolicy white, long seed) {
+        return IntStream.range(0, games).parallel()
+                .mapToObj(i -> playGame(ENGINES.get(), i, size, black, white, seed))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Plays one complete game: until two passes in a row, or size * size * 3
+     * moves (endless Ko fights).
+     *
+     * @param engine engine to play on (reset first)
+     * @param index game number
+     * @param size board size
+     * @param black black's policy
+     * @param white white's policy
+     * @param seed tournament seed
+     * @return game record
+     */
+    public static GameRecord playGame(GtpEngine engine, int index, int size, MovePolicy black, MovePolicy white, long seed) {
+        long t0 = System.nanoTime();
+        SplittableRandom rnd = new SplittableRandom(seed + 0x9E3779B97F4A7C15L * index); // zalezy tylko od numeru partii
+        engine.newGame(size);
+        int[] captures = new int[3];
+        int illegal = 0, passes = 0, color = 1;
+        int maxMoves = size * size * 3;
+        while (passes < 2 && engine.moves() < maxMoves) {
+            int p = (color == 1 ? black : white).choose(engine, color, rnd);
+            int res = p < 0 ? -1 : engine.play(p / size, p % size, color);
+            if (res >= 0) {
+                captures[color] += res;
+                passes = 0;
+            } else {
+                if (p >= 0) illegal++; // zly ruch strategii liczymy jako pas
+                engine.pass();
+                passes++;
+            }
+            color = 3 - color;
+        }
+        return new GameRecord(index, engine.moves(), captures[1], captures[2], illegal, engine.score(), System.nanoTime() - t0);
+    }
+
+    /**
+     * Summarizes a tournament.
+     *
+     * @param records game records
+     * @return report text
+     */
+    static String report(List<GameRecord> records) {
+        int[] wins = new int[3];
+        long moves = 0, black = 0, white = 0, illegal = 0;
+        for (GameRecord r : records) {
+            wins[r.winner()]++;
+            moves += r.moves;
+            black += r.blackCaptures;
+            white += r.whiteCaptures;
+            illegal += r.illegal;
+        }
+        int n = Math.max(records.size(), 1);
+        return "Games: " + records.size() + "\n"
+                + "Black wins: " + wins[1] + ", white wins: " + wins[2] + ", draws: " + wins[0] + "\n"
+                + "Average length: " + moves / n + " moves\n"
+                + "Captured stones: black " + black + ", white " + white + "\n"
+                + "Illegal policy moves: " + illegal + "\n";
+    }
+}
@@ -0,0 +1,400 @@
+package lab4.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lab4.common.JsonUtil;
+import lab4.common.Move;
+import lab4.common.PersistentBoard;
+
+/**
+ * Analiza partii: drzewo wariantow jednego klienta (komenda ANALYZE w lobby).
+ * <p>
+ * Commands while analyzing (handled on the client's connection thread; the
+ * tree belongs to one client):
+ * <ul>
+ *   <li>MOVE {json} – play a move here (the color is the side to move; an
+ *       existing variation with the same move is entered instead of duplicated)</li>
+ *   <li>PASS – pass here</li>
+ *   <li>BACK [n] – go n moves back (default 1)</li>
+ *   <li>FORWARD [i] – enter variation i of this position (default 0, the main line)</li>
+ *   <li>ROOT – go to the empty board</li>
+ *   <li>VARIATIONS – list the variations of this position</li>
+ *   <li>LEAVE – back to the lobby</li>
+ * </ul>
+ * After every step the client gets {@code BOARD {json}} and
+ * {@code ANALYSIS node depth variations toMove}.
+ * <p>
+ * The tree is kept compact: one packed move (MoveHistory format), parent,
+ * first child, next sibling, depth and position hash per node, in parallel
+ * arrays. Positions are PersistentBoards, so a step forward copies only the
+ * touched rows and a step back is the parent's board. Only the most recently
+ * used positions are kept (LRU); a position that was evicted is rebuilt
+ * incrementally from its nearest cached ancestor, never from the root of the
+ * game unless nothing closer is cached.
+ */
+public class AnalysisSession {
+    /** Largest tree per client */
+    static final int MAX_NODES = 100_000;
+    /** Positions kept in the LRU cache (the current position is always kept) */
+    static final int CACHED_POSITIONS = 512;
+    /** No node (end of a child or sibling list) */
+    private static final int NONE = -1;
+
+    /** Board size */
+    private final int size;
+    /** Packed move that leads to the node (root: 0) */
+    private int[] move = new int[64];
+    /** Parent node (root: NONE) */
+    private int[] parent = new int[64];
+    /** First variation of the node */
+    private int[] firstChild = new int[64];
+    /** Next variation of the node's parent */
+    private int[] nextSibling = new int[64];
+    /** Moves from the root */
+    private int[] depth = new int[64];
+    /** Zobrist hash of the node's position (Ko checks without boards) */
+    private long[] hash = new long[64];
+    /** Number of nodes */
+    private int nodes;
+    /** Current node */
+    private int current;
+    /** Position at the current node */
+    private PersistentBoard board;
+    /** Recently used positions by node, least recently used first */
+    private final Map<Integer, PersistentBoard> cache = new LinkedHashMap<>(CACHED_POSITIONS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PersistentBoard> eldest) {
+            return size() > CACHED_POSITIONS;
+        }
+    };
+
+    /**
+     * Creates an analysis of an empty board.
+     *
+     * @param size board size
+     */
+    public AnalysisSession(int size) {
+        this.size = size;
+        PersistentBoard empty = PersistentBoard.empty(size);
+        addNode(NONE, 0, empty.hash());
+        current = 0;
+        board = empty;
+        cache.put(0, empty);
+    }
+
+    /**
+     * Creates an analysis whose main line is a played game; the current
+     * position is the end of the game.
+     *
+     * @param size board size
+     * @param moves packed moves (MoveHistory format), in order
+     * @return analysis session
+     */
+    public static AnalysisSession ofGame(int size, int[] moves) {
+        AnalysisSession a = new AnalysisSession(size);
+        for (int m : moves) {
+            if (MoveHistory.isPass(m)) a.pass(MoveHistory.player(m));
+            else if (a.play(MoveHistory.row(m), MoveHistory.col(m), MoveHistory.player(m)) != null) break; // nie powinno sie zdarzyc
+        }
+        return a;
+    }
+
+    /**
+     * Handles a command while the client analyzes.
+     *
+     * @param ch client
+     * @param cmd command (upper case)
+     * @param arg command argument (may be empty)
+     */
+    public void handle(ClientHandler ch, String cmd, String arg) {
+        String error;
+        switch (cmd) {
+            case "MOVE":
+                try {
+                    Move m = JsonUtil.jsonToMove(arg);
+                    error = play(m.row, m.col, toMove());
+                } catch (IllegalArgumentException e) {
+                    error = "Bad move JSON: " + e.getMessage();
+                }
+                break;
+            case "PASS":
+                error = pass(toMove());
+                break;
+            case "BACK":
+                error = back(parseCount(arg, 1));
+                break;
+            case "FORWARD":
+                error = forward(parseCount(arg, 0));
+                break;
+            case "ROOT":
+                error = goTo(0) ? null : "No such position";
+                break;
+            case "VARIATIONS":
+                ch.sendLine("INFO " + describeVariations());
+                return;
+            case "LEAVE":
+                ch.setAnalysis(null);
+                ch.sendLine("INFO Left analysis. Use NAME nick, QUEUE [size], LIST, CREATE [size], JOIN id or ANALYZE.");
+                return;
+            default:
+                ch.sendLine("ERROR Analyzing. Use MOVE {json}, PASS, BACK [n], FORWARD [i], ROOT, VARIATIONS or LEAVE");
+                return;
+        }
+        if (error != null) ch.sendLine("ERROR " + error);
+        else sendPosition(ch);
+    }
+
+    /**
+     * Sends the current position and node summary.
+     *
+     * @param ch client
+     */
+    public void sendPosition(ClientHandler ch) {
+        ch.sendFrame(BoardFrameCache.of(board)); // BACK/FORWARD wraca do pozycji juz zakodowanych
+        ch.sendLine("ANALYSIS " + current + " " + depth[current] + " " + childCount(current) + " " + toMove());
+    }
+
+    /**
+     * Parses an optional non-negative number.
+     *
+     * @param arg argument
+     * @param dflt value when empty
+     * @return number, or -1 if invalid
+     */
+    private static int parseCount(String arg, int dflt) {
+        if (arg.isEmpty()) return dflt;
+        try {
+            return Math.max(Integer.parseInt(arg.trim()), -1);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the color to move at the current node.
+     *
+     * @return 1 or 2
+     */
+    int toMove() {
+        return current == 0 ? 1 : 3 - MoveHistory.player(move[current]);
+    }
+
+    /**
+     * Plays a stone at the current node (or enters the existing variation).
+     *
+     * @param r row
+     * @param c column
+     * @param color color
+     * @return error message, or null
+     */
+    String play(int r, int c, int color) {
+        int child = findChild(r, c, color, false);
+        if (child != NONE) return goTo(child) ? null : "No such position";
+        if (r < 0 || c < 0 || r >= size || c >= size || board.get(r, c) != 0) return "Field occupied or out of bounds";
+        PersistentBoard next = board.play(r, c, color);
+        if (next == null) return "Suicide move not allowed";
+        if (current != 0 && next.hash() == hash[parent[current]]) return "Ko rule: immediate recapture not allowed";
+        if (nodes == MAX_NODES) return "Analysis tree is full (" + MAX_NODES + " positions)";
+        int node = addNode(current, MoveHistory.packMove(r, c, color, next.captured()), next.hash());
+        enter(node, next);
+        return null;
+    }
+
+    /**
+     * Passes at the current node (or enters the existing pass variation).
+     *
+     * @param color color
+     * @return error message, or null
+     */
+    String pass(int color) {
+        int child = findChild(0, 0, color, true);
+        if (child != NONE) return goTo(child) ? null : "No such position";
+        if (nodes == MAX_NODES) return "Analysis tree is full (" + MAX_NODES + " positions)";
+        int node = addNode(current, MoveHistory.packPass(color), board.hash());
+        enter(node, board); // ta sama pozycja, ta sama (niezmienna) plansza
+        return null;
+    }
+
+    /**
+     * Goes n moves back towards the root.
+     *
+     * @param n moves (-1 = invalid)
+     * @return error message, or null
+     */
+    String back(int n) {
+        if (n < 0) return "BACK requires a number of moves";
+        int node = current;
+        for (int i = 0; i < n && parent[node] != NONE; i++) node = parent[node];
+        return goTo(node) ? null : "No such position";
+    }
+
+    /**
+     * Enters a variation of the current node.
+     *
+     * @param i variation index (-1 = invalid)
+     * @return error message, or null
+     */
+    String forward(int i) {
+        int child = i < 0 ? NONE : firstChild[current];
+        for (int k = 0; k < i && child != NONE; k++) child = nextSibling[child];
+        if (child == NONE) return "No variation " + i + " here";
+        return goTo(child) ? null : "No such position";
+    }
+
+    /**
+     * Returns the current node.
+     *
+     * @return node id
+     */
+    int current() {
+        return current;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return nodes
+     */
+    int nodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Returns the current position.
+     *
+     * @return board
+     */
+    PersistentBoard board() {
+        return board;
+    }
+
+    /**
+     * Moves to any node, taking its position from the cache or rebuilding it
+     * from the nearest cached ancestor.
+     *
+     * @param node target node
+     * @return false if the node does not exist
+     */
+    boolean goTo(int node) {
+        if (node < 0 || node >= nodes) return false;
+        PersistentBoard b = cache.get(node);
+        if (b == null) {
+            List<Integer> path = new ArrayList<>(); // od celu w gore do pozycji w pamieci
+            int n = node;
+            while ((b = n == current ? board : cache.get(n)) == null) {
+                path.add(n);
+                n = parent[n];
+            }
+            for (int i = path.size() - 1; i >= 0; i--) {
+                int m = move[path.get(i)];
+                if (!MoveHistory.isPass(m)) b = b.play(MoveHistory.row(m), MoveHistory.col(m), MoveHistory.player(m));
+            }
+            ServerMetrics.analysisRebuilds.increment();
+        }
+        enter(node, b);
+        return true;
+    }
+
+    /**
+     * Makes a node current and marks its position as recently used.
+     *
+     * @param node node
+     * @param b its position
+     */
+    private void enter(int node, PersistentBoard b) {
+        current = node;
+        board = b;
+        cache.put(node, b);
+        if (!cache.containsKey(0)) cache.put(0, PersistentBoard.empty(size)); // korzen zawsze pod reka
+    }
+
+    /**
+     * Finds a variation of the current node with the given move.
+     *
+     * @param r row
+     * @param c column
+     * @param color color
+     * @param isPass look for a pass
+     * @return child node, or NONE
+     */
+    private int findChild(int r, int c, int color, boolean isPass) {
+        for (int ch = firstChild[current]; ch != NONE; ch = nextSibling[ch]) {
+            int m = move[ch];
+            if (MoveHistory.player(m) != color || MoveHistory.isPass(m) != isPass) continue;
+            if (isPass || (MoveHistory.row(m) == r && MoveHistory.col(m) == c)) return ch;
+        }
+        return NONE;
+    }
+
+    /**
+     * Counts the variations of a node.
+     *
+     * @param node node
+     * @return number of children
+     */
+    private int childCount(int node) {
+        int n = 0;
+        for (int ch = firstChild[node]; ch != NONE; ch = nextSibling[ch]) n++;
+        return n;
+    }
+
+    /**
+     * Lists the variations of the current node for VARIATIONS.
+     *
+     * @return text
+     */
+    private String describeVariations() {
+        if (firstChild[current] == NONE) return "No variations here. Play a move to start one.";
+        StringBuilder sb = new StringBuilder("Variations:");
+        int i = 0;
+        for (int ch = firstChild[current]; ch != NONE; ch = nextSibling[ch], i++) {
+            int m = move[ch];
+            sb.append(' ').append(i).append(": ");
+            if (MoveHistory.isPass(m)) sb.append("PASS");
+            else sb.append(MoveHistory.row(m)).append(' ').append(MoveHistory.col(m));
+            sb.append(" (").append(childCount(ch) > 0 ? "continues" : "end").append(')');
+            if (i < childCount(current) - 1) sb.append(',');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a node as the last variation of its parent.
+     *
+     * @param p parent (NONE for the root)
+     * @param packed packed move
+     * @param h position hash
+     * @return new node id
+     */
+    private int addNode(int p, int packed, long h) {
+        if (nodes == move.length) {
+            int n = nodes * 2;
+            move = Arrays.copyOf(move, n);
+            parent = Arrays.copyOf(parent, n);
+            firstChild = Arrays.copyOf(firstChild, n);
+            nextSibling = Arrays.copyOf(nextSibling, n);
+            depth = Arrays.copyOf(depth, n);
+            hash = Arrays.copyOf(hash, n);
+        }
+        int node = nodes++;
+        move[node] = packed;
+        parent[node] = p;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        depth[node] = p == NONE ? 0 : depth[p] + 1;
+        hash[node] = h;
+        if (p != NONE) {
+            if (firstChild[p] == NONE) firstChild[p] = node;
+            else {
+                int last = firstChild[p];
+                while (nextSibling[last] != NONE) last = nextSibling[last];
+                nextSibling[last] = node;
+            }
+        }
+        return node;
+    }
+}
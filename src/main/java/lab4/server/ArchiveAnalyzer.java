@@ -0,0 +1,247 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import lab4.common.PaddedBoard;
+
+/**
+ * Offline statistics over archived games (see GameArchive).
+ * <p>
+ * Usage: {@code java lab4.server.ArchiveAnalyzer <archive file or directory>...}
+ * <p>
+ * Lines are streamed and replayed in parallel; every worker thread reuses its own
+ * PaddedBoard per board size, and results are merged from per-worker primitive
+ * histograms, so replaying allocates almost nothing per move.
+ */
+public class ArchiveAnalyzer
+{
+    /** One reusable board per board size for each worker thread */
+    private static final ThreadLocal<PaddedBoard[]> BOARDS =
+            ThreadLocal.withInitial(() -> new PaddedBoard[PaddedBoard.MAX_SIZE + 1]);
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: java lab4.server.ArchiveAnalyzer <archive file or directory>...");
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        for (String a : args)
+        {
+            Path p = Paths.get(a);
+            if (Files.isDirectory(p))
+            {
+                try (Stream<Path> s = Files.list(p)) { s.filter(Files::isRegularFile).forEach(files::add); }
+            }
+            else files.add(p);
+        }
+
+        long t0 = System.nanoTime();
+        Stats stats = analyze(files);
+        double seconds = (System.nanoTime() - t0) / 1e9;
+
+        System.out.print(stats.report());
+        System.out.printf("Replayed %d moves in %.2f s (%.0f moves/s, %d threads)%n",
+                stats.moves, seconds, stats.moves / seconds, ForkJoinPool.getCommonPoolParallelism()); // analyze dziala we wspolnej puli
+    }
+
+    /**
+     * Replays all games in the given archive files and aggregates statistics.
+     * Each file is split across the common fork-join pool (Files.lines splits
+     * large files by byte ranges).
+     *
+     * @param files archive files
+     * @return merged statistics
+     * @throws IOException if a file cannot be read
+     */
+    public static Stats analyze(List<Path> files) throws IOException
+    {
+        Stats total = new Stats();
+        for (Path p : files)
+        {
+            try (Stream<String> lines = Files.lines(p))
+            {
+                total.merge(lines.parallel().collect(Stats::new, Stats::addGame, Stats::merge));
+            } catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns this thread's board for the given size, cleared.
+     *
+     * @param size board size
+     * @return empty reusable board
+     */
+    private static PaddedBoard boardFor(int size)
+    {
+        PaddedBoard[] pool = BOARDS.get();
+        PaddedBoard b = pool[size];
+        if (b == null) pool[size] = b = new PaddedBoard(size);
+        else b.clear();
+        return b;
+    }
+
+    /**
+     * Aggregated statistics. Only primitive counters and histograms, so that
+     * merging worker results is just adding arrays.
+     */
+    public static final class Stats
+    {
+        /** Histogram buckets for game length (longer games go to the last bucket) */
+        static final int MAX_LENGTH = 1024;
+        /** Histogram buckets for stones captured by one move */
+        static final int MAX_CAPTURE = PaddedBoard.MAX_SIZE * PaddedBoard.MAX_SIZE + 1;
+        /** Histogram buckets for passes per game */
+        static final int MAX_PASSES = 64;
+
+        /** Games replayed */
+        long games;
+        /** Moves and passes replayed */
+        long moves;
+        /** Lines that could not be parsed or contained an illegal move */
+        long badGames;
+        /** Moves that captured at least one stone */
+        long capturingMoves;
+        /** Single-stone captures that left a ko shape */
+        long koCaptures;
+        /** Passes in all games */
+        long passes;
+        /** Games that ended with two passes in a row */
+        long endedByPasses;
+        /** captureSizes[n] = moves that captured n stones */
+        final long[] captureSizes = new long[MAX_CAPTURE];
+        /** gameLengths[n] = games with n moves */
+        final long[] gameLengths = new long[MAX_LENGTH];
+        /** passesPerGame[n] = games with n passes */
+        final long[] passesPerGame = new long[MAX_PASSES];
+        /** Capture sizes of the game being replayed; counted only if the whole game is legal */
+        private int[] gameCaptures = new int[64];
+
+        /**
+         * Parses and replays one archive line. A line with an illegal move
+         * counts only as a bad game: none of its moves reach the statistics.
+         *
+         * @param line archive line
+         */
+        void addGame(String line)
+        {
+            if (line.isBlank()) return;
+            int[] g;
+            try
+            {
+                g = GameArchive.parse(line);
+            } catch (IllegalArgumentException e)
+            {
+                badGames++;
+                return;
+            }
+            if (g.length == 0 || g[0] < 1 || g[0] > PaddedBoard.MAX_SIZE) { badGames++; return; }
+
+            PaddedBoard b = boardFor(g[0]);
+            int gamePasses = 0, gameCapturing = 0, gameKo = 0;
+            boolean lastWasPass = false, twoPasses = false;
+            for (int i = 1; i < g.length; i++)
+            {
+                int m = g[i];
+                if (MoveHistory.isPass(m))
+                {
+                    gamePasses++;
+                    twoPasses = lastWasPass;
+                    lastWasPass = true;
+                    continue;
+                }
+                lastWasPass = false;
+                twoPasses = false;
+                int r = MoveHistory.row(m), c = MoveHistory.col(m);
+                int res = b.applyMoveAndCapture(r, c, MoveHistory.player(m));
+                if (res < 0) { badGames++; return; } // w archiwum nie powinno byc nielegalnych ruchow
+                if (res > 0)
+                {
+                    // liczymy lokalnie: gra moze sie jeszcze okazac nielegalna
+                    if (gameCapturing == gameCaptures.length) gameCaptures = Arrays.copyOf(gameCaptures, gameCapturing * 2);
+                    gameCaptures[gameCapturing++] = res;
+                    if (res == 1 && b.isKoShape(r, c)) gameKo++;
+                }
+            }
+            int length = g.length - 1;
+            games++;
+            capturingMoves += gameCapturing;
+            koCaptures += gameKo;
+            for (int i = 0; i < gameCapturing; i++) captureSizes[Math.min(gameCaptures[i], MAX_CAPTURE - 1)]++;
+            moves += length;
+            passes += gamePasses;
+            if (twoPasses) endedByPasses++;
+            gameLengths[Math.min(length, MAX_LENGTH - 1)]++;
+            passesPerGame[Math.min(gamePasses, MAX_PASSES - 1)]++;
+        }
+
+        /**
+         * Adds another worker's results to this one.
+         *
+         * @param o other statistics
+         */
+        void merge(Stats o)
+        {
+            games += o.games;
+            moves += o.moves;
+            badGames += o.badGames;
+            capturingMoves += o.capturingMoves;
+            koCaptures += o.koCaptures;
+            passes += o.passes;
+            endedByPasses += o.endedByPasses;
+            for (int i = 0; i < MAX_CAPTURE; i++) captureSizes[i] += o.captureSizes[i];
+            for (int i = 0; i < MAX_LENGTH; i++) gameLengths[i] += o.gameLengths[i];
+            for (int i = 0; i < MAX_PASSES; i++) passesPerGame[i] += o.passesPerGame[i];
+        }
+
+        /**
+         * Formats the statistics as text.
+         *
+         * @return report
+         */
+        String report()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Games: ").append(games).append(" (bad: ").append(badGames).append(")\n");
+            sb.append("Moves: ").append(moves).append(", average length: ")
+                    .append(games == 0 ? 0 : moves / games).append('\n');
+            sb.append("Capturing moves: ").append(capturingMoves).append(", ko captures: ").append(koCaptures).append('\n');
+            sb.append("Passes: ").append(passes).append(", games ended by two passes: ").append(endedByPasses).append('\n');
+            sb.append("Captured stones per capturing move:\n");
+            appendHistogram(sb, captureSizes);
+            sb.append("Passes per game:\n");
+            appendHistogram(sb, passesPerGame);
+            sb.append("Moves per game:\n");
+            appendHistogram(sb, gameLengths);
+            return sb.toString();
+        }
+
+        /**
+         * Appends non-empty histogram buckets.
+         *
+         * @param sb output
+         * @param h histogram
+         */
+        private static void appendHistogram(StringBuilder sb, long[] h)
+        {
+            for (int i = 0; i < h.length; i++)
+            {
+                if (h[i] != 0) sb.append("  ").append(i).append(": ").append(h[i]).append('\n');
+            }
+        }
+    }
+}
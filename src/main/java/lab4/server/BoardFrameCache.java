@@ -0,0 +1,261 @@
+package lab4.server;
+
+import java.util.Arrays;
+
+import lab4.common.Board;
+import lab4.common.JsonUtil;
+import lab4.common.PersistentBoard;
+
+/**
+ * Wspolny dla calego serwera cache gotowych ramek BOARD, po hashu pozycji.
+ * <p>
+ * The same positions are sent again and again: the empty board at the start of
+ * every game of a size, a position after a pass, BACK/FORWARD in analysis,
+ * analysis of a running game. The key is the position's Zobrist hash
+ * ({@link PersistentBoard#hash()}, {@link PersistentBoard#hashOf}) mixed with
+ * the board size, so a hot position is serialized to JSON and encoded once.
+ * <p>
+ * The hash only picks the slot: every slot also keeps its position packed at 2
+ * bits per point, and a hit is returned only if the stones are the same. The
+ * Zobrist keys are public, so a position with any chosen hash can be built (and
+ * played in ANALYZE); without the check such a position, or a plain random
+ * collision, would make other games receive a wrong BOARD.
+ * <p>
+ * Bounded, allocation-free: {@value #SEGMENTS} segments, each guarded by its
+ * own lock and chosen by the top bits of the key, hold fixed arrays of slots
+ * in {@value #WAYS}-way sets; a full set evicts its least recently used slot.
+ * Looking up a position and storing a new frame allocate nothing apart from
+ * the frame itself. The total capacity is {@code -Dlab4.boardCache=n} frames
+ * (default {@value #DEFAULT_CAPACITY}).
+ */
+final class BoardFrameCache {
+    /** System property with the number of cached frames */
+    static final String CAPACITY_PROPERTY = "lab4.boardCache";
+    /** Cached frames when the property is not set (about 3 MB of 19x19 boards) */
+    static final int DEFAULT_CAPACITY = 4096;
+    /** Number of independently locked segments (power of two) */
+    static final int SEGMENTS = 16;
+    /** Slots per set */
+    static final int WAYS = 4;
+    /** Bytes of the largest packed position */
+    static final int POSITION_BYTES = (PersistentBoard.MAX_SIZE * PersistentBoard.MAX_SIZE + 3) / 4;
+    /** Sets per segment (power of two) */
+    private static final int SETS = Integer.highestOneBit(
+            Math.max(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY) / (SEGMENTS * WAYS), 1));
+
+    /** Segments; segment i holds keys whose top four bits are i */
+    private static final Segment[] SEGMENT = new Segment[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) SEGMENT[i] = new Segment();
+    }
+
+    /** Packed position of the caller's thread (see {@link #pack}) */
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[POSITION_BYTES]);
+
+    /** Slots of one segment, locked on itself. */
+    private static final class Segment {
+        /** Cache key of each slot */
+        final long[] keys = new long[SETS * WAYS];
+        /** Board size of each slot (0 = empty slot) */
+        final byte[] sizes = new byte[SETS * WAYS];
+        /** Packed position of each slot, POSITION_BYTES per slot */
+        final byte[] positions = new byte[SETS * WAYS * POSITION_BYTES];
+        /** Tick of the last use of each slot (LRU within a set) */
+        final long[] used = new long[SETS * WAYS];
+        /** Frame of each slot */
+        final Frame[] frames = new Frame[SETS * WAYS];
+        /** Use counter */
+        long tick;
+    }
+
+    private BoardFrameCache() {}
+
+    /**
+     * Combines a position hash with the board size (the empty board has hash 0
+     * on every size).
+     *
+     * @param size board size
+     * @param hash position hash
+     * @return cache key
+     */
+    private static long key(int size, long hash) {
+        return hash + size * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Returns the segment of a key.
+     *
+     * @param key cache key
+     * @return segment (lock it while using it)
+     */
+    private static Segment segment(long key) {
+        return SEGMENT[(int) (key >>> 60)];
+    }
+
+    /**
+     * Returns the first slot of a key's set.
+     *
+     * @param key cache key
+     * @return slot index
+     */
+    private static int firstSlot(long key) {
+        return ((int) (key ^ (key >>> 29)) & (SETS - 1)) * WAYS;
+    }
+
+    /**
+     * Packs a board into this thread's scratch array for {@link #get} and
+     * {@link #put}. The array is reused by the next pack on the same thread.
+     *
+     * @param b board
+     * @return packed position, 2 bits per point, row by row
+     */
+    static byte[] pack(Board b) {
+        byte[] dst = SCRATCH.get();
+        int size = b.size, bits = 0, filled = 0, at = 0;
+        for (int r = 0; r < size; r++) {
+            int[] row = b.grid[r];
+            for (int c = 0; c < size; c++) {
+                bits |= row[c] << (filled * 2);
+                if (++filled == 4) {
+                    dst[at++] = (byte) bits;
+                    bits = 0;
+                    filled = 0;
+                }
+            }
+        }
+        if (filled > 0) dst[at] = (byte) bits;
+        return dst;
+    }
+
+    /**
+     * Packs a persistent board into this thread's scratch array (see {@link #pack(Board)}).
+     *
+     * @param b board
+     * @return packed position
+     */
+    static byte[] pack(PersistentBoard b) {
+        byte[] dst = SCRATCH.get();
+        int size = b.size, bits = 0, filled = 0, at = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                bits |= b.get(r, c) << (filled * 2);
+                if (++filled == 4) {
+                    dst[at++] = (byte) bits;
+                    bits = 0;
+                    filled = 0;
+                }
+            }
+        }
+        if (filled > 0) dst[at] = (byte) bits;
+        return dst;
+    }
+
+    /**
+     * Looks up the BOARD frame of a position and counts a hit or a miss. A
+     * slot with the same hash but other stones is a miss.
+     *
+     * @param size board size
+     * @param hash position hash
+     * @param position packed position ({@link #pack})
+     * @return cached frame, or null
+     */
+    static Frame get(int size, long hash, byte[] position) {
+        long key = key(size, hash);
+        Segment seg = segment(key);
+        int first = firstSlot(key), n = packedBytes(size);
+        Frame f = null;
+        synchronized (seg) {
+            for (int i = first; i < first + WAYS; i++) {
+                if (seg.keys[i] == key && seg.sizes[i] == size
+                        && Arrays.equals(seg.positions, i * POSITION_BYTES, i * POSITION_BYTES + n, position, 0, n)) {
+                    seg.used[i] = ++seg.tick;
+                    f = seg.frames[i];
+                    break;
+                }
+            }
+        }
+        if (f != null) ServerMetrics.boardCacheHits.increment();
+        else ServerMetrics.boardCacheMisses.increment();
+        return f;
+    }
+
+    /**
+     * Stores the BOARD frame of a position, in place of the least recently used
+     * slot of its set.
+     *
+     * @param size board size
+     * @param hash position hash
+     * @param position packed position ({@link #pack}); copied
+     * @param frame encoded {@code BOARD {json}} line
+     * @return the frame
+     */
+    static Frame put(int size, long hash, byte[] position, Frame frame) {
+        long key = key(size, hash);
+        Segment seg = segment(key);
+        int first = firstSlot(key), n = packedBytes(size);
+        synchronized (seg) {
+            int victim = first;
+            for (int i = first; i < first + WAYS; i++) {
+                if (seg.sizes[i] == 0) { // wolne miejsce
+                    victim = i;
+                    break;
+                }
+                if (seg.used[i] < seg.used[victim]) victim = i;
+            }
+            seg.keys[victim] = key;
+            seg.sizes[victim] = (byte) size;
+            System.arraycopy(position, 0, seg.positions, victim * POSITION_BYTES, n);
+            seg.used[victim] = ++seg.tick;
+            seg.frames[victim] = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the BOARD frame of a persistent board, serializing it only on a miss.
+     *
+     * @param b board
+     * @return encoded {@code BOARD {json}} line
+     */
+    static Frame of(PersistentBoard b) {
+        byte[] position = pack(b);
+        Frame f = get(b.size, b.hash(), position);
+        if (f != null) return f;
+        return put(b.size, b.hash(), position, Frame.of(JsonUtil.appendBoard(new StringBuilder(16 + b.size * b.size * 2).append("BOARD "), b)));
+    }
+
+    /**
+     * Returns the packed length of a position.
+     *
+     * @param size board size
+     * @return bytes
+     */
+    private static int packedBytes(int size) {
+        return (size * size + 3) / 4;
+    }
+
+    /**
+     * Returns the number of cached frames.
+     *
+     * @return frames in all segments
+     */
+    static int size() {
+        int n = 0;
+        for (Segment seg : SEGMENT) {
+            synchronized (seg) {
+                for (Frame f : seg.frames) if (f != null) n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the largest number of cached frames.
+     *
+     * @return capacity
+     */
+    static int capacity() {
+        return SEGMENTS * SETS * WAYS;
+    }
+}
@@ -2,10 +2,12 @@ package lab4.server;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.Semaphore;
 
 import lab4.common.JsonUtil;
 import lab4.common.Move;
@@ -14,39 +16,136 @@ import lab4.common.Move;
  * Handles a single client connection.
  * Accepts text commands (line-based). Commands are parsed case-insensitively.
  *
- * Allowed commands:
+ * Before the client is in a game, commands go to the Lobby
+ * (NAME, RATING, LIST, CREATE, JOIN, QUEUE, REJOIN, ANALYZE); while analyzing,
+ * to the client's AnalysisSession. In a game:
  *  - MOVE {json}
  *  - PASS
  *  - RESIGN
+ *  - HISTORY, GOTO n (number of moves / position after move n)
+ *  - IF {json}|PASS THEN {json}|PASS (reply played at once if the opponent plays that), IF CLEAR
+ *
+ * Any command may start with a request id, e.g. {@code #12 MOVE {...}}. The
+ * client then gets {@code OK #12} when the command succeeded, or its error line
+ * with the id after the keyword ({@code ERROR #12 Not your turn}).
  *
  * Sends back lines like: (wysyla np. GameSession)
  *  - INFO ...
  *  - ERROR ...
  *  - BOARD ...
+ *
+ * Outgoing lines are buffered and sent with {@link #flush()}, so everything
+ * produced by one GameSession command reaches the client in a single write.
+ * For socket connections flush() only hands the bytes to the connection's
+ * {@link OutboundQueue}; a separate writer thread does the socket write, so a
+ * shard thread never blocks on a client that stopped reading. If that queue
+ * overflows ({@code -Dlab4.outboundQueue} bytes), the connection is closed.
+ *
+ * Incoming commands are limited per connection: a token bucket (RateLimiter)
+ * rejects commands over the rate with an error, and at most
+ * {@link #MAX_QUEUED_COMMANDS} game commands wait on the shard; beyond that the
+ * connection stops reading until the game catches up.
  */
 
 public class ClientHandler implements Runnable {
-    /** Socket for communication with this client */
+    /** Socket for communication with this client (null for stream-only handlers) */
     private final Socket socket;
     /** Reader for incoming client messages */
     private final BufferedReader in;
-    /** Writer for outgoing messages to client */
-    private final PrintWriter out;
-    /** Player ID assigned to this client */
-    private final int playerId;
+    /** Size of the outgoing buffer; one full round of messages after a move fits in it */
+    static final int OUT_BUFFER_SIZE = 16 * 1024;
+
+    /** System property with the outbound queue capacity per connection (bytes) */
+    static final String OUTBOUND_PROPERTY = "lab4.outboundQueue";
+    /** Outbound queue capacity when the property is not set */
+    static final int DEFAULT_OUTBOUND_BYTES = 256 * 1024;
+
+    /** Raw output to client (written by the writer thread for sockets, by flush() otherwise) */
+    private final OutputStream out;
+    /** Output waiting for the writer thread, or null for stream-only handlers (written synchronously) */
+    private final OutboundQueue outbound;
+    /** Lines queued since the last flush, encoded as UTF-8 (reused, so queueing a line does not allocate) */
+    private final byte[] outBuffer = new byte[OUT_BUFFER_SIZE];
+    /** Bytes queued in outBuffer */
+    private int pendingBytes = 0;
+    /** Player ID in the current game (0 while in the lobby) */
+    private volatile int playerId;
+    /** Lobby handling commands while the client is not in a game */
+    private final Lobby lobby;
+    /** Current game, or null while in the lobby */
+    private volatile GameSession session;
+    /** Matchmaking ticket while waiting in QUEUE, otherwise null */
+    private volatile Matchmaker.Ticket ticket;
+    /** Variation tree while the client analyzes (ANALYZE), otherwise null */
+    private volatile AnalysisSession analysis;
+    /** Longest accepted request id */
+    private static final int MAX_REQUEST_ID = 32;
+    /** Request with an id run by the current thread (the connection's reader or a game shard), or null */
+    private static final ThreadLocal<Request> CURRENT_REQUEST = new ThreadLocal<>();
+
+    /**
+     * A command sent with a request id ({@code #id CMD ...}). Its errors are
+     * tagged with the id and it is answered OK only if there were none. The
+     * request is bound to the thread that runs it, not to the connection, so a
+     * game command running on the shard and a command the reader thread
+     * answers at the same time never take each other's id.
+     */
+    static final class Request {
+        /** Connection that sent the request */
+        final ClientHandler handler;
+        /** Request id */
+        final String id;
+        /** True once the request has sent an error (set by the thread running it) */
+        volatile boolean failed;
+
+        /**
+         * Creates a request.
+         *
+         * @param handler connection that sent it
+         * @param id request id
+         */
+        Request(ClientHandler handler, String id) {
+            this.handler = handler;
+            this.id = id;
+        }
+    }
+    /** Player name set with NAME (null = anonymous, games are not rated) */
+    private volatile String name;
+    /** Game commands of one connection queued on its shard and not yet run */
+    static final int MAX_QUEUED_COMMANDS = 16;
+    /** Free places for game commands on the shard; reading stops while there are none */
+    private final Semaphore queuedCommands = new Semaphore(MAX_QUEUED_COMMANDS);
+    /** Limits how many commands per second this client may send (used only by run()) */
+    private final RateLimiter limiter = RateLimiter.fromProperties();
 
     /**
-     * Creates a ClientHandler for a connected socket.
+     * Creates a ClientHandler for a connected socket. The client starts in the lobby.
      *
      * @param socket connected client socket
-     * @param playerId assigned player ID (1 or 2)
+     * @param lobby server lobby
      * @throws IOException if socket streams cannot be opened
      */
-    public ClientHandler(Socket socket, int playerId) throws IOException {
+    public ClientHandler(Socket socket, Lobby lobby) throws IOException {
         this.socket = socket; // tutaj bierzemy socket (utworzony w ClientConnection) pozyskany przez serverSocket.accept() w ServerMain
-        this.playerId = playerId;
+        this.lobby = lobby;
         this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+        this.out = socket.getOutputStream();
+        this.outbound = new OutboundQueue(Integer.getInteger(OUTBOUND_PROPERTY, DEFAULT_OUTBOUND_BYTES));
+    }
+
+    /**
+     * Creates a ClientHandler over plain streams, without a socket (benchmarks, tests).
+     *
+     * @param lobby server lobby (may be null if run() is not used)
+     * @param in client input
+     * @param out client output
+     */
+    ClientHandler(Lobby lobby, InputStream in, OutputStream out) {
+        this.socket = null;
+        this.lobby = lobby;
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.out = out;
+        this.outbound = null;
     }
 
     /**
@@ -57,75 +156,452 @@ public class ClientHandler implements Runnable {
     public int getPlayerId() { return playerId; }
 
     /**
-     * Sends a line of text to the client.
+     * Assigns the seat in a game (by Lobby or after a successful REJOIN).
+     *
+     * @param playerId player ID (1 or 2)
+     */
+    void setPlayerId(int playerId) { this.playerId = playerId; }
+
+    /**
+     * Sets the game this client plays in.
+     *
+     * @param session game session
+     */
+    void setSession(GameSession session) { this.session = session; }
+
+    /**
+     * Returns the matchmaking ticket while the client waits in QUEUE.
+     *
+     * @return ticket or null
+     */
+    Matchmaker.Ticket getTicket() { return ticket; }
+
+    /**
+     * Stores or clears the matchmaking ticket.
+     *
+     * @param ticket ticket or null
+     */
+    void setTicket(Matchmaker.Ticket ticket) { this.ticket = ticket; }
+
+    /**
+     * Returns the analysis the client is in.
+     *
+     * @return analysis session or null
+     */
+    AnalysisSession getAnalysis() { return analysis; }
+
+    /**
+     * Starts or ends an analysis (ANALYZE / LEAVE).
+     *
+     * @param analysis analysis session or null
+     */
+    void setAnalysis(AnalysisSession analysis) { this.analysis = analysis; }
+
+    /**
+     * Returns the player name.
+     *
+     * @return name, or null if the client did not send NAME
+     */
+    public String getName() { return name; }
+
+    /**
+     * Sets the player name (lobby command NAME).
+     *
+     * @param name player name
+     */
+    void setName(String name) { this.name = name; }
+
+    /**
+     * Queues a line of text for the client. It is sent on the next {@link #flush()}.
+     * ASCII lines (the whole protocol except some INFO texts) are copied straight
+     * into the output buffer without creating a String or byte array.
      *
      * @param line text to send
      */
-    public void sendLine(String line) { // tutaj wysylamy linie do klienta !!!
-        try { out.println(line); } catch (Exception e) { System.err.println("Send failed to p" + playerId + ": " + e.getMessage()); }
+    public synchronized void sendLine(CharSequence line) { // tutaj wysylamy linie do klienta !!!
+        Request r = CURRENT_REQUEST.get();
+        if (r != null && r.handler == this && (startsWith(line, "ERROR ") || startsWith(line, "REJOIN_FAILED "))) {
+            String text = line.toString();
+            int space = text.indexOf(' ');
+            line = text.substring(0, space) + " #" + r.id + text.substring(space); // blad tego zadania
+            r.failed = true;
+        }
+        int n = line.length();
+        boolean ascii = true;
+        for (int i = 0; i < n && ascii; i++) ascii = line.charAt(i) < 0x80;
+        if (!ascii || n + 1 > outBuffer.length) { // rzadkie przypadki: zakodowac osobno
+            queue(Frame.of(line));
+            return;
+        }
+        try {
+            if (pendingBytes + n + 1 > outBuffer.length) writeBuffer();
+            for (int i = 0; i < n; i++) outBuffer[pendingBytes++] = (byte) line.charAt(i);
+            outBuffer[pendingBytes++] = '\n';
+            ServerMetrics.linesQueued.increment();
+        } catch (IOException e) {
+            System.err.println("Send failed to p" + playerId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queues an already encoded line (a broadcast shared by many clients).
+     * Only its bytes are copied; nothing is encoded again.
+     *
+     * @param frame encoded line
+     */
+    public synchronized void sendFrame(Frame frame) {
+        queue(frame);
+        ServerMetrics.framesSent.increment();
+    }
+
+    /**
+     * Copies a frame into the output buffer, or writes it directly if it does not fit.
+     *
+     * @param frame encoded line
+     */
+    private void queue(Frame frame) {
+        int n = frame.length();
+        try {
+            if (pendingBytes + n > outBuffer.length) writeBuffer();
+            if (n > outBuffer.length) { // dluzsza niz caly bufor: bez kopii do outBuffer
+                if (outbound == null) {
+                    frame.writeTo(out);
+                    ServerMetrics.socketWrites.increment();
+                    ServerMetrics.bytesWritten.add(n);
+                } else if (!outbound.offer(frame)) {
+                    overflow();
+                }
+            } else {
+                frame.copyTo(outBuffer, pendingBytes);
+                pendingBytes += n;
+            }
+            ServerMetrics.linesQueued.increment();
+        } catch (IOException e) {
+            System.err.println("Send failed to p" + playerId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether a line starts with a prefix.
+     *
+     * @param line line
+     * @param prefix prefix
+     * @return true if it does
+     */
+    private static boolean startsWith(CharSequence line, String prefix) {
+        if (line.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) if (line.charAt(i) != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    /**
+     * Moves the buffered bytes to the outbound queue, or for stream-only
+     * handlers writes them to the stream (without flushing it).
+     *
+     * @throws IOException if the write fails
+     */
+    private void writeBuffer() throws IOException {
+        if (pendingBytes == 0) return;
+        if (outbound != null) {
+            if (!outbound.offer(outBuffer, 0, pendingBytes)) overflow();
+            pendingBytes = 0;
+            return;
+        }
+        out.write(outBuffer, 0, pendingBytes);
+        ServerMetrics.socketWrites.increment();
+        ServerMetrics.bytesWritten.add(pendingBytes);
+        pendingBytes = 0;
+    }
+
+    /**
+     * Sends all queued lines to the client in one write. For socket
+     * connections this never blocks: the writer thread does the write.
+     */
+    public synchronized void flush() {
+        if (pendingBytes == 0) return;
+        try {
+            writeBuffer();
+            if (outbound == null) out.flush();
+        } catch (IOException e) {
+            System.err.println("Send failed to p" + playerId + ": " + e.getMessage());
+            pendingBytes = 0;
+        }
+    }
+
+    /**
+     * Drops a connection whose client does not read its output: the queue is
+     * closed and the socket too, so the reader thread ends and the game treats
+     * it as a disconnect (the seat waits for REJOIN as usual).
+     */
+    private void overflow() {
+        ServerMetrics.outboundOverflows.increment();
+        System.err.println("Output queue of p" + playerId + " is full, closing the connection");
+        close();
+    }
+
+    /**
+     * Stops the writer thread and closes the socket (idempotent). The reader
+     * thread then ends as after a disconnect. Also used by GameSession when a
+     * REJOIN takes over this connection's seat.
+     */
+    void close() {
+        if (outbound != null) outbound.close();
+        try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+    }
+
+    /**
+     * Starts the thread that writes this connection's outbound queue to the
+     * socket. Called by run(); does nothing for stream-only handlers.
+     */
+    void startWriter() {
+        if (outbound == null) return;
+        Thread writer = new Thread(() -> {
+            try {
+                outbound.drainTo(out);
+            } catch (IOException e) {
+                System.err.println("Send failed to p" + playerId + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close(); // klient nie odbiera: czytajacy watek tez konczy
+            }
+        }, "ClientWriter-" + socket.getPort());
+        writer.setDaemon(true);
+        writer.start();
     }
 
      /**
      * Main loop for reading and handling client commands.
      * <p>
-     * Runs in its own thread. Parses commands and forwards them
-     * to the singleton GameSession instance for processing.
+     * Runs in its own thread. Parses commands and forwards them to the Lobby,
+     * or queues them on the shard thread of the client's GameSession.
      */
     @Override
     public void run() {
+        String remote = socket != null ? String.valueOf(socket.getRemoteSocketAddress()) : null;
+        GameEvents.connected(remote);
+        GameEvents.ClientDisconnected lifetime = GameEvents.beginConnection();
+        startWriter();
         try {
-            sendLine("INFO Connected as player " + playerId);
+            sendLine("INFO Connected. Use NAME nick, QUEUE [size], LIST, CREATE [size] or JOIN id.");
+            flush();
             String raw;
             while ((raw = in.readLine()) != null) {
-                if (raw == null) break;
                 String trimmed = raw.trim();
                 if (trimmed.isEmpty()) continue;
 
+                String id = null;
+                if (trimmed.startsWith("#")) { // opcjonalny identyfikator zadania
+                    String[] idParts = trimmed.split("\\s+", 2);
+                    id = idParts[0].substring(1);
+                    if (id.isEmpty() || id.length() > MAX_REQUEST_ID || idParts.length < 2) {
+                        sendLine("ERROR Request id must be 1-" + MAX_REQUEST_ID + " characters followed by a command");
+                        flush();
+                        continue;
+                    }
+                    trimmed = idParts[1];
+                }
+                String reqId = id;
+                if (!limiter.tryAcquire(System.nanoTime())) { // zalewa serwer komendami: odrzucamy zamiast kolejkowac
+                    ServerMetrics.commandsDropped.increment();
+                    sendLine(reqId == null ? "ERROR Too many commands, slow down" : "ERROR #" + reqId + " Too many commands, slow down");
+                    flush();
+                    continue;
+                }
+
                 // split into command and optional argument (like MOVE json)
                 String[] parts = trimmed.split("\\s+", 2); // Rozdziel tekst po dowolnej liczbie białych znaków; Podziel maksymalnie na 2 części
                 String cmd = parts[0].toUpperCase(); // komenda
                 String arg = parts.length > 1 ? parts[1].trim() : ""; // argumenty
 
-                switch (cmd) {
-                    case "MOVE":
-                        if (arg.isEmpty()) {
-                            sendLine("ERROR MOVE requires JSON argument");
-                        } else {
-                            try {
-                                Move m = JsonUtil.jsonToMove(arg);
-                                m.player = this.playerId; // enforce player id !
-                                GameSession.getInstance().applyMove(m, this); //przez obecnego clientHandlera obslugujemy move (wywolujac applyMove w GameSession)
-                            } catch (IllegalArgumentException ex) {
-                                sendLine("ERROR Bad move JSON: " + ex.getMessage());
-                            }
+                GameSession s = session;
+                if (s != null && !s.isRunning()) { // po koncu gry wracamy do lobby
+                    session = null;
+                    playerId = 0;
+                    s = null;
+                }
+                AnalysisSession a = analysis;
+                if (s == null && a != null) {
+                    runRequest(reqId, () -> a.handle(this, cmd, arg)); // drzewo nalezy do tego klienta
+                } else if (s == null) {
+                    runRequest(reqId, () -> lobby.handle(this, cmd, arg));
+                } else {
+                    GameSession game = s;
+                    reserveQueuedCommand();
+                    game.execute(this, () -> {
+                        try {
+                            runRequest(reqId, () -> handleGameCommand(game, cmd, arg)); // na watku shardu gry
+                        } finally {
+                            queuedCommands.release();
                         }
-                        break;
+                    });
+                }
+                // jedna komenda -> jeden zapis do kazdego klienta (komendy gry flushuje shard)
+                flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Client " + playerId + " disconnected: " + e.getMessage());
+        } finally { //jak klient się zamknie to jego handler po stronie serwera to przechwyci, jak klient uzyje quit/exit to wywola sie resign (bez info o bledzie), a jak zamknie okno po prostu to clientdisconnected
+            close();
+            GameSession s = session;
+            GameEvents.disconnected(lifetime, remote, playerId, s != null ? s.getId() : -1);
+            try {
+                lobby.releaseName(this);
+                if (s != null) s.execute(null, () -> s.clientDisconnected(this));
+                else lobby.disconnected(this);
+            } catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * Takes a place for one more game command on the shard. When the client has
+     * {@link #MAX_QUEUED_COMMANDS} commands waiting, this blocks, so the
+     * connection stops reading and TCP slows the client down instead of the
+     * shard's queue growing.
+     *
+     * @throws InterruptedIOException if the connection thread is interrupted
+     */
+    private void reserveQueuedCommand() throws InterruptedIOException {
+        if (queuedCommands.tryAcquire()) return;
+        ServerMetrics.commandsThrottled.increment();
+        flush(); // odpowiedzi juz wykonanych komend nie czekaja na kolejna
+        try {
+            queuedCommands.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the game");
+        }
+    }
+
+    /**
+     * Runs a command; with a request id, answers OK unless the command sent an error.
+     *
+     * @param id request id, or null
+     * @param command command to run
+     */
+    private void runRequest(String id, Runnable command) {
+        if (id == null) {
+            command.run();
+            return;
+        }
+        Request r = new Request(this, id);
+        try {
+            runAs(r, command);
+        } finally {
+            if (!r.failed) sendLine("OK #" + id);
+        }
+    }
 
-                    case "PASS":
-                        GameSession.getInstance().playerPassed(this);
-                        break;
+    /**
+     * Returns the request with an id the current thread is running.
+     *
+     * @return request, or null
+     */
+    static Request currentRequest() {
+        return CURRENT_REQUEST.get();
+    }
 
-                    case "RESIGN":
-                        GameSession.getInstance().playerResigned(this);
-                        break;
+    /**
+     * Runs part of a request on the current thread, e.g. a lobby command's
+     * step handed to a game shard, so its errors are tagged with the id.
+     *
+     * @param r request (null = no id)
+     * @param command command to run
+     */
+    static void runAs(Request r, Runnable command) {
+        Request previous = CURRENT_REQUEST.get();
+        CURRENT_REQUEST.set(r);
+        try {
+            command.run();
+        } finally {
+            CURRENT_REQUEST.set(previous);
+        }
+    }
 
-                    case "RESUME":
-                        GameSession.getInstance().playerResume(this);
-                        break;
+    /**
+     * Parses one side of a conditional move: a move JSON or PASS.
+     *
+     * @param text move JSON or PASS
+     * @return move, or null for a pass
+     * @throws IllegalArgumentException if the text is neither
+     */
+    private static Move parseConditional(String text) {
+        if (text.equalsIgnoreCase("PASS")) return null;
+        return JsonUtil.jsonToMove(text);
+    }
+
+    /**
+     * Forwards a command of a client that is in a game to its GameSession.
+     * Runs on the game's shard thread.
+     *
+     * @param s client's game
+     * @param cmd command (upper case)
+     * @param arg command argument (may be empty)
+     */
+    private void handleGameCommand(GameSession s, String cmd, String arg) {
+        switch (cmd) {
+            case "MOVE":
+                if (arg.isEmpty()) {
+                    sendLine("ERROR MOVE requires JSON argument");
+                } else {
+                    try {
+                        Move m = JsonUtil.parseMove(arg, s.reusableMove()); // bez nowego obiektu na kazdy ruch
+                        m.player = this.playerId; // enforce player id !
+                        s.applyMove(m, this); //przez obecnego clientHandlera obslugujemy move (wywolujac applyMove w GameSession)
+                    } catch (IllegalArgumentException ex) {
+                        sendLine("ERROR Bad move JSON: " + ex.getMessage());
+                    }
+                }
+                break;
+
+            case "PASS":
+                s.playerPassed(this);
+                break;
+
+            case "RESIGN":
+                s.playerResigned(this);
+                break;
+
+            case "RESUME":
+                s.playerResume(this);
+                break;
+
+            case "FINISH":
+                s.playerVotedFinish(this);
+                break;
 
-                    case "FINISH":
-                        GameSession.getInstance().playerVotedFinish(this);
-                        break;
+            case "HISTORY":
+                s.sendHistory(this);
+                break;
 
-                    default:
-                        sendLine("ERROR Unknown command: [" + cmd + "]");
+            case "IF":
+                if (arg.equalsIgnoreCase("CLEAR")) {
+                    s.clearConditionalMoves(this);
+                    break;
                 }
-            }
-        } catch (IOException e) {
-            System.err.println("Client " + playerId + " disconnected: " + e.getMessage());
-        } finally { //jak klient się zamknie to jego handler po stronie serwera to przechwyci, jak klient uzyje quit/exit to wywola sie resign (bez info o bledzie), a jak zamknie okno po prostu to clientdisconnected
-            try { socket.close(); } catch (IOException ignored) {}
-            try { GameSession.getInstance().clientDisconnected(this); } catch (Exception ignored) {}
+                int then = arg.toUpperCase().indexOf(" THEN ");
+                if (then < 0) {
+                    sendLine("ERROR Use: IF {json}|PASS THEN {json}|PASS, or IF CLEAR");
+                    break;
+                }
+                try {
+                    s.addConditionalMove(this, parseConditional(arg.substring(0, then).trim()),
+                            parseConditional(arg.substring(then + 6).trim()));
+                } catch (IllegalArgumentException ex) {
+                    sendLine("ERROR Bad conditional move: " + ex.getMessage());
+                }
+                break;
+
+            case "GOTO":
+                try {
+                    s.sendPosition(this, Integer.parseInt(arg));
+                } catch (NumberFormatException ex) {
+                    sendLine("ERROR GOTO requires a move number");
+                }
+                break;
+
+            default:
+                sendLine("ERROR Unknown command: [" + cmd + "]");
         }
     }
-}
\ No newline at end of file
+}
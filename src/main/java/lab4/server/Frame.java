@@ -0,0 +1,88 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Gotowa linia protokolu zakodowana raz w UTF-8 (razem z '\n').
+ * <p>
+ * A broadcast is encoded into a frame once and the same frame is then queued
+ * for every recipient (players and spectators), which only copies its bytes
+ * into its output buffer. Frames are immutable, so they can be shared between
+ * connections and kept for later (e.g. the current BOARD for reconnecting
+ * clients).
+ */
+public final class Frame {
+    /** Encoded line including the trailing '\n' (never modified) */
+    private final byte[] bytes;
+
+    /**
+     * Creates a frame from encoded bytes (the array is taken over, not copied).
+     *
+     * @param bytes encoded line with '\n'
+     */
+    private Frame(byte[] bytes) {
+        this.bytes = bytes;
+        ServerMetrics.frameBytes.add(bytes.length);
+    }
+
+    /**
+     * Encodes a line. ASCII lines (almost the whole protocol) are copied char by
+     * char without an intermediate String; other lines go through UTF-8.
+     *
+     * @param line text without '\n'
+     * @return encoded frame
+     */
+    public static Frame of(CharSequence line) {
+        ServerMetrics.framesEncoded.increment();
+        int n = line.length();
+        byte[] b = new byte[n + 1];
+        for (int i = 0; i < n; i++) {
+            char ch = line.charAt(i);
+            if (ch >= 0x80) return new Frame((line + "\n").getBytes(StandardCharsets.UTF_8)); // np. polskie znaki w INFO
+            b[i] = (byte) ch;
+        }
+        b[n] = '\n';
+        return new Frame(b);
+    }
+
+    /**
+     * Returns the encoded length.
+     *
+     * @return bytes including '\n'
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Copies the frame into a buffer.
+     *
+     * @param dst destination buffer
+     * @param offset position in dst
+     */
+    void copyTo(byte[] dst, int offset) {
+        System.arraycopy(bytes, 0, dst, offset, bytes.length);
+    }
+
+    /**
+     * Writes the frame directly to a stream (for frames larger than a buffer).
+     *
+     * @param out stream
+     * @throws IOException if the write fails
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * Returns the line as text (without '\n'), for logs and tests.
+     *
+     * @return decoded line
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, bytes.length - 1, StandardCharsets.UTF_8);
+    }
+}
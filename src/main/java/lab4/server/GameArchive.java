@@ -0,0 +1,88 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Archiwum zakonczonych gier: jeden wiersz tekstu na gre.
+ * <p>
+ * Line format: {@code <boardSize> <move1> <move2> ...} where each move is a
+ * packed int from {@link MoveHistory} in decimal. The server appends a line when
+ * a game ends if the {@code lab4.archive} system property names a file.
+ */
+public final class GameArchive {
+    /** System property with the archive file path */
+    static final String ARCHIVE_PROPERTY = "lab4.archive";
+
+    private GameArchive() {}
+
+    /**
+     * Formats a finished game as one archive line (without line separator).
+     *
+     * @param h move history of the game
+     * @return archive line
+     */
+    public static String format(MoveHistory h) {
+        StringBuilder sb = new StringBuilder(8 + h.size() * 8);
+        sb.append(h.boardSize());
+        for (int seq = 1; seq <= h.size(); seq++) sb.append(' ').append(h.get(seq));
+        return sb.toString();
+    }
+
+    /**
+     * Appends a finished game to the archive configured by {@code -Dlab4.archive=...}.
+     * Does nothing if the property is not set; errors are only logged.
+     *
+     * @param h move history of the game
+     */
+    static synchronized void append(MoveHistory h) {
+        String file = System.getProperty(ARCHIVE_PROPERTY);
+        if (file == null || file.isEmpty()) return;
+        try {
+            Files.writeString(Paths.get(file), format(h) + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Archive write failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses one archive line into {@code [size, move1, move2, ...]}.
+     * Parsed by hand (no split), because the analyzer reads millions of moves.
+     *
+     * @param line archive line
+     * @return array with board size followed by packed moves
+     * @throws IllegalArgumentException if the line contains something else than numbers
+     */
+    public static int[] parse(String line) {
+        int n = 0;
+        boolean inNumber = false;
+        for (int i = 0; i < line.length(); i++) {
+            boolean digit = line.charAt(i) > ' ';
+            if (digit && !inNumber) n++;
+            inNumber = digit;
+        }
+        int[] out = new int[n];
+        int k = 0;
+        int v = 0;
+        inNumber = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch <= ' ') { // spacja (lub \r z Windowsa)
+                if (inNumber) out[k++] = v;
+                inNumber = false;
+                v = 0;
+            } else if (ch >= '0' && ch <= '9') {
+                v = v * 10 + (ch - '0');
+                inNumber = true;
+            } else {
+                throw new IllegalArgumentException("Bad archive line: unexpected '" + ch + "'");
+            }
+        }
+        if (inNumber) out[k] = v;
+        return out;
+    }
+}
@@ -0,0 +1,465 @@
+package lab4.server;
+
+import java.nio.ByteBuffer;
+
+import lab4.common.Board;
+import lab4.common.PersistentBoard;
+
+/**
+ * Czysta logika jednej gry: komendy na wejsciu, zdarzenia na wyjsciu, bez sieci, watkow i tekstu.
+ * <p>
+ * Commands ({@link #start}, {@link #move}, {@link #pass}, {@link #resume},
+ * {@link #voteFinish}, {@link #resign}, {@link #abandon}) return a result code
+ * and, when they change the game, call the {@link Listener} in a fixed order.
+ * GameSession subscribes and turns the events into protocol lines; replay,
+ * fuzz and benchmark harnesses drive the same core without any connection.
+ * The state lives in flat fields and reused arrays: an accepted move allocates
+ * nothing except (every {@link MoveHistory#KEYFRAME_INTERVAL} moves) a
+ * history keyframe. Not thread-safe; GameSession uses it on the game's shard.
+ * Only {@link #isOver()} may be read from other threads.
+ */
+final class GameCore {
+    /** Result: command accepted (a move returns its captures instead, 0 or more) */
+    static final int OK = 0;
+    /** Result: point occupied or out of bounds (same code as Board) */
+    static final int OCCUPIED = -1;
+    /** Result: suicide (same code as Board) */
+    static final int SUICIDE = -2;
+    /** Result: the move would repeat the previous position */
+    static final int KO = -3;
+    /** Result: the game is stopped for agreement */
+    static final int STOPPED = -4;
+    /** Result: the game is over */
+    static final int OVER = -5;
+    /** Result: the game has not started */
+    static final int NOT_STARTED = -6;
+    /** Result: the other player is to move */
+    static final int NOT_YOUR_TURN = -7;
+    /** Result: RESUME while the game is not stopped */
+    static final int NOT_STOPPED = -8;
+
+    /** Game over reason: both players voted FINISH */
+    static final int AGREED = 1;
+    /** Game over reason: a player resigned */
+    static final int RESIGNED = 2;
+    /** Game over reason: a player left for good */
+    static final int ABANDONED = 3;
+
+    /**
+     * Receives the events of a game, in the order they happen. All methods do
+     * nothing by default.
+     */
+    interface Listener {
+        /** The game has started (player 1 moves first; {@link #turn} follows). */
+        default void started() {}
+
+        /**
+         * A stone was placed; history and captures are already updated.
+         *
+         * @param player player who moved
+         * @param row row
+         * @param col column
+         * @param captured stones captured by the move
+         */
+        default void moveAccepted(int player, int row, int col, int captured) {}
+
+        /**
+         * A player passed; the pass is already in the history.
+         *
+         * @param player player who passed
+         */
+        default void passed(int player) {}
+
+        /**
+         * It is now this player's turn.
+         *
+         * @param player player to move
+         */
+        default void turn(int player) {}
+
+        /** Two passes in a row: the game is stopped until FINISH or RESUME. */
+        default void agreementStarted() {}
+
+        /**
+         * A stopped game was resumed; the opponent of the requesting player moves next.
+         *
+         * @param player player who requested RESUME
+         */
+        default void resumed(int player) {}
+
+        /**
+         * A player voted to finish.
+         *
+         * @param player voting player
+         */
+        default void finishVoted(int player) {}
+
+        /**
+         * The game has ended.
+         *
+         * @param winner -1 undecided, 0 draw, 1 or 2
+         * @param reason {@link #AGREED}, {@link #RESIGNED} or {@link #ABANDONED}
+         */
+        default void gameOver(int winner, int reason) {}
+    }
+
+    /** Listener that ignores all events */
+    static final Listener NO_LISTENER = new Listener() {};
+
+    /** Game board (the same instance for the whole game) */
+    private final Board board;
+    /** Accepted moves and passes */
+    private final MoveHistory history;
+    /** Receives events */
+    private Listener listener = NO_LISTENER;
+    /** Position before the last move or pass, for Ko (valid only if hasPreviousBoard) */
+    private int[][] previousBoard;
+    /** False until the first move or pass */
+    private boolean hasPreviousBoard = false;
+    /** Scratch copy of the board before a move; swapped with previousBoard when the move is accepted */
+    private int[][] beforeMove;
+    /** Player to move */
+    private int currentPlayer = 1;
+    /** True after start() */
+    private boolean started = false;
+    /** True once the game has ended (read by connection threads) */
+    private volatile boolean over = false;
+    /** Passes in a row; two stop the game for agreement */
+    private int consecutivePasses = 0;
+    /** True after two passes, until RESUME */
+    private boolean stopped = false;
+    /** FINISH votes, index = player id (index 0 unused) */
+    private final boolean[] finishVotes = new boolean[3];
+    /** Captured stones (index 0 = player 1, index 1 = player 2) */
+    final int[] captures = {0, 0};
+    /** Result: -1 undecided, 0 draw, 1 or 2 winner */
+    private int winner = -1;
+
+    /**
+     * Creates a game that has not started.
+     *
+     * @param size board size
+     */
+    GameCore(int size) {
+        this(new Board(size), new MoveHistory(size));
+    }
+
+    /**
+     * Creates a game over an existing board and history.
+     *
+     * @param board board
+     * @param history history of that board
+     */
+    private GameCore(Board board, MoveHistory history) {
+        this.board = board;
+        this.history = history;
+        this.previousBoard = new int[board.size][board.size];
+        this.beforeMove = new int[board.size][board.size];
+    }
+
+    /**
+     * Sets the event listener.
+     *
+     * @param listener listener (NO_LISTENER to ignore events)
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the game.
+     *
+     * @return false if it had already started
+     */
+    boolean start() {
+        if (started) return false;
+        started = true;
+        over = false;
+        currentPlayer = 1;
+        consecutivePasses = 0;
+        hasPreviousBoard = false;
+        listener.started();
+        listener.turn(currentPlayer);
+        return true;
+    }
+
+    /**
+     * Plays a stone for a player.
+     *
+     * @param player player (1 or 2)
+     * @param row row
+     * @param col column
+     * @return captured stones (0 or more), or OCCUPIED, SUICIDE, KO, STOPPED,
+     *         OVER, NOT_STARTED, NOT_YOUR_TURN
+     */
+    int move(int player, int row, int col) {
+        int refused = refuseTurn(player);
+        if (refused != OK) return refused;
+
+        board.copyGridTo(beforeMove); // kopia przed ruchem: do Ko i do wycofania, do gotowej tablicy
+        int result = board.applyMoveAndCapture(row, col, player);
+        if (result < 0) return result;
+        if (hasPreviousBoard && Board.gridsEqual(board.grid, previousBoard)) {
+            board.setGridFromCopy(beforeMove); // Ko: wycofujemy
+            return KO;
+        }
+        int[][] swap = previousBoard; // pozycja przed ruchem staje sie poprzednia; tablice zamieniamy, nie kopiujemy
+        previousBoard = beforeMove;
+        beforeMove = swap;
+        hasPreviousBoard = true;
+        consecutivePasses = 0;
+        history.record(MoveHistory.packMove(row, col, player, result), board);
+        captures[player - 1] += result;
+        currentPlayer = player == 1 ? 2 : 1;
+        listener.moveAccepted(player, row, col, result);
+        listener.turn(currentPlayer);
+        return result;
+    }
+
+    /**
+     * Passes for a player. The second pass in a row stops the game for agreement.
+     *
+     * @param player player (1 or 2)
+     * @return OK, or STOPPED, OVER, NOT_STARTED, NOT_YOUR_TURN
+     */
+    int pass(int player) {
+        int refused = refuseTurn(player);
+        if (refused != OK) return refused;
+
+        board.copyGridTo(previousBoard); // dla Ko pas to ruch, po ktorym poprzednia pozycja = obecna
+        hasPreviousBoard = true;
+        consecutivePasses++;
+        history.record(MoveHistory.packPass(player), board);
+        listener.passed(player);
+        if (consecutivePasses >= 2) {
+            stopped = true;
+            listener.agreementStarted();
+            return OK;
+        }
+        currentPlayer = player == 1 ? 2 : 1;
+        listener.turn(currentPlayer);
+        return OK;
+    }
+
+    /**
+     * Checks that a player may move or pass now.
+     *
+     * @param player player
+     * @return OK, or the reason why not
+     */
+    private int refuseTurn(int player) {
+        if (stopped) return STOPPED;
+        if (over) return OVER;
+        if (!started) return NOT_STARTED;
+        if (player != currentPlayer) return NOT_YOUR_TURN;
+        return OK;
+    }
+
+    /**
+     * Resumes a stopped game; the requesting player's opponent moves next.
+     *
+     * @param player player who asked
+     * @return OK or NOT_STOPPED
+     */
+    int resume(int player) {
+        if (!stopped) return NOT_STOPPED;
+        stopped = false;
+        consecutivePasses = 0;
+        finishVotes[1] = false;
+        finishVotes[2] = false;
+        currentPlayer = player == 1 ? 2 : 1;
+        listener.resumed(player);
+        listener.turn(currentPlayer);
+        return OK;
+    }
+
+    /**
+     * Records a FINISH vote; the game ends as a draw when both players voted.
+     *
+     * @param player voting player (other values are ignored)
+     * @return OK or OVER
+     */
+    int voteFinish(int player) {
+        if (over) return OVER;
+        if (player != 1 && player != 2) return OK;
+        finishVotes[player] = true;
+        listener.finishVoted(player);
+        if (finishVotes[1] && finishVotes[2]) end(0, AGREED); // serwer nie liczy terytorium, zgoda = remis dla rankingu
+        return OK;
+    }
+
+    /**
+     * Ends the game with the opponent as the winner.
+     *
+     * @param player resigning player
+     * @return OK or OVER
+     */
+    int resign(int player) {
+        if (over) return OVER;
+        end(player == 1 ? 2 : 1, RESIGNED);
+        return OK;
+    }
+
+    /**
+     * Ends the game because a player left for good.
+     *
+     * @param winner remaining player, or -1 if nobody wins
+     * @return OK or OVER
+     */
+    int abandon(int winner) {
+        if (over) return OVER;
+        end(winner, ABANDONED);
+        return OK;
+    }
+
+    /**
+     * Ends the game and reports it.
+     *
+     * @param winner result
+     * @param reason game over reason
+     */
+    private void end(int winner, int reason) {
+        this.winner = winner;
+        over = true;
+        listener.gameOver(winner, reason);
+    }
+
+    /**
+     * Returns the board (changed in place by moves).
+     *
+     * @return board
+     */
+    Board board() {
+        return board;
+    }
+
+    /**
+     * Returns the history of accepted moves and passes.
+     *
+     * @return history
+     */
+    MoveHistory history() {
+        return history;
+    }
+
+    /**
+     * Returns the player to move.
+     *
+     * @return 1 or 2
+     */
+    int currentPlayer() {
+        return currentPlayer;
+    }
+
+    /**
+     * Returns whether the game has started.
+     *
+     * @return true after start()
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Returns whether the game has ended. Safe to call from any thread.
+     *
+     * @return true when over
+     */
+    boolean isOver() {
+        return over;
+    }
+
+    /**
+     * Returns whether the game is stopped for agreement.
+     *
+     * @return true after two passes, until RESUME
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns the result.
+     *
+     * @return -1 undecided, 0 draw, 1 or 2 winner
+     */
+    int winner() {
+        return winner;
+    }
+
+    /**
+     * Returns the position before the last move or pass (Ko reference).
+     *
+     * @return grid, or null before the first move
+     */
+    int[][] previousBoard() {
+        return hasPreviousBoard ? previousBoard : null;
+    }
+
+    /**
+     * Returns the size of the state in a game snapshot.
+     *
+     * @return bytes written by {@link #writeTo}
+     */
+    int snapshotBytes() {
+        int grid = GameSnapshot.gridBytes(board.size);
+        return 28 + grid + (hasPreviousBoard ? grid : 0) + history.snapshotBytes();
+    }
+
+    /**
+     * Writes the state of a started game:
+     * <pre>
+     * byte size, byte currentPlayer, byte consecutivePasses, byte flags,
+     * int captures1, int captures2, long boardHash, long previousHash,
+     * board (2 bits/point), previous board if flag 8, move history
+     * </pre>
+     *
+     * @param buf destination
+     */
+    void writeTo(ByteBuffer buf) {
+        int flags = (stopped ? 1 : 0) | (finishVotes[1] ? 2 : 0) | (finishVotes[2] ? 4 : 0) | (hasPreviousBoard ? 8 : 0);
+        buf.put((byte) board.size).put((byte) currentPlayer).put((byte) consecutivePasses).put((byte) flags);
+        buf.putInt(captures[0]).putInt(captures[1]);
+        buf.putLong(PersistentBoard.hashOf(board)).putLong(hasPreviousBoard ? PersistentBoard.hashOf(previousBoard) : 0);
+        GameSnapshot.putGrid(buf, board.grid);
+        if (hasPreviousBoard) GameSnapshot.putGrid(buf, previousBoard);
+        history.writeTo(buf);
+    }
+
+    /**
+     * Restores a started game written by {@link #writeTo}.
+     *
+     * @param buf source
+     * @return restored game (no listener)
+     * @throws IllegalArgumentException if the board does not match its hash or values are invalid
+     */
+    static GameCore readFrom(ByteBuffer buf) {
+        int size = buf.get();
+        if (size < 1 || size > PersistentBoard.MAX_SIZE) throw new IllegalArgumentException("Bad board size " + size);
+        int current = buf.get(), passes = buf.get(), flags = buf.get();
+        int captures1 = buf.getInt(), captures2 = buf.getInt();
+        long boardHash = buf.getLong(), previousHash = buf.getLong();
+        int[][] grid = new int[size][size];
+        GameSnapshot.getGrid(buf, grid);
+        int[][] previous = new int[size][size];
+        boolean hasPrevious = (flags & 8) != 0;
+        if (hasPrevious) GameSnapshot.getGrid(buf, previous);
+        if (PersistentBoard.hashOf(grid) != boardHash || (hasPrevious && PersistentBoard.hashOf(previous) != previousHash)) {
+            throw new IllegalArgumentException("Board does not match its hash");
+        }
+
+        GameCore g = new GameCore(new Board(size), MoveHistory.readFrom(buf, size));
+        g.board.setGridFromCopy(grid);
+        g.previousBoard = previous;
+        g.hasPreviousBoard = hasPrevious;
+        g.currentPlayer = current == 2 ? 2 : 1;
+        g.consecutivePasses = passes;
+        g.stopped = (flags & 1) != 0;
+        g.finishVotes[1] = (flags & 2) != 0;
+        g.finishVotes[2] = (flags & 4) != 0;
+        g.captures[0] = captures1;
+        g.captures[1] = captures2;
+        g.started = true;
+        return g;
+    }
+}
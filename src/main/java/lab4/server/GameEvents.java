@@ -0,0 +1,254 @@
+package lab4.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import lab4.common.Move;
+
+/**
+ * Zdarzenia Java Flight Recorder serwera (ruchy, Ko, rozsylanie, polaczenia, stan gry).
+ * <p>
+ * Record them with e.g. {@code java -XX:StartFlightRecording:filename=go.jfr ...}
+ * and look for the "Lab4" category in JDK Mission Control or {@code jfr print
+ * --categories Lab4 go.jfr}. Every event is created only when its type is
+ * enabled in a running recording, so without a recording the cost is one check
+ * per call and no allocation.
+ */
+final class GameEvents {
+    /** applyMove result: move rejected before touching the board (wrong turn, game stopped...) */
+    static final int REJECTED = -4;
+    /** applyMove result: Ko violation */
+    static final int KO = -3;
+
+    private static final EventType MOVE_TYPE = EventType.getEventType(MoveApplied.class);
+    private static final EventType KO_TYPE = EventType.getEventType(KoRejected.class);
+    private static final EventType BROADCAST_TYPE = EventType.getEventType(Broadcast.class);
+    private static final EventType STATE_TYPE = EventType.getEventType(GameStateChanged.class);
+    private static final EventType CONNECTED_TYPE = EventType.getEventType(ClientConnected.class);
+    private static final EventType DISCONNECTED_TYPE = EventType.getEventType(ClientDisconnected.class);
+
+    private GameEvents() {}
+
+    /** One MOVE handled by a game (accepted or not), with its duration. */
+    @Name("lab4.MoveApplied")
+    @Label("Move Applied")
+    @Category({"Lab4", "Game"})
+    @StackTrace(false)
+    static final class MoveApplied extends Event {
+        @Label("Game Id")
+        int gameId;
+        @Label("Player")
+        int player;
+        @Label("Row")
+        int row;
+        @Label("Column")
+        int col;
+        @Label("Result")
+        @Description("Captured stones if accepted; -1 occupied/out of bounds, -2 suicide, -3 Ko, -4 rejected before the board")
+        int result;
+        @Label("Captures")
+        int captures;
+    }
+
+    /** A move undone because it repeated the previous position. */
+    @Name("lab4.KoRejected")
+    @Label("Ko Rejected")
+    @Category({"Lab4", "Game"})
+    @StackTrace(false)
+    static final class KoRejected extends Event {
+        @Label("Game Id")
+        int gameId;
+        @Label("Player")
+        int player;
+        @Label("Row")
+        int row;
+        @Label("Column")
+        int col;
+    }
+
+    /** One line sent to all clients of a game. */
+    @Name("lab4.Broadcast")
+    @Label("Broadcast")
+    @Category({"Lab4", "Network"})
+    @StackTrace(false)
+    static final class Broadcast extends Event {
+        @Label("Game Id")
+        int gameId;
+        @Label("Recipients")
+        int recipients;
+        @Label("Frame Size")
+        @DataAmount
+        int frameBytes;
+        @Label("Bytes Queued")
+        @Description("Frame size times recipients")
+        @DataAmount
+        long totalBytes;
+    }
+
+    /** A game moved to another phase. */
+    @Name("lab4.GameStateChanged")
+    @Label("Game State Changed")
+    @Category({"Lab4", "Game"})
+    @StackTrace(false)
+    static final class GameStateChanged extends Event {
+        @Label("Game Id")
+        int gameId;
+        @Label("State")
+        @Description("STARTED, AGREEMENT, RESUMED, RESTORED or OVER")
+        String state;
+        @Label("Moves")
+        int moves;
+    }
+
+    /** A client connection was accepted. */
+    @Name("lab4.ClientConnected")
+    @Label("Client Connected")
+    @Category({"Lab4", "Network"})
+    @StackTrace(false)
+    static final class ClientConnected extends Event {
+        @Label("Remote Address")
+        String remote;
+    }
+
+    /** A client connection ended; the duration is the connection's lifetime. */
+    @Name("lab4.ClientDisconnected")
+    @Label("Client Disconnected")
+    @Category({"Lab4", "Network"})
+    @StackTrace(false)
+    static final class ClientDisconnected extends Event {
+        @Label("Remote Address")
+        String remote;
+        @Label("Player")
+        int player;
+        @Label("Game Id")
+        int gameId;
+    }
+
+    /**
+     * Starts timing a move, if move events are recorded.
+     *
+     * @return started event, or null when disabled
+     */
+    static MoveApplied beginMove() {
+        if (!MOVE_TYPE.isEnabled()) return null;
+        MoveApplied e = new MoveApplied();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * Ends and commits a move event.
+     *
+     * @param e event from {@link #beginMove()}, or null
+     * @param gameId game id
+     * @param m move
+     * @param result captured stones, or a negative result code
+     */
+    static void endMove(MoveApplied e, int gameId, Move m, int result) {
+        if (e == null) return;
+        e.end();
+        e.gameId = gameId;
+        e.player = m.player;
+        e.row = m.row;
+        e.col = m.col;
+        e.result = result;
+        e.captures = Math.max(result, 0);
+        e.commit();
+    }
+
+    /**
+     * Records a Ko rejection.
+     *
+     * @param gameId game id
+     * @param m rejected move
+     */
+    static void ko(int gameId, Move m) {
+        if (!KO_TYPE.isEnabled()) return;
+        KoRejected e = new KoRejected();
+        e.gameId = gameId;
+        e.player = m.player;
+        e.row = m.row;
+        e.col = m.col;
+        e.commit();
+    }
+
+    /**
+     * Records a broadcast.
+     *
+     * @param gameId game id
+     * @param frame sent frame
+     * @param recipients number of clients
+     */
+    static void broadcast(int gameId, Frame frame, int recipients) {
+        if (!BROADCAST_TYPE.isEnabled()) return;
+        Broadcast e = new Broadcast();
+        e.gameId = gameId;
+        e.recipients = recipients;
+        e.frameBytes = frame.length();
+        e.totalBytes = (long) frame.length() * recipients;
+        e.commit();
+    }
+
+    /**
+     * Records a game state transition.
+     *
+     * @param gameId game id
+     * @param state new state (STARTED, AGREEMENT, RESUMED, RESTORED, OVER)
+     * @param moves moves played so far
+     */
+    static void state(int gameId, String state, int moves) {
+        if (!STATE_TYPE.isEnabled()) return;
+        GameStateChanged e = new GameStateChanged();
+        e.gameId = gameId;
+        e.state = state;
+        e.moves = moves;
+        e.commit();
+    }
+
+    /**
+     * Records a new connection.
+     *
+     * @param remote remote address, or null without a socket
+     */
+    static void connected(String remote) {
+        if (!CONNECTED_TYPE.isEnabled()) return;
+        ClientConnected e = new ClientConnected();
+        e.remote = remote;
+        e.commit();
+    }
+
+    /**
+     * Starts timing a connection's lifetime, if disconnect events are recorded.
+     *
+     * @return started event, or null when disabled
+     */
+    static ClientDisconnected beginConnection() {
+        if (!DISCONNECTED_TYPE.isEnabled()) return null;
+        ClientDisconnected e = new ClientDisconnected();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * Ends and commits a disconnect event.
+     *
+     * @param e event from {@link #beginConnection()}, or null
+     * @param remote remote address, or null
+     * @param player player id (0 if not seated)
+     * @param gameId game id (-1 if not in a game)
+     */
+    static void disconnected(ClientDisconnected e, String remote, int player, int gameId) {
+        if (e == null) return;
+        e.end();
+        e.remote = remote;
+        e.player = player;
+        e.gameId = gameId;
+        e.commit();
+    }
+}
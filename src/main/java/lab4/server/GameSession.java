@@ -1,19 +1,40 @@
 package lab4.server;
 
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import lab4.common.Board;
 import lab4.common.JsonUtil;
 import lab4.common.Move;
+import lab4.common.PersistentBoard;
 
 /**
- * Singleton: jedna sesja gry.
+ * Jedna sesja gry (dwoch graczy). Serwer tworzy je w Lobby, kazda para graczy dostaje nowa.
  *
  * Wzorce:
- * - Singleton: GameSession.getInstance()
+ * - Singleton: GameSession.getInstance() - zostaje dla trybu jednej gry (np. testy)
  * - Observer (prymitywny): trzymamy listę ClientHandler i broadcastujemy
  * - DTO (data transfer object): Board i Move są przesyłane/serializowane przez JsonUtil
+ *
+ * Watki: gra nie ma blokad. Gry z Lobby dostaja executor jednego shardu
+ * (SessionScheduler) i wszystkie ich komendy, takze timery, ida przez {@link #execute}.
+ * Only isRunning() and the final fields may be read from other threads.
+ *
+ * Zasady i stan gry sa w {@link GameCore} (komendy na wejsciu, zdarzenia na
+ * wyjsciu); ta klasa sprawdza, kto wysyla komende, zamienia zdarzenia na linie
+ * protokolu (klasa Output) i trzyma to, co dotyczy polaczen: tokeny, timery,
+ * ruchy warunkowe.
  */
 public class GameSession
 {
@@ -47,25 +68,68 @@ public class GameSession
         return instance;
     }
 
-    /** Game board */
+    /** How long a disconnected player's seat is kept for a reconnection */
+    static final long RECONNECT_GRACE_MS = 30_000;
+    /** Shared timer used to expire seats of players who did not come back */
+    private static final ScheduledExecutorService graceTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ReconnectGrace");
+        t.setDaemon(true);
+        return t;
+    });
+    /** Maximum number of conditional replies a player can queue for one opponent move */
+    static final int MAX_CONDITIONAL = 32;
+    /** Key of a conditional reply to the opponent's pass */
+    static final int PASS_KEY = -1;
+    /** Reply value meaning "pass" in conditional replies */
+    static final Move PASS_REPLY = new Move(-1, -1, 0);
+    /** Fixed protocol lines, encoded once for all games */
+    private static final Frame YOUR_TURN = Frame.of("YOUR_TURN");
+    private static final Frame OPPONENT_TURN = Frame.of("OPPONENT_TURN");
+    private static final Frame AGREEMENT_ON = Frame.of("AGREEMENT_ON");
+    private static final Frame AGREEMENT_OFF = Frame.of("AGREEMENT_OFF");
+    /** Source of resume tokens */
+    private static final SecureRandom tokenRandom = new SecureRandom();
+
+    /** Game id (0 for the singleton) */
+    private final int id;
+    /** Runs this game's commands (a SessionScheduler shard; the caller's thread for the singleton) */
+    private Executor executor = Runnable::run;
+    /** Called once when the game ends (set by Lobby) */
+    private Consumer<GameSession> onFinished;
+    /** Game rules and state; this class only turns its events into protocol lines */
+    private final GameCore core;
+    /** Game board (the core's board) */
     private final Board board;
     /** Registered clients (observers) */
     private final List<ClientHandler> observers = new ArrayList<>();
-    /** ID of the player whose turn it is */
-    private int currentPlayer = 1;
-    /** Flags for game state */
-    private boolean started = false;
-    private boolean gameOver = false;
-    private int consecutivePasses = 0; // bo po 2x PASS konczymy gre
-    private boolean stoppedForAgreement = false; // nowe pole, true po PASS+PASS
-    private boolean ONEvotedForFinish = false; // zlicza do dwoch, wtedy zatrzymuje gre
-    private boolean TWOvotedForFinish = false;
-    /** Captured stones for each player (index 0 = player 1, index 1 = player 2) */
-    final int[] wyniki = {0,0}; // 0 indeks -> zbite 1 gracza; 1 indeks -> zbite 2 gracza (do uzycia pozniej w gui)
-
-    // previousBoard used to detect Ko (position before last move)
-    /** Previous board state used to detect Ko */
-    private int[][] previousBoard = null;
+    /** Captured stones for each player (index 0 = player 1, index 1 = player 2; the core's array) */
+    final int[] wyniki; // 0 indeks -> zbite 1 gracza; 1 indeks -> zbite 2 gracza (do uzycia pozniej w gui)
+    /** Reused buffer for building outgoing lines on the game's thread */
+    private final StringBuilder lineBuffer;
+    /** Reused Move for parsing MOVE commands on the game's thread */
+    private final Move moveBuffer = new Move();
+
+    /** Resume tokens issued at START (index = player id, index 0 unused) */
+    private final String[] resumeTokens = new String[3];
+    /** Player names at START, for rating (index = player id, null = anonymous) */
+    private final String[] playerNames = new String[3];
+    /** Pending seat expiry for disconnected players (index = player id) */
+    private final ScheduledFuture<?>[] graceTimers = new ScheduledFuture<?>[3];
+    /** Last OWNERSHIP frame of the current agreement phase (resent on REJOIN), or null */
+    private Frame ownershipFrame = null;
+    /** Last broadcast BOARD frame (the current position, resent on REJOIN) */
+    private Frame boardFrame = null;
+    /**
+     * Conditional replies (IF ... THEN ...) per player, index = player id:
+     * opponent's point (row * size + col, or PASS_KEY) -> reply (or PASS_REPLY).
+     * Checked and cleared when the opponent's next move or pass lands.
+     */
+    private final List<Map<Integer, Move>> conditionalMoves = List.of(new HashMap<>(), new HashMap<>(), new HashMap<>());
+    /**
+     * Accepted moves and passes in order (sequence number = move number; the core's history).
+     * Used for GOTO and to send a reconnecting client only what it missed.
+     */
+    private final MoveHistory history;
 
     /**
      * Private constructor for singleton.
@@ -74,16 +138,143 @@ public class GameSession
      */
     private GameSession(int boardSize)
     {
-        this.board = new Board(boardSize);
+        this(0, boardSize);
+    }
+
+    /**
+     * Creates a game with the given id (used by Lobby).
+     *
+     * @param id game id
+     * @param boardSize size of the board
+     */
+    GameSession(int id, int boardSize)
+    {
+        this(id, new GameCore(boardSize));
+    }
+
+    /**
+     * Creates a game over an existing core (new or restored from a snapshot).
+     *
+     * @param id game id
+     * @param core game state
+     */
+    private GameSession(int id, GameCore core)
+    {
+        this.id = id;
+        this.core = core;
+        this.board = core.board();
+        this.history = core.history();
+        this.wyniki = core.captures;
+        this.lineBuffer = new StringBuilder(32 + board.size * (board.size + 1) * 2); // miesci linie BOARD (cyfra i przecinek na punkt, nawiasy wierszy)
+        core.setListener(new Output());
+    }
+
+    /**
+     * Returns the game id.
+     *
+     * @return game id
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the board size of this game.
+     *
+     * @return board size
+     */
+    public int getBoardSize()
+    {
+        return board.size;
+    }
+
+    /**
+     * Returns the moves played so far (ANALYZE GAME). Call on the game's thread.
+     *
+     * @return packed moves (MoveHistory format), in order
+     */
+    int[] packedMoves()
+    {
+        int[] moves = new int[history.size()];
+        for (int i = 0; i < moves.length; i++) moves[i] = history.get(i + 1);
+        return moves;
     }
 
     /**
-     * Returns true if the game is still running.
+     * Sets the executor that runs all commands of this game (set by Lobby before
+     * the game is shared with other threads).
+     *
+     * @param executor single-threaded executor of the game's shard
+     */
+    void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs a command on this game's thread, then sends the output it produced.
+     *
+     * @param ch client that sent the command (flushed even if not seated), or null
+     * @param command command touching the game state
+     */
+    public void execute(ClientHandler ch, Runnable command)
+    {
+        executor.execute(() -> {
+            command.run();
+            if (ch != null) ch.flush();
+            flushObservers();
+        });
+    }
+
+    /**
+     * Returns the player whose turn it is.
+     *
+     * @return 1 or 2
+     */
+    int getCurrentPlayer()
+    {
+        return core.currentPlayer();
+    }
+
+    /**
+     * Sets the callback run once when the game ends.
+     *
+     * @param onFinished callback receiving this session
+     */
+    void setOnFinished(Consumer<GameSession> onFinished)
+    {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * Returns the result of a finished game.
+     *
+     * @return -1 undecided (e.g. both players left), 0 draw, 1 or 2 winner
+     */
+    public int getWinner()
+    {
+        return core.winner();
+    }
+
+    /**
+     * Returns the name a player had when the game started.
+     *
+     * @param playerId player id (1 or 2)
+     * @return player name, or null for an anonymous player
+     */
+    public String getPlayerName(int playerId)
+    {
+        return playerNames[playerId];
+    }
+
+    /**
+     * Returns true if the game is still running. Safe to call from any thread.
      *
      * @return true if game not over
      */
-    public synchronized boolean isRunning(){ // do petli servermain, zeby wiedziec jak dlugo podtrzymywac
-        return !gameOver;
+    public boolean isRunning(){ // do petli servermain, zeby wiedziec jak dlugo podtrzymywac
+        return !core.isOver();
     }
 
     /**
@@ -91,7 +282,7 @@ public class GameSession
      *
      * @param h client handler
      */
-    public synchronized void register(ClientHandler h)
+    public void register(ClientHandler h)
     {
         if (observers.size() >= 2)
         {
@@ -104,96 +295,210 @@ public class GameSession
     /**
      * Starts the game if two players are registered.
      */
-    public synchronized void startGame()
+    public void startGame()
     {
-        if (started) return;
+        if (core.isStarted()) return;
         if (observers.size() != 2)
         {
             System.out.println("Need exactly 2 players to start game");
             return;
         }
-        started = true;
-        gameOver = false;
-        currentPlayer = 1;
-        consecutivePasses = 0;
-        previousBoard = null;
+        core.start(); // START, TOKEN, BOARD i tura ida przez Output
+        GameEvents.state(id, "STARTED", 0);
+    }
 
-        for (ClientHandler h : observers) h.sendLine("START " + h.getPlayerId());
-        broadcastBoard();
-        notifyTurn();
+    /**
+     * Sends everything queued for the clients during the current command.
+     * Called once per command, so each client gets one socket write.
+     */
+    public void flushObservers()
+    {
+        for (int i = 0; i < observers.size(); i++) observers.get(i).flush();
     }
 
-    /** Notifies clients whose turn it is. */
-    private synchronized void notifyTurn()
+    /**
+     * Returns the Move object reused for parsing MOVE commands.
+     * Only for the game's own thread; applyMove does not keep it.
+     *
+     * @return reusable move
+     */
+    Move reusableMove()
+    {
+        return moveBuffer;
+    }
+
+    /**
+     * Clears the reusable line buffer and starts a line with the given text.
+     *
+     * @param start beginning of the line
+     * @return line buffer
+     */
+    private StringBuilder line(String start)
+    {
+        lineBuffer.setLength(0);
+        return lineBuffer.append(start);
+    }
+
+    /**
+     * Encodes a line once and sends it to all clients.
+     *
+     * @param line line to send
+     */
+    private void broadcast(CharSequence line)
+    {
+        broadcast(Frame.of(line));
+    }
+
+    /**
+     * Sends an encoded line to all clients (indexed loop, no iterator allocation).
+     *
+     * @param frame encoded line
+     */
+    private void broadcast(Frame frame)
     {
-        for (ClientHandler h : observers)
+        for (int i = 0; i < observers.size(); i++) observers.get(i).sendFrame(frame);
+        GameEvents.broadcast(id, frame, observers.size());
+    }
+
+    /**
+     * Generates a random, unguessable resume token prefixed with the game id.
+     *
+     * @return token "id-hex"
+     */
+    private String newToken()
+    {
+        byte[] bytes = new byte[16];
+        tokenRandom.nextBytes(bytes);
+        return id + "-" + HexFormat.of().formatHex(bytes);
+    }
+
+    /**
+     * Extracts the game id from a resume token.
+     *
+     * @param token resume token
+     * @return game id, or -1 if the token is malformed
+     */
+    static int sessionIdOf(String token)
+    {
+        int dash = token.indexOf('-');
+        try
+        {
+            return dash > 0 ? Integer.parseInt(token.substring(0, dash)) : -1;
+        } catch (NumberFormatException e)
         {
-            if (h.getPlayerId() == currentPlayer) h.sendLine("YOUR_TURN"); //wysylamy do klienta ze jego ruch
-            else h.sendLine("OPPONENT_TURN"); //albo ze kolej przeciwnika
+            return -1;
         }
     }
 
+    /** Marks the game as over, archives it and notifies the lobby. */
+    private void finishGame()
+    {
+        GameEvents.state(id, "OVER", history.size());
+        if (core.isStarted()) GameArchive.append(history);
+        if (onFinished != null) onFinished.accept(this);
+    }
+
+    /** Notifies clients whose turn it is. */
+    private void notifyTurn()
+    {
+        for (int i = 0; i < observers.size(); i++) notifyTurn(observers.get(i));
+    }
+
+    /**
+     * Tells a single client whether it is their turn.
+     *
+     * @param h client handler
+     */
+    private void notifyTurn(ClientHandler h)
+    {
+        if (h.getPlayerId() == core.currentPlayer()) h.sendFrame(YOUR_TURN); //wysylamy do klienta ze jego ruch
+        else h.sendFrame(OPPONENT_TURN); //albo ze kolej przeciwnika
+    }
+
     /** Broadcasts the current board state to all clients. */
-    public synchronized void broadcastBoard()
+    public void broadcastBoard()
+    {
+        boardFrame = encodeBoard();
+        broadcast(boardFrame);
+    }
+
+    /**
+     * Returns the BOARD frame of the current position, from the cache if possible.
+     *
+     * @return encoded BOARD line
+     */
+    private Frame encodeBoard()
     {
-        String json = JsonUtil.boardToJson(board);
-        for (ClientHandler h : observers) h.sendLine("BOARD " + json); //wysylamy klientowi board w json
+        long hash = PersistentBoard.hashOf(board);
+        byte[] position = BoardFrameCache.pack(board);
+        Frame f = BoardFrameCache.get(board.size, hash, position); // ta sama pozycja mogla juz byc wyslana (pusta plansza, pas, inna gra)
+        if (f == null) f = BoardFrameCache.put(board.size, hash, position, Frame.of(JsonUtil.appendBoard(line("BOARD "), board))); //board w json, kodowany raz dla wszystkich
+        return f;
     }
 
     /** Broadcasts an informational message to all clients. */
-    private synchronized void broadcastInfo(String msg)
+    private void broadcastInfo(String msg)
     {
-        for (ClientHandler h : observers) h.sendLine("INFO " + msg);
+        broadcast(line("INFO ").append(msg));
     }
 
     // APPLY MOVE
     /**
-     * Applies a move made by a client.
+     * Applies a move made by a client, then plays the opponent's conditional
+     * reply to it, if there is one.
      *
      * @param m move
      * @param ch client handler
      */
-    public synchronized void applyMove(Move m, ClientHandler ch)
+    public void applyMove(Move m, ClientHandler ch)
     {
-        if (stoppedForAgreement) {ch.sendLine("ERROR Game stopped. Use RESUME to continue game or FINISH if you have agreed.");return;}
-        if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
-        if (m.player != ch.getPlayerId()) { ch.sendLine("ERROR Player id mismatch"); return; }
-        if (m.player != currentPlayer) { ch.sendLine("ERROR Not your turn"); return; }
-
-        // backup before move (for Ko detection and possible rollback)
-        int[][] before = board.getGridCopy();
-
-        int result = board.applyMoveAndCapture(m.row, m.col, m.player);
-
-        if (result == -1) { ch.sendLine("ERROR Field occupied or out of bounds"); return; }
-        if (result == -2) { ch.sendLine("ERROR Suicide move not allowed"); return; }
+        GameEvents.MoveApplied event = GameEvents.beginMove();
+        int result = tryMove(m, ch);
+        GameEvents.endMove(event, id, m, result);
+        if (result >= 0) playConditional(m.row * board.size + m.col);
+    }
 
-        // detect Ko: new board equal to previousBoard -> illegal
-        if (previousBoard != null && Board.gridsEqual(board.getGridCopy(), previousBoard))
+    /**
+     * Checks and plays a move; the clients hear about it from {@link Output}.
+     *
+     * @param m move
+     * @param ch client handler
+     * @return captured stones, or -1 occupied/out of bounds, -2 suicide, GameEvents.KO, GameEvents.REJECTED
+     */
+    private int tryMove(Move m, ClientHandler ch)
+    {
+        if (m.player != ch.getPlayerId() && core.isStarted() && !core.isStopped() && !core.isOver())
         {
-            // rollback
-            board.setGridFromCopy(before);
-            ch.sendLine("ERROR Ko rule: immediate recapture not allowed");
-            return;
+            ch.sendLine("ERROR Player id mismatch");
+            return GameEvents.REJECTED;
         }
+        int result = core.move(m.player, m.row, m.col);
+        if (result >= 0) return result;
+        ch.sendLine(error(result));
+        if (result == GameCore.KO) GameEvents.ko(id, m);
+        return result <= GameEvents.REJECTED ? GameEvents.REJECTED : result;
+    }
 
-        // move accepted: set previousBoard = before (position before this move)
-        previousBoard = before;
-
-        // reset consecutive passes
-        consecutivePasses = 0;
-
-        broadcastBoard();
-        if (result > 0) broadcastInfo("Player " + m.player + " captured " + result + " stone(s).");
-        wyniki[m.player-1]+=result; // update wyników i rozesłanie ich
-        for (ClientHandler h : observers)
+    /**
+     * Returns the error line for a refused command.
+     *
+     * @param code negative result of a GameCore command
+     * @return protocol line
+     */
+    private static String error(int code)
+    {
+        switch (code)
         {
-            h.sendLine("WYNIKI1 " + wyniki[0]);
-            h.sendLine("WYNIKI2 " + wyniki[1]);
+            case GameCore.OCCUPIED: return "ERROR Field occupied or out of bounds";
+            case GameCore.SUICIDE: return "ERROR Suicide move not allowed";
+            case GameCore.KO: return "ERROR Ko rule: immediate recapture not allowed";
+            case GameCore.STOPPED: return "ERROR Game stopped. Use RESUME to continue game or FINISH if you have agreed.";
+            case GameCore.OVER: return "ERROR Game already finished";
+            case GameCore.NOT_STARTED: return "ERROR Game not started yet";
+            case GameCore.NOT_YOUR_TURN: return "ERROR Not your turn";
+            case GameCore.NOT_STOPPED: return "ERROR Game is not stopped";
+            default: return "ERROR Command refused";
         }
-        // change turn
-        currentPlayer = (currentPlayer == 1 ? 2 : 1);
-        notifyTurn();
     }
 
     // PASS
@@ -202,32 +507,106 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerPassed(ClientHandler ch)
+    public void playerPassed(ClientHandler ch)
     {
-        if (stoppedForAgreement) {ch.sendLine("ERROR Game stopped. Use RESUME to continue game or FINISH if you have agreed.");return;}
-        if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
-        if (ch.getPlayerId() != currentPlayer) { ch.sendLine("ERROR Not your turn"); return; }
+        int result = core.pass(ch.getPlayerId());
+        if (result != GameCore.OK) { ch.sendLine(error(result)); return; }
+        if (!core.isStopped()) playConditional(PASS_KEY);
+    }
 
-        broadcastInfo("Player " + currentPlayer + " passed.");
+    // CONDITIONAL MOVES
+    /**
+     * Queues a reply that is played the instant the opponent plays the given move.
+     * Only allowed while the opponent is to move; all conditions of a player are
+     * dropped after the opponent's next move or pass, whether one matched or not.
+     *
+     * @param ch client queuing the reply
+     * @param ifMove opponent's move to react to, or null for the opponent's pass
+     * @param reply reply to play, or null to pass
+     */
+    public void addConditionalMove(ClientHandler ch, Move ifMove, Move reply)
+    {
+        if (core.isStopped()) { ch.sendLine(error(GameCore.STOPPED)); return; }
+        if (core.isOver()) { ch.sendLine(error(GameCore.OVER)); return; }
+        if (!core.isStarted()) { ch.sendLine(error(GameCore.NOT_STARTED)); return; }
+        if (ch.getPlayerId() == core.currentPlayer()) { ch.sendLine("ERROR It is your turn. Use MOVE or PASS"); return; }
+        if ((ifMove != null && !onBoard(ifMove)) || (reply != null && !onBoard(reply)))
+        {
+            ch.sendLine("ERROR Conditional move out of bounds");
+            return;
+        }
+        Map<Integer, Move> pending = conditionalMoves.get(ch.getPlayerId());
+        int key = ifMove == null ? PASS_KEY : ifMove.row * board.size + ifMove.col;
+        if (!pending.containsKey(key) && pending.size() >= MAX_CONDITIONAL)
+        {
+            ch.sendLine("ERROR Too many conditional moves (max " + MAX_CONDITIONAL + ")");
+            return;
+        }
+        pending.put(key, reply == null ? PASS_REPLY : new Move(reply.row, reply.col, ch.getPlayerId()));
+        ch.sendLine("INFO Conditional moves pending: " + pending.size());
+    }
 
-        // For Ko: treat pass as a move that sets previousBoard to current position
-        previousBoard = board.getGridCopy();
-        consecutivePasses++;
+    /**
+     * Drops all conditional replies of a player.
+     *
+     * @param ch client handler
+     */
+    public void clearConditionalMoves(ClientHandler ch)
+    {
+        conditionalMoves.get(ch.getPlayerId()).clear();
+        ch.sendLine("INFO Conditional moves cleared");
+    }
 
-        if (consecutivePasses >= 2) {
-            stoppedForAgreement = true;
-            //powiadamiamy klientow
-            for (ClientHandler h : observers)
-            {
-                h.sendLine("AGREEMENT_ON");
-            }
-            broadcastInfo("Both players passed. Game stopped for agreement.");
-            broadcastInfo("Players may now agree on dead stones and type FINISH or request RESUME.");
-            return; //nie musimy sie przejmowac ustawieniem currentPlayer
-        }
+    /**
+     * Plays the conditional reply of the player to move, if one matches the
+     * opponent's move that has just been accepted.
+     *
+     * @param opponentKey point of the opponent's move, or PASS_KEY
+     */
+    private void playConditional(int opponentKey)
+    {
+        int currentPlayer = core.currentPlayer();
+        Map<Integer, Move> pending = conditionalMoves.get(currentPlayer);
+        if (pending.isEmpty()) return;
+        Move reply = pending.get(opponentKey);
+        pending.clear(); // warunki dotycza tylko jednego ruchu przeciwnika
+        if (reply == null) return;
+        ClientHandler h = null;
+        for (ClientHandler o : observers) if (o.getPlayerId() == currentPlayer) h = o;
+        if (h == null) return; // gracz rozlaczony, nie gramy za niego
+        h.sendLine("INFO Playing your conditional reply");
+        if (reply == PASS_REPLY) playerPassed(h);
+        else applyMove(reply, h);
+    }
 
-        currentPlayer = (currentPlayer == 1 ? 2 : 1);
-        notifyTurn();
+    /**
+     * Checks whether a move's point is on the board.
+     *
+     * @param m move
+     * @return true if inside the board
+     */
+    private boolean onBoard(Move m)
+    {
+        return m.row >= 0 && m.row < board.size && m.col >= 0 && m.col < board.size;
+    }
+
+    // OWNERSHIP
+    /**
+     * Starts a background ownership estimate of the stopped position. The
+     * result is sent to the clients on the game's thread, unless the game has
+     * been resumed or finished in the meantime. If the estimator is busy
+     * (its queue is full), no estimate is sent for this stop.
+     */
+    private void estimateOwnership()
+    {
+        int seq = history.size();
+        OwnershipEstimator.estimateAsync(board.getGridCopy(), core.currentPlayer(), OwnershipEstimator.DEFAULT_BUDGET_MS)
+                .thenAccept(map -> execute(null, () -> {
+                    if (!core.isStopped() || core.isOver() || history.size() != seq) return; // pozycja juz nieaktualna
+                    ownershipFrame = Frame.of("OWNERSHIP " + JsonUtil.ownershipToJson(map));
+                    broadcast(ownershipFrame);
+                    broadcastInfo("Estimated " + map.deadCount() + " dead stone(s) from " + map.playouts + " playouts.");
+                }));
     }
 
     // RESUME
@@ -236,26 +615,10 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerResume(ClientHandler ch)
+    public void playerResume(ClientHandler ch)
     {
-        if (!stoppedForAgreement) {
-            ch.sendLine("ERROR Game is not stopped");
-            return;
-        }
-        //powiadamiamy klientow
-        stoppedForAgreement = false;
-        for (ClientHandler h : observers)
-        {
-            h.sendLine("AGREEMENT_OFF");
-        }
-        consecutivePasses = 0;
-        ONEvotedForFinish = false;
-        TWOvotedForFinish = false;
-        // przeciwnik gracza żądającego wznowienia zaczyna
-        currentPlayer = (ch.getPlayerId() == 1 ? 2 : 1);
-        broadcastBoard();
-        broadcastInfo("Game resumed. Player " + currentPlayer + " to move.");
-        notifyTurn();
+        int result = core.resume(ch.getPlayerId());
+        if (result != GameCore.OK) ch.sendLine(error(result));
     }
 
     // FINISH
@@ -264,14 +627,10 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerVotedFinish(ClientHandler ch)
+    public void playerVotedFinish(ClientHandler ch)
     {
-    if (ch.getPlayerId() == 1){ONEvotedForFinish = true; broadcastInfo("Player 1 voted FINISH");}
-    else if (ch.getPlayerId() == 2){TWOvotedForFinish = true; broadcastInfo("Player 2 voted FINISH");}
-    if(ONEvotedForFinish && TWOvotedForFinish) {
-        gameOver = true;
-        for (ClientHandler h : observers) h.sendLine("GAME_OVER You both agreed. Thanks for game:)"); //konczy gre
-    }
+        int result = core.voteFinish(ch.getPlayerId());
+        if (result != GameCore.OK) ch.sendLine(error(result));
     }
 
     // RESIGN
@@ -280,32 +639,338 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerResigned(ClientHandler ch)
+    public void playerResigned(ClientHandler ch)
     {
-        if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
-        int winner = (ch.getPlayerId() == 1 ? 2 : 1);
-        gameOver = true;
-        broadcastInfo("Player " + ch.getPlayerId() + " resigned. Player " + winner + " wins.");
-        for (ClientHandler h : observers) h.sendLine("GAME_OVER Player " + winner + " wins (resign)");
+        int result = core.resign(ch.getPlayerId());
+        if (result != GameCore.OK) ch.sendLine(error(result));
     }
 
     // client disconnected
     /**
      * Handles client disconnection.
+     * <p>
+     * During a running game the seat is kept for {@link #RECONNECT_GRACE_MS};
+     * the game ends only if nobody rejoins with the seat's token in time.
+     *
+     * @param ch client handler
+     */
+    public void clientDisconnected(ClientHandler ch)
+    {
+        if (!observers.remove(ch)) return; // np. polaczenie, ktore nie dolaczylo do gry
+        if (core.isOver()) return;
+        int seat = ch.getPlayerId();
+        if (!core.isStarted())
+        {
+            endAfterDisconnect();
+            return;
+        }
+        broadcastInfo("Player " + seat + " disconnected. Waiting " + (RECONNECT_GRACE_MS / 1000) + "s for reconnection.");
+        graceTimers[seat] = graceTimer.schedule(() -> execute(null, () -> seatExpired(seat)), RECONNECT_GRACE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ends the game if the given seat is still empty after the grace window.
+     *
+     * @param seat player id whose seat expired
+     */
+    private void seatExpired(int seat)
+    {
+        graceTimers[seat] = null;
+        if (core.isOver() || isSeated(seat)) return;
+        endAfterDisconnect();
+    }
+
+    /** Ends the game because a player is gone for good. */
+    private void endAfterDisconnect()
+    {
+        core.abandon(core.isStarted() && observers.size() == 1 ? observers.get(0).getPlayerId() : -1); // wygrywa ten, kto zostal
+    }
+
+    /**
+     * Checks whether a connected client currently holds the given seat.
+     *
+     * @param seat player id
+     * @return true if seat is taken
+     */
+    private boolean isSeated(int seat)
+    {
+        return seatedHandler(seat) != null;
+    }
+
+    /**
+     * Returns the connected client holding a seat.
+     *
+     * @param seat player id
+     * @return client handler, or null if the seat is empty
+     */
+    private ClientHandler seatedHandler(int seat)
+    {
+        for (ClientHandler h : observers) if (h.getPlayerId() == seat) return h;
+        return null;
+    }
+
+    // REJOIN
+    /**
+     * Reattaches a new connection to the seat identified by a resume token.
+     * The client receives only the moves after {@code lastSeq}, then the current
+     * board, scores and turn. If the seat still has a connection (a half-open
+     * one the server has not noticed yet), the token wins: the old handler is
+     * closed and removed, and the new one takes the seat.
+     *
+     * @param ch new client handler (not yet seated)
+     * @param token resume token received in TOKEN line
+     * @param lastSeq last move sequence number the client has seen
+     * @return true if the client was seated
+     */
+    public boolean rejoin(ClientHandler ch, String token, int lastSeq)
+    {
+        if (core.isOver() || !core.isStarted()) { ch.sendLine("REJOIN_FAILED Game is not running"); return false; }
+        int seat = 0;
+        for (int p = 1; p <= 2; p++) if (token.equals(resumeTokens[p])) seat = p;
+        if (seat == 0) { ch.sendLine("REJOIN_FAILED Invalid resume token"); return false; }
+        ClientHandler stale = seatedHandler(seat);
+        if (stale != null)
+        {
+            // token jest wazny, a stare polaczenie jeszcze wisi (zerwana siec, serwer nie zauwazyl): nowe je zastepuje
+            observers.remove(stale);
+            stale.close();
+        }
+
+        if (graceTimers[seat] != null)
+        {
+            graceTimers[seat].cancel(false);
+            graceTimers[seat] = null;
+        }
+        ch.setPlayerId(seat);
+        observers.add(ch);
+
+        ch.sendLine("REJOINED " + seat);
+        for (int seq = Math.max(lastSeq, 0) + 1; seq <= history.size(); seq++)
+        {
+            ch.sendLine("CATCHUP " + seq + " " + MoveHistory.describe(history.get(seq))); // tylko brakujace ruchy
+        }
+        if (boardFrame == null) boardFrame = encodeBoard(); // gra odtworzona ze zrzutu: kodujemy dopiero przy pierwszym powrocie
+        ch.sendFrame(boardFrame); // ta sama pozycja co u przeciwnika, juz zakodowana
+        ch.sendLine("WYNIKI1 " + wyniki[0]);
+        ch.sendLine("WYNIKI2 " + wyniki[1]);
+        if (core.isStopped())
+        {
+            ch.sendFrame(AGREEMENT_ON);
+            if (ownershipFrame != null) ch.sendFrame(ownershipFrame);
+        }
+        else notifyTurn(ch);
+
+        Frame reconnected = Frame.of(line("INFO Player ").append(seat).append(" reconnected."));
+        for (int i = 0; i < observers.size(); i++)
+        {
+            if (observers.get(i) != ch) observers.get(i).sendFrame(reconnected);
+        }
+        return true;
+    }
+
+    // SNAPSHOT
+    /**
+     * Encodes the state of a running game for a snapshot (see GameSnapshot).
+     * Call on the game's thread. Conditional replies and connections are not
+     * saved; players come back with REJOIN.
+     * <pre>
+     * int id, game state (GameCore#writeTo), resume tokens 1 and 2, names 1 and 2
+     * </pre>
+     *
+     * @return encoded record, or null if the game has not started or is over
+     */
+    byte[] snapshot()
+    {
+        if (!core.isStarted() || core.isOver()) return null;
+        int length = 4 + core.snapshotBytes();
+        for (int p = 1; p <= 2; p++) length += GameSnapshot.stringBytes(resumeTokens[p]) + GameSnapshot.stringBytes(playerNames[p]);
+
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putInt(id);
+        core.writeTo(buf);
+        GameSnapshot.putString(buf, resumeTokens[1]);
+        GameSnapshot.putString(buf, resumeTokens[2]);
+        GameSnapshot.putString(buf, playerNames[1]);
+        GameSnapshot.putString(buf, playerNames[2]);
+        return buf.array();
+    }
+
+    /**
+     * Restores a running game from a snapshot record. Both seats are empty;
+     * call {@link #restored()} on the game's thread once it is registered.
+     *
+     * @param buf record written by {@link #snapshot()}
+     * @return restored game
+     * @throws IllegalArgumentException if the record is damaged (hash mismatch, bad values)
+     * @throws java.nio.BufferUnderflowException if the record is truncated
+     */
+    static GameSession fromSnapshot(ByteBuffer buf)
+    {
+        int id = buf.getInt();
+        GameCore core;
+        try
+        {
+            core = GameCore.readFrom(buf);
+        } catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Game " + id + ": " + e.getMessage(), e);
+        }
+        String token1 = GameSnapshot.getString(buf), token2 = GameSnapshot.getString(buf);
+        String name1 = GameSnapshot.getString(buf), name2 = GameSnapshot.getString(buf);
+
+        GameSession s = new GameSession(id, core);
+        s.resumeTokens[1] = token1;
+        s.resumeTokens[2] = token2;
+        s.playerNames[1] = name1;
+        s.playerNames[2] = name2;
+        return s;
+    }
+
+    /**
+     * Called on the game's thread after a restored game is registered: both
+     * players get the usual reconnection window, and a stopped game gets its
+     * ownership estimate again.
+     */
+    void restored()
+    {
+        for (int seat = 1; seat <= 2; seat++)
+        {
+            int p = seat;
+            graceTimers[p] = graceTimer.schedule(() -> execute(null, () -> seatExpired(p)), RECONNECT_GRACE_MS, TimeUnit.MILLISECONDS);
+        }
+        if (core.isStopped()) estimateOwnership();
+        GameEvents.state(id, "RESTORED", history.size());
+    }
+
+    // HISTORY / GOTO
+    /**
+     * Sends the number of moves played so far.
+     *
+     * @param ch client handler
+     */
+    public void sendHistory(ClientHandler ch)
+    {
+        ch.sendLine("HISTORY " + history.size());
+    }
+
+    /**
+     * Sends the position after move {@code n} (rebuilt from the nearest keyframe).
      *
      * @param ch client handler
+     * @param n move number (0 = empty board)
      */
-    public synchronized void clientDisconnected(ClientHandler ch)
+    public void sendPosition(ClientHandler ch, int n)
     {
-        observers.remove(ch);
-        if (!gameOver)
+        if (n < 0 || n > history.size())
         {
-            gameOver = true;
-            for (ClientHandler o : observers)
+            ch.sendLine("ERROR No such move: " + n + " (0.." + history.size() + ")");
+            return;
+        }
+        ch.sendLine("POSITION " + n + " " + JsonUtil.boardToJson(history.positionAt(n)));
+    }
+
+    // OUTPUT
+    /**
+     * Turns the core's events into protocol lines, in the order the clients
+     * have always received them.
+     */
+    private final class Output implements GameCore.Listener
+    {
+        /** Sends START and TOKEN to each player, then the empty board. */
+        @Override
+        public void started()
+        {
+            for (ClientHandler h : observers)
+            {
+                String token = newToken();
+                resumeTokens[h.getPlayerId()] = token;
+                playerNames[h.getPlayerId()] = h.getName();
+                h.sendLine("START " + h.getPlayerId());
+                h.sendLine("TOKEN " + token); // do ponownego polaczenia (REJOIN)
+            }
+            broadcastBoard();
+        }
+
+        /** Sends SEQ, the new board, captures and scores. */
+        @Override
+        public void moveAccepted(int player, int row, int col, int captured)
+        {
+            broadcast(line("SEQ ").append(history.size()));
+            broadcastBoard();
+            if (captured > 0) broadcast(line("INFO Player ").append(player).append(" captured ").append(captured).append(" stone(s)."));
+            broadcast(line("WYNIKI1 ").append(wyniki[0]));
+            broadcast(line("WYNIKI2 ").append(wyniki[1]));
+        }
+
+        /** Sends the pass and its SEQ. */
+        @Override
+        public void passed(int player)
+        {
+            broadcast(line("INFO Player ").append(player).append(" passed."));
+            broadcast(line("SEQ ").append(history.size()));
+        }
+
+        /** Sends YOUR_TURN / OPPONENT_TURN. */
+        @Override
+        public void turn(int player)
+        {
+            notifyTurn();
+        }
+
+        /** Drops conditional replies, announces the agreement phase and starts the ownership estimate. */
+        @Override
+        public void agreementStarted()
+        {
+            GameEvents.state(id, "AGREEMENT", history.size());
+            for (Map<Integer, Move> pending : conditionalMoves) pending.clear();
+            //powiadamiamy klientow
+            broadcast(AGREEMENT_ON);
+            broadcastInfo("Both players passed. Game stopped for agreement.");
+            broadcastInfo("Players may now agree on dead stones and type FINISH or request RESUME.");
+            estimateOwnership();
+        }
+
+        /** Ends the agreement phase and resends the board. */
+        @Override
+        public void resumed(int player)
+        {
+            GameEvents.state(id, "RESUMED", history.size());
+            broadcast(AGREEMENT_OFF);
+            for (Map<Integer, Move> pending : conditionalMoves) pending.clear();
+            ownershipFrame = null;
+            broadcastBoard();
+            broadcast(line("INFO Game resumed. Player ").append(core.currentPlayer()).append(" to move."));
+        }
+
+        /** Announces a FINISH vote. */
+        @Override
+        public void finishVoted(int player)
+        {
+            broadcast(line("INFO Player ").append(player).append(" voted FINISH"));
+        }
+
+        /** Archives the game, notifies the lobby and sends GAME_OVER. */
+        @Override
+        public void gameOver(int winner, int reason)
+        {
+            finishGame();
+            if (reason == GameCore.AGREED)
+            {
+                broadcast("GAME_OVER You both agreed. Thanks for game:)"); //konczy gre
+            }
+            else if (reason == GameCore.RESIGNED)
+            {
+                broadcastInfo("Player " + (winner == 1 ? 2 : 1) + " resigned. Player " + winner + " wins.");
+                broadcast(line("GAME_OVER Player ").append(winner).append(" wins (resign)"));
+            }
+            else
             {
-                o.sendLine("ERROR Opponent disconnected. Game ended.");
-                o.sendLine("GAME_OVER Opponent disconnected");
+                for (ClientHandler o : observers)
+                {
+                    o.sendLine("ERROR Opponent disconnected. Game ended.");
+                    o.sendLine("GAME_OVER Opponent disconnected");
+                }
             }
         }
     }
-}
\ No newline at end of file
+}
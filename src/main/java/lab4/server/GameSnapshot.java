@@ -0,0 +1,230 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Binarny zrzut wszystkich trwajacych gier (szybki restart serwera).
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * int  magic "L4SN", short version, int games, long written (epoch ms)
+ * games * (int offset, int length)   record table
+ * records                             one per game, see GameSession#snapshot
+ * </pre>
+ * Boards are packed at 2 bits per point ({@link #putGrid}). The file is written
+ * through a memory-mapped buffer into a temporary file that then replaces the
+ * old snapshot atomically, so a crash while writing leaves the previous one.
+ * Loading maps the file read-only and decodes the records in parallel (each
+ * record is an independent slice of the mapping); no game log is replayed.
+ */
+final class GameSnapshot {
+    /** File magic, "L4SN" */
+    static final int MAGIC = 0x4C34534E;
+    /** Format version (2: game state written by GameCore, before the tokens) */
+    static final short VERSION = 2;
+    /** Header size: magic, version, game count, time */
+    private static final int HEADER_BYTES = 4 + 2 + 4 + 8;
+
+    private GameSnapshot() {}
+
+    /**
+     * Writes encoded game records to a snapshot file.
+     *
+     * @param file snapshot file (replaced atomically)
+     * @param records encoded records from {@link GameSession#snapshot()}
+     * @param now time of the snapshot (epoch ms)
+     * @throws IOException on write errors
+     */
+    static void write(Path file, List<byte[]> records, long now) throws IOException {
+        long total = HEADER_BYTES + 8L * records.size();
+        for (byte[] r : records) total += r.length;
+        if (total > Integer.MAX_VALUE) throw new IOException("Snapshot too large: " + total + " bytes");
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, total);
+            buf.putInt(MAGIC).putShort(VERSION).putInt(records.size()).putLong(now);
+            int offset = HEADER_BYTES + 8 * records.size();
+            for (byte[] r : records) {
+                buf.putInt(offset).putInt(r.length);
+                offset += r.length;
+            }
+            for (byte[] r : records) buf.put(r);
+            buf.force(); // na dysku, zanim podmienimy stary zrzut
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot file and restores its games in parallel. Records that
+     * fail to decode or whose board does not match its hash are skipped.
+     *
+     * @param file snapshot file
+     * @return restored games (not yet registered anywhere)
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static List<GameSession> read(Path file) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // mapowanie zostaje wazne po zamknieciu kanalu
+        }
+        if (buf.limit() < HEADER_BYTES || buf.getInt(0) != MAGIC) throw new IOException("Not a game snapshot: " + file);
+        if (buf.getShort(4) != VERSION) throw new IOException("Unsupported snapshot version " + buf.getShort(4));
+        int games = buf.getInt(6);
+        if (games < 0 || HEADER_BYTES + 8L * games > buf.limit()) throw new IOException("Corrupt snapshot header");
+        return IntStream.range(0, games).parallel()
+                .mapToObj(i -> decode(buf, HEADER_BYTES + 8 * i))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Decodes one record of the table.
+     *
+     * @param buf whole file (only absolute reads, shared by all threads)
+     * @param entry position of the record's table entry
+     * @return restored game, or null if the record is damaged
+     */
+    private static GameSession decode(ByteBuffer buf, int entry) {
+        int offset = buf.getInt(entry), length = buf.getInt(entry + 4);
+        try {
+            return GameSession.fromSnapshot(buf.slice(offset, length)); // wlasna pozycja na kazdy watek
+        } catch (RuntimeException e) {
+            System.err.println("Skipping damaged game snapshot at " + offset + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the bytes of a board packed at 2 bits per point.
+     *
+     * @param size board size
+     * @return packed length
+     */
+    static int gridBytes(int size) {
+        return (size * size + 3) / 4;
+    }
+
+    /**
+     * Packs a board, four points per byte, row by row.
+     *
+     * @param buf destination
+     * @param grid stones (0, 1, 2)
+     */
+    static void putGrid(ByteBuffer buf, int[][] grid) {
+        int n = grid.length, bits = 0, filled = 0;
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                bits |= grid[r][c] << (filled * 2);
+                if (++filled == 4) {
+                    buf.put((byte) bits);
+                    bits = 0;
+                    filled = 0;
+                }
+            }
+        }
+        if (filled > 0) buf.put((byte) bits);
+    }
+
+    /**
+     * Unpacks a board written by {@link #putGrid}.
+     *
+     * @param buf source
+     * @param grid destination of the right size
+     */
+    static void getGrid(ByteBuffer buf, int[][] grid) {
+        int n = grid.length, bits = 0, left = 0;
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                if (left == 0) {
+                    bits = buf.get() & 0xFF;
+                    left = 4;
+                }
+                int v = bits & 3;
+                if (v == 3) throw new IllegalArgumentException("Bad stone value in snapshot");
+                grid[r][c] = v;
+                bits >>>= 2;
+                left--;
+            }
+        }
+    }
+
+    /**
+     * Packs a board stored one byte per point (MoveHistory keyframes).
+     *
+     * @param buf destination
+     * @param points stones (0, 1, 2), row by row
+     */
+    static void putPoints(ByteBuffer buf, byte[] points) {
+        for (int i = 0; i < points.length; i += 4) {
+            int bits = 0;
+            for (int k = 0; k < 4 && i + k < points.length; k++) bits |= points[i + k] << (k * 2);
+            buf.put((byte) bits);
+        }
+    }
+
+    /**
+     * Unpacks a board written by {@link #putPoints}.
+     *
+     * @param buf source
+     * @param points destination, row by row
+     */
+    static void getPoints(ByteBuffer buf, byte[] points) {
+        for (int i = 0; i < points.length; i += 4) {
+            int bits = buf.get() & 0xFF;
+            for (int k = 0; k < 4 && i + k < points.length; k++) points[i + k] = (byte) ((bits >>> (k * 2)) & 3);
+        }
+    }
+
+    /**
+     * Returns the encoded length of a string.
+     *
+     * @param s string or null
+     * @return bytes written by {@link #putString}
+     */
+    static int stringBytes(String s) {
+        return 2 + (s == null ? 0 : s.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    /**
+     * Writes a short string (length-prefixed UTF-8, -1 for null).
+     *
+     * @param buf destination
+     * @param s string or null
+     */
+    static void putString(ByteBuffer buf, String s) {
+        if (s == null) {
+            buf.putShort((short) -1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        buf.putShort((short) b.length).put(b);
+    }
+
+    /**
+     * Reads a string written by {@link #putString}.
+     *
+     * @param buf source
+     * @return string or null
+     */
+    static String getString(ByteBuffer buf) {
+        int n = buf.getShort();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
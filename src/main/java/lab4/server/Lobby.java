@@ -0,0 +1,534 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Lobby: wszystkie gry na serwerze i komendy przed dolaczeniem do gry.
+ * <p>
+ * Commands handled here (from ClientHandler, before the client is in a game):
+ * <ul>
+ *   <li>NAME nick [secret] – play as a named (rated) player</li>
+ *   <li>RATING [nick] – show a rating</li>
+ *   <li>LIST – open games waiting for an opponent</li>
+ *   <li>CREATE [size] – open a new game and wait</li>
+ *   <li>JOIN id – join an open game</li>
+ *   <li>QUEUE [size] – wait for an automatically matched opponent</li>
+ *   <li>REJOIN token lastSeq – take back a seat after a disconnect</li>
+ *   <li>ANALYZE [size] / ANALYZE GAME id – explore variations of an empty board or
+ *       of a running game (see AnalysisSession)</li>
+ * </ul>
+ * Every matched pair gets a fresh GameSession. Results of games between two
+ * named players go to the RatingService. A name is used by at most one
+ * connected client, and belongs to whoever claimed it first: the first NAME
+ * issues a secret, and later connections must give it ({@code NAME nick secret}). Running games can be saved to and
+ * restored from a snapshot file (GameSnapshot) for a warm restart.
+ * <p>
+ * Lobby commands run on the client's connection thread; everything that touches
+ * a game (seating, start, rejoin) is handed to the game's shard with
+ * {@link GameSession#execute}.
+ */
+public class Lobby {
+    /** Smallest board size that can be requested */
+    static final int MIN_SIZE = 5;
+    /** Largest board size that can be requested */
+    static final int MAX_SIZE = 25;
+    /** Longest wait for a game's shard to answer a lobby request (snapshot, analysis) */
+    static final long SHARD_REPLY_SECONDS = 5;
+    /** Placeholder for a shard that did not answer in time (compared by identity) */
+    private static final byte[] TIMED_OUT = new byte[0];
+    /** Allowed player names */
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_]{1,16}");
+    /** Allowed name secrets */
+    private static final Pattern SECRET_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /** Board size used when a command does not give one */
+    private final int defaultSize;
+    /** Running games by id */
+    private final Map<Integer, GameSession> sessions = new ConcurrentHashMap<>();
+    /** Games created with CREATE and still waiting for a second player, by id (sorted for LIST) */
+    private final Map<Integer, GameSession> open = new ConcurrentSkipListMap<>();
+    /** Records of the last written snapshot by game id (guarded by writeSnapshot's lock) */
+    private Map<Integer, byte[]> lastRecords = Map.of();
+    /** Names of connected clients */
+    private final Map<String, ClientHandler> names = new ConcurrentHashMap<>();
+    /** Automatic matchmaking queue */
+    private final Matchmaker matchmaker = new Matchmaker();
+    /** Game id generator */
+    private final AtomicInteger nextId = new AtomicInteger();
+    /** Player ratings, updated when games finish */
+    private final RatingService ratings;
+    /** Worker shards running the games */
+    private final SessionScheduler scheduler;
+
+    /**
+     * Creates an empty lobby.
+     *
+     * @param defaultSize board size used when none is requested
+     * @param ratings player ratings
+     * @param scheduler worker shards for games
+     */
+    public Lobby(int defaultSize, RatingService ratings, SessionScheduler scheduler) {
+        this.defaultSize = defaultSize;
+        this.ratings = ratings;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the number of games currently on the server.
+     *
+     * @return running and open games
+     */
+    public int gameCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Handles a lobby command of a client that is not in a game yet.
+     *
+     * @param ch client
+     * @param cmd command (upper case)
+     * @param arg command argument (may be empty)
+     */
+    public void handle(ClientHandler ch, String cmd, String arg) {
+        switch (cmd) {
+            case "NAME":
+                name(ch, arg);
+                break;
+            case "RATING":
+                rating(ch, arg.isEmpty() ? ch.getName() : arg);
+                break;
+            case "LIST":
+                list(ch);
+                break;
+            case "CREATE":
+                if (leaveQueue(ch)) create(ch, parseSize(ch, arg));
+                break;
+            case "JOIN":
+                if (leaveQueue(ch)) join(ch, arg);
+                break;
+            case "QUEUE":
+                if (leaveQueue(ch)) queue(ch, parseSize(ch, arg));
+                break;
+            case "REJOIN":
+                if (leaveQueue(ch)) rejoin(ch, arg);
+                break;
+            case "ANALYZE":
+                if (leaveQueue(ch)) analyze(ch, arg);
+                break;
+            default:
+                ch.sendLine("ERROR Not in a game. Use NAME nick, RATING [nick], LIST, CREATE [size], JOIN id, QUEUE [size], REJOIN token lastSeq or ANALYZE [size]");
+        }
+    }
+
+    /**
+     * Parses an optional board size argument.
+     *
+     * @param ch client (gets an error on bad input)
+     * @param arg argument
+     * @return board size, or -1 if invalid
+     */
+    private int parseSize(ClientHandler ch, String arg) {
+        if (arg.isEmpty()) return defaultSize;
+        try {
+            int size = Integer.parseInt(arg);
+            if (size >= MIN_SIZE && size <= MAX_SIZE) return size;
+        } catch (NumberFormatException ignored) {}
+        ch.sendLine("ERROR Board size must be a number " + MIN_SIZE + ".." + MAX_SIZE);
+        return -1;
+    }
+
+    /**
+     * Sets the client's name. The name must not be used by another connected
+     * client; a name claimed before needs its secret, a new one is claimed and
+     * its secret sent to the client. A client waiting in QUEUE is queued again
+     * with the rating that belongs to the new name.
+     *
+     * @param ch client
+     * @param arg "nick [secret]"
+     */
+    private void name(ClientHandler ch, String arg) {
+        String[] a = arg.split("\\s+", 2);
+        String nick = a[0], secret = a.length > 1 ? a[1] : null;
+        if (!NAME_PATTERN.matcher(nick).matches()) {
+            ch.sendLine("ERROR Name must be 1-16 letters, digits or _");
+            return;
+        }
+        if (secret != null && !SECRET_PATTERN.matcher(secret).matches()) {
+            ch.sendLine("ERROR Secret must be 1-64 letters, digits, _ or -");
+            return;
+        }
+        Matchmaker.Ticket t = ch.getTicket();
+        if (!leaveQueue(ch)) return;
+        String owned = takeName(ch, nick, secret);
+        if (owned != null) {
+            String old = ch.getName();
+            if (old != null && !old.equals(nick)) names.remove(old, ch);
+            ch.setName(nick);
+            if (secret == null) ch.sendLine("INFO Name " + nick + " is yours. Secret: " + owned + " (next time use NAME " + nick + " " + owned + ")");
+            rating(ch, nick);
+        }
+        if (t != null) queue(ch, t.boardSize); // z powrotem do kolejki, takze po odmowie
+    }
+
+    /**
+     * Reserves a name for a client and claims it in the RatingService.
+     *
+     * @param ch client (gets an error if the name is refused)
+     * @param nick name
+     * @param secret secret given by the client, or null
+     * @return the name's secret, or null if the name is in use or belongs to someone else
+     */
+    private String takeName(ClientHandler ch, String nick, String secret) {
+        ClientHandler holder = names.putIfAbsent(nick, ch);
+        if (holder != null && holder != ch) {
+            ch.sendLine("ERROR Name " + nick + " is in use");
+            return null;
+        }
+        String owned = ratings.claim(nick, secret);
+        if (owned == null) {
+            if (holder == null) names.remove(nick, ch);
+            ch.sendLine("ERROR Name " + nick + " is registered. Use NAME " + nick + " secret");
+        }
+        return owned;
+    }
+
+    /**
+     * Sends a player's rating.
+     *
+     * @param ch client
+     * @param name player name (null = the client is anonymous)
+     */
+    private void rating(ClientHandler ch, String name) {
+        if (name == null) {
+            ch.sendLine("INFO Anonymous players are not rated. Use NAME nick.");
+            return;
+        }
+        ch.sendLine("INFO Rating of " + name + ": " + ratings.rating(name) + " (" + ratings.games(name) + " games)");
+    }
+
+    /**
+     * Sends the list of open games.
+     *
+     * @param ch client
+     */
+    private void list(ClientHandler ch) {
+        if (open.isEmpty()) {
+            ch.sendLine("INFO No open games. Use CREATE [size] or QUEUE [size].");
+            return;
+        }
+        StringBuilder sb = new StringBuilder("INFO Open games:");
+        for (GameSession s : open.values()) {
+            sb.append(' ').append(s.getId()).append(" (").append(s.getBoardSize()).append('x').append(s.getBoardSize()).append(')');
+        }
+        ch.sendLine(sb.toString());
+    }
+
+    /**
+     * Opens a new game with the client as player 1.
+     *
+     * @param ch client
+     * @param size board size (-1 = invalid, already reported)
+     */
+    private void create(ClientHandler ch, int size) {
+        if (size < 0) return;
+        GameSession s = newSession(size);
+        seat(ch, s, 1);
+        open.put(s.getId(), s);
+        ch.sendLine("INFO Created game " + s.getId() + " (" + size + "x" + size + "). Waiting for opponent...");
+    }
+
+    /**
+     * Joins an open game as player 2 and starts it.
+     *
+     * @param ch client
+     * @param arg game id
+     */
+    private void join(ClientHandler ch, String arg) {
+        int id;
+        try {
+            id = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            ch.sendLine("ERROR JOIN requires a game id");
+            return;
+        }
+        GameSession s = open.remove(id); // tylko jeden klient moze "wyjac" gre z listy otwartych
+        if (s == null) {
+            ch.sendLine("ERROR No open game " + id);
+            return;
+        }
+        seat(ch, s, 2);
+        s.execute(null, s::startGame);
+    }
+
+    /**
+     * Puts the client into the matchmaking queue, or starts a game at once
+     * if an opponent within the rating band is waiting.
+     *
+     * @param ch client
+     * @param size board size (-1 = invalid, already reported)
+     */
+    private void queue(ClientHandler ch, int size) {
+        if (size < 0) return;
+        int rating = ch.getName() == null ? RatingService.INITIAL_RATING : ratings.rating(ch.getName());
+        Matchmaker.Ticket t = matchmaker.ticket(ch, rating, size);
+        ch.setTicket(t);
+        Matchmaker.Ticket opponent = matchmaker.enqueue(t);
+        if (opponent == null) {
+            ch.sendLine("INFO Queued for " + size + "x" + size + ". Waiting for opponent...");
+            return;
+        }
+        ch.setTicket(null);
+        opponent.handler.setTicket(null);
+        GameSession s = newSession(size);
+        seat(opponent.handler, s, 1); // dluzej czekajacy gra czarnymi
+        seat(ch, s, 2);
+        s.execute(null, s::startGame);
+    }
+
+    /**
+     * Gives a reconnecting client its old seat (token starts with the game id).
+     *
+     * @param ch client
+     * @param arg "token lastSeq"
+     */
+    private void rejoin(ClientHandler ch, String arg) {
+        String[] a = arg.split("\\s+");
+        int lastSeq;
+        try {
+            lastSeq = a.length > 1 ? Integer.parseInt(a[1]) : 0;
+        } catch (NumberFormatException e) {
+            ch.sendLine("REJOIN_FAILED Bad sequence number");
+            return;
+        }
+        GameSession s = sessions.get(GameSession.sessionIdOf(a[0]));
+        if (s == null) {
+            ch.sendLine("REJOIN_FAILED Game is not running");
+            return;
+        }
+        // czekamy na wynik, zeby nastepna komenda klienta trafila juz do gry
+        CompletableFuture<Boolean> seated = new CompletableFuture<>();
+        AtomicBoolean decided = new AtomicBoolean(); // shard zaczal rejoin albo lobby juz odpowiedzialo
+        ClientHandler.Request request = ClientHandler.currentRequest(); // REJOIN_FAILED z shardu dostaje #id tego zadania
+        s.execute(ch, () -> ClientHandler.runAs(request, () -> {
+            if (!decided.compareAndSet(false, true)) return; // za pozno: klient dostal juz REJOIN_FAILED
+            try {
+                seated.complete(s.rejoin(ch, a[0], lastSeq));
+            } finally {
+                seated.complete(false); // gdyby rejoin rzucil wyjatek
+            }
+        }));
+        seated.copy().completeOnTimeout(false, SHARD_REPLY_SECONDS, TimeUnit.SECONDS).join(); // zablokowany shard nie wiesza watku klienta
+        if (decided.compareAndSet(false, true)) {
+            ch.sendLine("REJOIN_FAILED Game " + s.getId() + " is not responding, try again later");
+            return;
+        }
+        if (seated.join()) ch.setSession(s); // shard juz zaczal: konczy rejoin za chwile
+    }
+
+    /**
+     * Starts an analysis: of an empty board ("[size]") or of the moves played so
+     * far in a running game ("GAME id").
+     *
+     * @param ch client
+     * @param arg board size, or "GAME id"
+     */
+    private void analyze(ClientHandler ch, String arg) {
+        AnalysisSession a;
+        String[] p = arg.split("\\s+");
+        if (p[0].equalsIgnoreCase("GAME")) {
+            GameSession found;
+            try {
+                found = p.length > 1 ? sessions.get(Integer.parseInt(p[1])) : null;
+            } catch (NumberFormatException e) {
+                found = null;
+            }
+            GameSession s = found;
+            if (s == null) {
+                ch.sendLine("ERROR ANALYZE GAME requires the id of a running game");
+                return;
+            }
+            // ruchy czytamy na watku gry, tak jak rejoin
+            CompletableFuture<int[]> moves = new CompletableFuture<>();
+            s.execute(ch, () -> {
+                try {
+                    moves.complete(s.packedMoves());
+                } finally {
+                    moves.complete(new int[0]);
+                }
+            });
+            int[] played = moves.completeOnTimeout(null, SHARD_REPLY_SECONDS, TimeUnit.SECONDS).join(); // zablokowany shard nie wiesza watku klienta
+            if (played == null) {
+                ch.sendLine("ERROR Game " + s.getId() + " is not responding, try again later");
+                return;
+            }
+            a = AnalysisSession.ofGame(s.getBoardSize(), played);
+        } else {
+            int size = parseSize(ch, arg);
+            if (size < 0) return;
+            a = new AnalysisSession(size);
+        }
+        ch.setAnalysis(a);
+        ch.sendLine("INFO Analyzing. Use MOVE {json}, PASS, BACK [n], FORWARD [i], ROOT, VARIATIONS or LEAVE.");
+        a.sendPosition(ch);
+    }
+
+    /**
+     * Removes a client from the matchmaking queue before another lobby command.
+     *
+     * @param ch client (gets an error if it has just been matched)
+     * @return false if the client has just been matched (the command is dropped)
+     */
+    private boolean leaveQueue(ClientHandler ch) {
+        if (removeTicket(ch)) return true;
+        ch.sendLine("ERROR Already matched, game starting"); // zaraz przyjdzie START
+        return false;
+    }
+
+    /**
+     * Takes the client's ticket out of the matchmaking queue.
+     *
+     * @param ch client
+     * @return true if the client is no longer queued, false if it has just been matched
+     */
+    private boolean removeTicket(ClientHandler ch) {
+        Matchmaker.Ticket t = ch.getTicket();
+        if (t == null) return true;
+        if (matchmaker.remove(t)) {
+            ch.setTicket(null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when a client that is not in a game disconnects.
+     *
+     * @param ch client
+     */
+    public void disconnected(ClientHandler ch) {
+        removeTicket(ch);
+    }
+
+    /**
+     * Frees the name of a disconnected client (in a game or not), so the
+     * player can use it again from a new connection.
+     *
+     * @param ch client
+     */
+    public void releaseName(ClientHandler ch) {
+        String name = ch.getName();
+        if (name != null) names.remove(name, ch);
+    }
+
+    /**
+     * Writes all running games to a snapshot file. Every game encodes itself
+     * on its own shard, so the shards do the work in parallel and no game is
+     * stopped for longer than its own encoding. A game whose shard does not
+     * answer within {@link #SHARD_REPLY_SECONDS} keeps its record from the
+     * previous snapshot; if it has none, the write is aborted and the old file
+     * stays, so a slow shard never makes a running game vanish from the file.
+     *
+     * @param file snapshot file (replaced atomically)
+     * @return number of games written
+     * @throws IOException on write errors, or if a new game's shard did not answer
+     */
+    public synchronized int writeSnapshot(Path file) throws IOException {
+        Map<Integer, CompletableFuture<byte[]>> parts = new LinkedHashMap<>();
+        for (GameSession s : sessions.values()) {
+            CompletableFuture<byte[]> part = new CompletableFuture<>();
+            s.execute(null, () -> {
+                try {
+                    part.complete(s.snapshot());
+                } finally {
+                    part.complete(null);
+                }
+            });
+            parts.put(s.getId(), part.completeOnTimeout(TIMED_OUT, SHARD_REPLY_SECONDS, TimeUnit.SECONDS)); // jeden termin dla wszystkich gier
+        }
+        Map<Integer, byte[]> records = new LinkedHashMap<>(parts.size() * 2);
+        for (Map.Entry<Integer, CompletableFuture<byte[]>> part : parts.entrySet()) {
+            int id = part.getKey();
+            byte[] r = part.getValue().join(); // zablokowany shard nie zatrzymuje zrzutu
+            if (r == TIMED_OUT) {
+                r = lastRecords.get(id);
+                if (r == null) throw new IOException("Snapshot aborted: game " + id + " did not answer and has no earlier record");
+                System.err.println("Snapshot: game " + id + " did not answer in " + SHARD_REPLY_SECONDS + " s, keeping its previous record");
+            }
+            if (r != null) records.put(id, r);
+        }
+        GameSnapshot.write(file, new ArrayList<>(records.values()), System.currentTimeMillis());
+        lastRecords = records;
+        return records.size();
+    }
+
+    /**
+     * Restores the games of a snapshot file (decoded in parallel). Players get
+     * their seats back with REJOIN and the usual reconnection window.
+     *
+     * @param file snapshot file
+     * @return number of restored games
+     * @throws IOException if the file cannot be read
+     */
+    public int restoreSnapshot(Path file) throws IOException {
+        List<GameSession> games = GameSnapshot.read(file);
+        for (GameSession s : games) {
+            s.setExecutor(scheduler.executorFor(s.getId()));
+            s.setOnFinished(this::finished);
+            sessions.put(s.getId(), s);
+            nextId.accumulateAndGet(s.getId(), Math::max); // nowe gry nie dostana starych numerow
+            s.execute(null, s::restored);
+        }
+        return games.size();
+    }
+
+    /**
+     * Creates and registers a new game.
+     *
+     * @param size board size
+     * @return new session
+     */
+    private GameSession newSession(int size) {
+        GameSession s = new GameSession(nextId.incrementAndGet(), size);
+        s.setExecutor(scheduler.executorFor(s.getId()));
+        s.setOnFinished(this::finished);
+        sessions.put(s.getId(), s);
+        return s;
+    }
+
+    /**
+     * Puts a client into a game as the given player.
+     *
+     * @param ch client
+     * @param s game
+     * @param playerId player id (1 or 2)
+     */
+    private void seat(ClientHandler ch, GameSession s, int playerId) {
+        ch.setPlayerId(playerId);
+        ch.setSession(s); // kolejne komendy klienta ida juz do kolejki gry, po rejestracji
+        s.execute(ch, () -> s.register(ch));
+    }
+
+    /**
+     * Forgets a finished game and queues its result for rating.
+     *
+     * @param s finished session (called on its shard)
+     */
+    private void finished(GameSession s) {
+        sessions.remove(s.getId());
+        open.remove(s.getId());
+        int winner = s.getWinner();
+        if (winner >= 0) ratings.submit(new RatingService.GameResult(s.getPlayerName(1), s.getPlayerName(2), winner));
+    }
+}
@@ -0,0 +1,132 @@
+package lab4.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Kolejka dobierania przeciwnikow (QUEUE).
+ * <p>
+ * Waiting players are kept in one sorted map per board size, ordered by rating.
+ * Each board size has its own lock (lock striping), so queues for different
+ * sizes never contend. Finding the closest opponent within the rating band is
+ * a few O(log n) lookups around the newcomer's rating; among waiting players
+ * with the same rating the one who has waited longest is taken.
+ */
+public class Matchmaker {
+    /** Maximum rating difference between matched players */
+    static final int RATING_BAND = 200;
+
+    /** Sequence used to keep tickets with equal rating apart (and FIFO) */
+    private final AtomicLong seq = new AtomicLong();
+    /** Waiting tickets per board size */
+    private final Map<Integer, Stripe> stripes = new ConcurrentHashMap<>();
+
+    /**
+     * A player waiting for an opponent.
+     */
+    public static final class Ticket {
+        /** Waiting player's connection */
+        final ClientHandler handler;
+        /** Player rating */
+        final int rating;
+        /** Requested board size */
+        final int boardSize;
+        /** Sort key: rating in the high bits, arrival order in the low bits */
+        final long key;
+
+        private Ticket(ClientHandler handler, int rating, int boardSize, long seq) {
+            this.handler = handler;
+            this.rating = rating;
+            this.boardSize = boardSize;
+            this.key = ratingKey(rating) | (seq & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Returns the smallest sort key of a rating, i.e. the key of the oldest
+     * possible ticket with that rating.
+     *
+     * @param rating player rating
+     * @return rating in the high bits, zero arrival order
+     */
+    private static long ratingKey(int rating) {
+        return (long) Math.max(rating, 0) << 32;
+    }
+
+    /** Waiting tickets for one board size, guarded by its own monitor. */
+    private static final class Stripe {
+        final TreeMap<Long, Ticket> waiting = new TreeMap<>();
+    }
+
+    /**
+     * Creates a ticket for a player.
+     *
+     * @param h player's connection
+     * @param rating player rating
+     * @param boardSize requested board size
+     * @return ticket to pass to {@link #enqueue(Ticket)}
+     */
+    public Ticket ticket(ClientHandler h, int rating, int boardSize) {
+        return new Ticket(h, rating, boardSize, seq.incrementAndGet());
+    }
+
+    /**
+     * Pairs the ticket with the closest waiting opponent within the rating band,
+     * or leaves it waiting.
+     *
+     * @param t new ticket
+     * @return matched opponent (already removed from the queue), or null if t is now waiting
+     */
+    public Ticket enqueue(Ticket t) {
+        Stripe s = stripes.computeIfAbsent(t.boardSize, k -> new Stripe());
+        synchronized (s) {
+            long base = ratingKey(t.rating);
+            // ten sam ranking liczy sie jako "powyzej" (roznica 0); w obrebie rankingu bierzemy najstarszy bilet
+            Map.Entry<Long, Ticket> above = s.waiting.ceilingEntry(base);
+            Map.Entry<Long, Ticket> below = s.waiting.lowerEntry(base);
+            if (below != null) below = s.waiting.ceilingEntry(ratingKey(below.getValue().rating));
+            Ticket best = null;
+            if (below != null && t.rating - below.getValue().rating <= RATING_BAND) best = below.getValue();
+            if (above != null && above.getValue().rating - t.rating <= RATING_BAND
+                    && (best == null || above.getValue().rating - t.rating < t.rating - best.rating)) {
+                best = above.getValue();
+            }
+            if (best != null) {
+                s.waiting.remove(best.key);
+                return best;
+            }
+            s.waiting.put(t.key, t);
+            return null;
+        }
+    }
+
+    /**
+     * Removes a waiting ticket.
+     *
+     * @param t ticket
+     * @return true if it was still waiting, false if it has already been matched
+     */
+    public boolean remove(Ticket t) {
+        Stripe s = stripes.get(t.boardSize);
+        if (s == null) return false;
+        synchronized (s) {
+            return s.waiting.remove(t.key, t);
+        }
+    }
+
+    /**
+     * Returns the number of players waiting for a board size.
+     *
+     * @param boardSize board size
+     * @return waiting players
+     */
+    public int waiting(int boardSize) {
+        Stripe s = stripes.get(boardSize);
+        if (s == null) return 0;
+        synchronized (s) {
+            return s.waiting.size();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package lab4.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lab4.common.Board;
+
+/**
+ * Historia ruchow jednej gry: jeden int na ruch + co KEYFRAME_INTERVAL ruchow kopia planszy.
+ * <p>
+ * Packed move layout (bits):
+ * <pre>
+ *  0..7   column
+ *  8..15  row
+ * 16..17  player (1 or 2)
+ * 18      pass flag
+ * 19..30  stones captured by this move
+ * </pre>
+ * Any position can be rebuilt from the nearest earlier keyframe by replaying
+ * at most {@link #KEYFRAME_INTERVAL} moves.
+ */
+public class MoveHistory {
+    /** Number of moves between stored board keyframes */
+    static final int KEYFRAME_INTERVAL = 32;
+
+    /** Bit set for passes */
+    private static final int PASS_BIT = 1 << 18;
+
+    /** Board size */
+    private final int size;
+    /** Packed moves; moves[i] has sequence number i + 1 */
+    private int[] moves = new int[64];
+    /** Number of recorded moves */
+    private int count = 0;
+    /** Keyframe k = board after move k * KEYFRAME_INTERVAL, one byte per point */
+    private final List<byte[]> keyframes = new ArrayList<>();
+
+    /**
+     * Creates an empty history for a new game.
+     *
+     * @param size board size
+     */
+    public MoveHistory(int size) {
+        this.size = size;
+        keyframes.add(new byte[size * size]); // pusta plansza przed pierwszym ruchem
+    }
+
+    /**
+     * Packs a stone placement.
+     *
+     * @param row row index
+     * @param col column index
+     * @param player player (1 or 2)
+     * @param captured number of captured stones
+     * @return packed move
+     */
+    public static int packMove(int row, int col, int player, int captured) {
+        return col | (row << 8) | (player << 16) | (captured << 19);
+    }
+
+    /**
+     * Packs a pass.
+     *
+     * @param player player who passed
+     * @return packed move
+     */
+    public static int packPass(int player) {
+        return (player << 16) | PASS_BIT;
+    }
+
+    /**
+     * Returns the column of a packed move.
+     *
+     * @param m packed move
+     * @return column
+     */
+    public static int col(int m) { return m & 0xFF; }
+
+    /**
+     * Returns the row of a packed move.
+     *
+     * @param m packed move
+     * @return row
+     */
+    public static int row(int m) { return (m >>> 8) & 0xFF; }
+
+    /**
+     * Returns the player of a packed move.
+     *
+     * @param m packed move
+     * @return player
+     */
+    public static int player(int m) { return (m >>> 16) & 0x3; }
+
+    /**
+     * Checks whether a packed move is a pass.
+     *
+     * @param m packed move
+     * @return true if the move is a pass
+     */
+    public static boolean isPass(int m) { return (m & PASS_BIT) != 0; }
+
+    /**
+     * Returns the number of stones captured by a packed move.
+     *
+     * @param m packed move
+     * @return captured stones
+     */
+    public static int captured(int m) { return m >>> 19; }
+
+    /**
+     * Records an accepted move or pass.
+     *
+     * @param packed packed move
+     * @param boardAfter board after the move (used for keyframes)
+     */
+    public void record(int packed, Board boardAfter) {
+        if (count == moves.length) moves = Arrays.copyOf(moves, count * 2);
+        moves[count++] = packed;
+        if (count % KEYFRAME_INTERVAL == 0) keyframes.add(pack(boardAfter.grid)); // pack tylko czyta, bez kopii planszy
+    }
+
+    /**
+     * Returns the board size of the game.
+     *
+     * @return board size
+     */
+    public int boardSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of recorded moves.
+     *
+     * @return move count (also the last sequence number)
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the packed move with the given sequence number.
+     *
+     * @param seq sequence number (1..size())
+     * @return packed move
+     */
+    public int get(int seq) {
+        if (seq < 1 || seq > count) throw new IndexOutOfBoundsException("No move " + seq);
+        return moves[seq - 1];
+    }
+
+    /**
+     * Rebuilds the board after the given number of moves.
+     *
+     * @param n move number (0 = empty board)
+     * @return new board with the position after move n
+     * @throws IndexOutOfBoundsException if n is outside 0..size()
+     */
+    public Board positionAt(int n) {
+        if (n < 0 || n > count) throw new IndexOutOfBoundsException("No move " + n);
+        int k = n / KEYFRAME_INTERVAL;
+        Board b = new Board(size);
+        byte[] frame = keyframes.get(k);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) b.grid[r][c] = frame[r * size + c];
+        }
+        for (int i = k * KEYFRAME_INTERVAL; i < n; i++) { // najwyzej KEYFRAME_INTERVAL ruchow
+            int m = moves[i];
+            if (!isPass(m)) b.applyMoveAndCapture(row(m), col(m), player(m));
+        }
+        return b;
+    }
+
+    /**
+     * Returns the size of this history in a game snapshot.
+     *
+     * @return bytes written by {@link #writeTo}
+     */
+    int snapshotBytes() {
+        return 4 + 4 * count + (keyframes.size() - 1) * GameSnapshot.gridBytes(size);
+    }
+
+    /**
+     * Writes the moves and keyframes (2 bits per point; the empty first
+     * keyframe is implied) to a game snapshot.
+     *
+     * @param buf destination
+     */
+    void writeTo(ByteBuffer buf) {
+        buf.putInt(count);
+        for (int i = 0; i < count; i++) buf.putInt(moves[i]);
+        for (int k = 1; k < keyframes.size(); k++) GameSnapshot.putPoints(buf, keyframes.get(k));
+    }
+
+    /**
+     * Restores a history written by {@link #writeTo} without replaying it.
+     *
+     * @param buf source
+     * @param size board size
+     * @return restored history
+     * @throws IllegalArgumentException if the move count is invalid
+     */
+    static MoveHistory readFrom(ByteBuffer buf, int size) {
+        MoveHistory h = new MoveHistory(size);
+        int n = buf.getInt();
+        if (n < 0 || n > buf.remaining() / 4) throw new IllegalArgumentException("Bad move count in snapshot: " + n);
+        h.moves = new int[Math.max(n, 64)];
+        for (int i = 0; i < n; i++) h.moves[i] = buf.getInt();
+        h.count = n;
+        for (int k = 1; k <= n / KEYFRAME_INTERVAL; k++) {
+            byte[] frame = new byte[size * size];
+            GameSnapshot.getPoints(buf, frame);
+            h.keyframes.add(frame);
+        }
+        return h;
+    }
+
+    /**
+     * Formats a move as sent to clients: move JSON or {@code PASS player}.
+     *
+     * @param m packed move
+     * @return text form of the move
+     */
+    public static String describe(int m) {
+        if (isPass(m)) return "PASS " + player(m);
+        return "{\"row\":" + row(m) + ",\"col\":" + col(m) + ",\"player\":" + player(m) + "}";
+    }
+
+    /**
+     * Packs a grid into one byte per point.
+     *
+     * @param grid board grid
+     * @return packed keyframe
+     */
+    private byte[] pack(int[][] grid) {
+        byte[] out = new byte[size * size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) out[r * size + c] = (byte) grid[r][c];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,137 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Ograniczona kolejka wyjsciowa jednego polaczenia: watki gry dopisuja, osobny watek pisze do gniazda.
+ * <p>
+ * Shard threads never touch the socket: {@link #offer} only copies bytes into
+ * the filling buffer and wakes the connection's writer thread, which swaps the
+ * two buffers and writes the full one while the game keeps adding to the
+ * other. A client that stops reading therefore blocks only its own writer.
+ * When the filling buffer would grow past the capacity, offer fails and the
+ * caller drops the connection. Buffers start small and grow up to the
+ * capacity, so idle connections cost little and a busy one does not allocate
+ * once it has grown.
+ */
+final class OutboundQueue {
+    /** Initial size of each buffer */
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    /** Largest number of bytes waiting in the filling buffer */
+    private final int capacity;
+    /** Buffer the producers append to (guarded by this) */
+    private byte[] filling;
+    /** Buffer the writer is writing (owned by the writer between swaps) */
+    private byte[] draining;
+    /** Bytes in filling (guarded by this) */
+    private int filled;
+    /** Set by close(); later offers are discarded and the writer stops (guarded by this) */
+    private boolean closed;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity bytes that may wait for the writer (at least one line)
+     */
+    OutboundQueue(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        int initial = Math.min(INITIAL_SIZE, capacity);
+        this.filling = new byte[initial];
+        this.draining = new byte[initial];
+    }
+
+    /**
+     * Appends bytes for the writer.
+     *
+     * @param src source
+     * @param offset first byte
+     * @param length bytes to append
+     * @return false if the queue is full (the client is not reading); true
+     *         otherwise, also when the queue is closed and the bytes are dropped
+     */
+    synchronized boolean offer(byte[] src, int offset, int length) {
+        if (closed) return true;
+        if (!reserve(length)) return false;
+        System.arraycopy(src, offset, filling, filled, length);
+        filled += length;
+        return true;
+    }
+
+    /**
+     * Appends an encoded line for the writer.
+     *
+     * @param frame encoded line
+     * @return same as {@link #offer(byte[], int, int)}
+     */
+    synchronized boolean offer(Frame frame) {
+        if (closed) return true;
+        if (!reserve(frame.length())) return false;
+        frame.copyTo(filling, filled);
+        filled += frame.length();
+        return true;
+    }
+
+    /**
+     * Makes room in the filling buffer and wakes the writer if it was empty.
+     *
+     * @param length bytes about to be appended
+     * @return false if they do not fit in the capacity
+     */
+    private boolean reserve(int length) {
+        if (length > capacity - filled) return false;
+        if (filled + length > filling.length) {
+            filling = Arrays.copyOf(filling, Math.min(capacity, Math.max(filling.length * 2, filled + length)));
+        }
+        if (filled == 0) notifyAll(); // pisarz czeka tylko na pusty bufor
+        return true;
+    }
+
+    /**
+     * Returns the bytes waiting for the writer.
+     *
+     * @return queued bytes
+     */
+    synchronized int queuedBytes() {
+        return filled;
+    }
+
+    /** Stops the writer and drops everything still queued. */
+    synchronized void close() {
+        closed = true;
+        filled = 0;
+        notifyAll();
+    }
+
+    /**
+     * Writes queued bytes to a stream until the queue is closed. Runs on the
+     * connection's writer thread; each wake-up is one write and one flush,
+     * however many commands queued output in the meantime.
+     *
+     * @param out socket stream
+     * @throws IOException if a write fails
+     * @throws InterruptedException if the writer thread is interrupted
+     */
+    void drainTo(OutputStream out) throws IOException, InterruptedException {
+        while (true) {
+            byte[] buf;
+            int n;
+            synchronized (this) {
+                while (filled == 0 && !closed) wait();
+                if (closed) return;
+                buf = filling; // zamiana buforow: gra dopisuje do drugiego, my piszemy ten bez blokady
+                n = filled;
+                filling = draining.length >= buf.length ? draining : new byte[buf.length]; // drugi bufor dorasta raz
+                draining = buf;
+                filled = 0;
+            }
+            out.write(buf, 0, n);
+            out.flush();
+            ServerMetrics.socketWrites.increment();
+            ServerMetrics.bytesWritten.add(n);
+        }
+    }
+}
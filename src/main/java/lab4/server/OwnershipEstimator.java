@@ -0,0 +1,240 @@
+package lab4.server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lab4.common.OwnershipMap;
+import lab4.common.PaddedBoard;
+
+/**
+ * Szacowanie wlasnosci pol i martwych kamieni losowymi rozgrywkami (Monte Carlo).
+ * <p>
+ * From the final position, both players keep playing random legal moves that do
+ * not fill their own single-point eyes until both pass. Every point is then
+ * counted as a stone or as an empty point surrounded by one colour, and the
+ * counts over all playouts give the ownership percentage. A stone whose point
+ * usually ends up as the opponent's is suggested as dead.
+ * <p>
+ * One estimate plays its playouts on one thread until the time budget is used
+ * up. Estimates run on their own small pool ({@code -Dlab4.ownershipThreads=n},
+ * default half the cores), not in the common fork-join pool, so finished games
+ * never take every core from the game shards, ArchiveAnalyzer or SelfPlay;
+ * several games can still be estimated at once. At most {@value #MAX_QUEUED}
+ * estimates wait for a thread, further ones are refused.
+ */
+public final class OwnershipEstimator {
+    /** Default time budget of an estimate */
+    static final long DEFAULT_BUDGET_MS = 300;
+    /** A stone is dead if its ownership from its owner's side (-100..100) is at most this */
+    static final int DEAD_THRESHOLD = -40;
+    /** System property with the number of estimator threads */
+    static final String THREADS_PROPERTY = "lab4.ownershipThreads";
+    /** Estimates that may wait for a free thread */
+    static final int MAX_QUEUED = 64;
+    /** Neighbour row offsets (N, S, W, E) */
+    private static final int[] DR = {-1, 1, 0, 0};
+    /** Neighbour column offsets (N, S, W, E) */
+    private static final int[] DC = {0, 0, -1, 1};
+
+    /** Threads running the estimates (created on demand, daemon) */
+    private static final ThreadPoolExecutor POOL = newPool(
+            Integer.getInteger(THREADS_PROPERTY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+
+    private OwnershipEstimator() {}
+
+    /**
+     * Creates the estimator pool.
+     *
+     * @param threads number of threads
+     * @return pool with a bounded queue; idle threads end after a while
+     */
+    private static ThreadPoolExecutor newPool(int threads) {
+        AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+                    Thread t = new Thread(r, "OwnershipEstimator-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true); // po koncu gier watki nie wisza
+        return pool;
+    }
+
+    /**
+     * Runs an estimate in the background on the estimator pool.
+     *
+     * @param grid final position (not modified)
+     * @param toMove player to move first in the playouts
+     * @param budgetMs time budget in milliseconds
+     * @return future ownership map; already failed with
+     *         RejectedExecutionException if {@value #MAX_QUEUED} estimates are
+     *         waiting (never thrown to the caller)
+     */
+    public static CompletableFuture<OwnershipMap> estimateAsync(int[][] grid, int toMove, long budgetMs) {
+        try {
+            return CompletableFuture.supplyAsync(() -> estimate(grid, toMove, budgetMs), POOL);
+        } catch (RejectedExecutionException e) { // kolejka pelna: wolajacy (np. PASS w GameCore) nie moze dostac wyjatku
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Estimates ownership of all points within the time budget, on the
+     * calling thread. At least one playout is always played.
+     *
+     * @param grid final position (not modified)
+     * @param toMove player to move first in the playouts
+     * @param budgetMs time budget in milliseconds
+     * @return ownership map
+     */
+    public static OwnershipMap estimate(int[][] grid, int toMove, long budgetMs) {
+        int size = grid.length;
+        PaddedBoard start = new PaddedBoard(size);
+        start.setFromGrid(grid);
+        long deadline = System.nanoTime() + budgetMs * 1_000_000L;
+        long[] total = runPlayouts(start, toMove, deadline, new SplittableRandom(System.nanoTime()));
+
+        int n = size * size;
+        long playouts = total[n];
+        int[] own = new int[n];
+        boolean[] dead = new boolean[n];
+        for (int p = 0; p < n; p++) {
+            own[p] = (int) Math.round(100.0 * total[p] / playouts);
+            int stone = grid[p / size][p % size];
+            int mine = stone == 1 ? own[p] : -own[p]; // z punktu widzenia wlasciciela kamienia
+            dead[p] = stone != 0 && mine <= DEAD_THRESHOLD;
+        }
+        return new OwnershipMap(size, (int) playouts, own, dead);
+    }
+
+    /**
+     * Plays random playouts until the deadline.
+     *
+     * @param start start position (only copied)
+     * @param toMove player to move first
+     * @param deadline System.nanoTime() deadline
+     * @param rnd random generator
+     * @return per point (+1 player 1, -1 player 2) sums, last element = number of playouts
+     */
+    private static long[] runPlayouts(PaddedBoard start, int toMove, long deadline, SplittableRandom rnd) {
+        int size = start.size;
+        int n = size * size;
+        long[] counts = new long[n + 1];
+        PaddedBoard b = new PaddedBoard(size);
+        int[] empties = new int[n];
+        do {
+            b.copyFrom(start);
+            playout(b, toMove, rnd, empties);
+            for (int p = 0; p < n; p++) counts[p] += owner(b, p / size, p % size);
+            counts[n]++;
+        } while (System.nanoTime() < deadline);
+        return counts;
+    }
+
+    /**
+     * Plays one random game to the end on the given board.
+     *
+     * @param b board (modified)
+     * @param toMove first player
+     * @param rnd random generator
+     * @param empties scratch array of size*size
+     */
+    private static void playout(PaddedBoard b, int toMove, SplittableRandom rnd, int[] empties) {
+        int size = b.size;
+        int count = collectEmpties(b, empties);
+        int player = toMove;
+        int passes = 0;
+        int maxMoves = size * size * 3; // ko bez konca nie zawiesi rozgrywki
+        for (int moves = 0; passes < 2 && moves < maxMoves; moves++) {
+            boolean played = false;
+            int k = count;
+            while (k > 0) { // losowe puste pole; nietrafione odkladamy na koniec listy
+                int i = rnd.nextInt(k);
+                int p = empties[i];
+                int r = p / size, c = p % size;
+                if (!isOwnEye(b, r, c, player)) {
+                    int res = b.applyMoveAndCapture(r, c, player);
+                    if (res >= 0) {
+                        played = true;
+                        if (res > 0) count = collectEmpties(b, empties); // zbicie zwolnilo pola
+                        else empties[i] = empties[--count];
+                        break;
+                    }
+                }
+                empties[i] = empties[k - 1];
+                empties[k - 1] = p;
+                k--;
+            }
+            passes = played ? 0 : passes + 1;
+            player = player == 1 ? 2 : 1;
+        }
+    }
+
+    /**
+     * Lists all empty points.
+     *
+     * @param b board
+     * @param empties output (r * size + c)
+     * @return number of empty points
+     */
+    private static int collectEmpties(PaddedBoard b, int[] empties) {
+        int size = b.size;
+        int count = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) if (b.get(r, c) == PaddedBoard.EMPTY) empties[count++] = r * size + c;
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether an empty point is surrounded only by the player's stones (and the edge).
+     *
+     * @param b board
+     * @param r row index
+     * @param c column index
+     * @param player player
+     * @return true if filling it would fill the player's own eye
+     */
+    private static boolean isOwnEye(PaddedBoard b, int r, int c, int player) {
+        return surroundedBy(b, r, c) == player;
+    }
+
+    /**
+     * Returns the colour of all on-board neighbours of a point, if they share one.
+     *
+     * @param b board
+     * @param r row index
+     * @param c column index
+     * @return 1 or 2 if all neighbours have that colour, 0 otherwise
+     */
+    private static int surroundedBy(PaddedBoard b, int r, int c) {
+        int color = 0;
+        for (int d = 0; d < 4; d++) {
+            int nr = r + DR[d], nc = c + DC[d];
+            if (nr < 0 || nc < 0 || nr >= b.size || nc >= b.size) continue;
+            int v = b.get(nr, nc);
+            if (v == PaddedBoard.EMPTY || (color != 0 && v != color)) return 0;
+            color = v;
+        }
+        return color;
+    }
+
+    /**
+     * Returns who owns a point at the end of a playout.
+     *
+     * @param b board after the playout
+     * @param r row index
+     * @param c column index
+     * @return +1 player 1, -1 player 2, 0 neutral
+     */
+    private static int owner(PaddedBoard b, int r, int c) {
+        int v = b.get(r, c);
+        if (v == PaddedBoard.EMPTY) v = surroundedBy(b, r, c);
+        return v == 1 ? 1 : v == 2 ? -1 : 0;
+    }
+}
@@ -0,0 +1,78 @@
+package lab4.server;
+
+/**
+ * Kubelek zetonow: ograniczenie liczby komend jednego polaczenia.
+ * <p>
+ * The bucket holds up to {@code burst} tokens and gains one every
+ * {@code 1 / rate} seconds; every command takes one. The refill is computed
+ * lazily from {@link System#nanoTime()} when a command arrives, so there is no
+ * timer and the check is a few integer operations. Used only by the
+ * connection's own thread, so it needs no synchronization.
+ */
+final class RateLimiter {
+    /** System property with the sustained command rate per connection (commands per second) */
+    static final String RATE_PROPERTY = "lab4.commandRate";
+    /** System property with the burst size (commands accepted at once after a pause) */
+    static final String BURST_PROPERTY = "lab4.commandBurst";
+    /** Commands per second when the property is not set */
+    static final int DEFAULT_RATE = 20;
+    /** Burst when the property is not set */
+    static final int DEFAULT_BURST = 40;
+
+    /** Time to earn one token */
+    private final long intervalNanos;
+    /** Largest number of tokens */
+    private final int burst;
+    /** Tokens left */
+    private int tokens;
+    /** Time up to which tokens have been credited */
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param rate tokens per second (positive)
+     * @param burst bucket size (positive)
+     * @param now current {@link System#nanoTime()}
+     */
+    RateLimiter(int rate, int burst, long now) {
+        if (rate < 1 || burst < 1) throw new IllegalArgumentException("rate and burst must be positive");
+        this.intervalNanos = 1_000_000_000L / rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Creates a full bucket configured by {@code -Dlab4.commandRate} and
+     * {@code -Dlab4.commandBurst}.
+     *
+     * @return rate limiter for one connection
+     */
+    static RateLimiter fromProperties() {
+        return new RateLimiter(Integer.getInteger(RATE_PROPERTY, DEFAULT_RATE),
+                Integer.getInteger(BURST_PROPERTY, DEFAULT_BURST), System.nanoTime());
+    }
+
+    /**
+     * Takes a token if there is one.
+     *
+     * @param now current {@link System#nanoTime()}
+     * @return true if the command may run, false if it is over the limit
+     */
+    boolean tryAcquire(long now) {
+        if (tokens < burst) {
+            long earned = (now - lastRefill) / intervalNanos;
+            if (earned >= burst - tokens) {
+                tokens = burst;
+            } else if (earned > 0) {
+                tokens += (int) earned;
+                lastRefill += earned * intervalNanos; // reszta czasu przechodzi na nastepny zeton
+            }
+        }
+        if (tokens == 0) return false;
+        if (tokens == burst) lastRefill = now; // pelny kubelek: odliczanie zaczyna sie od teraz
+        tokens--;
+        return true;
+    }
+}
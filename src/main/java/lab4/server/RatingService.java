@@ -0,0 +1,386 @@
+package lab4.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranking graczy (Elo), liczony w tle.
+ * <p>
+ * Finished games are only put on a queue ({@link #submit(GameResult)}), so ending
+ * a game never waits for the rating update or the disk. One worker thread takes
+ * results in batches, updates the in-memory ratings and writes the whole table
+ * to the store file at most every {@link #FLUSH_INTERVAL_MS} (write-behind).
+ * <p>
+ * A name belongs to whoever claimed it first ({@link #claim}): the claim stores
+ * a secret (only its SHA-256), and later claims of the name must give the same
+ * secret. Only games between two claimed names are rated, so nobody can play
+ * rated games under someone else's name.
+ * <p>
+ * Store file (binary, big endian): magic, version, count, then per player
+ * {@code UTF name, int rating, int games}; then count and per claimed name
+ * {@code UTF name, 32 bytes SHA-256 of the secret}. Version 1 files (without
+ * secrets) are still read; their names are claimed again on first use. The
+ * file is written to a temporary file and moved over the old one, so a crash
+ * never leaves a half-written table.
+ */
+public class RatingService implements AutoCloseable {
+    /** Rating of a player without rated games */
+    public static final int INITIAL_RATING = 1500;
+    /** Elo K-factor (maximum rating change per game) */
+    static final int K_FACTOR = 32;
+    /** Minimum time between two writes of the store file */
+    static final long FLUSH_INTERVAL_MS = 2000;
+    /** Maximum number of results applied in one batch */
+    static final int MAX_BATCH = 256;
+
+    /** First int of the store file ("L4RT") */
+    private static final int MAGIC = 0x4C345254;
+    /** Store file format version */
+    private static final int VERSION = 2;
+    /** Bytes of a stored secret digest (SHA-256) */
+    private static final int DIGEST_BYTES = 32;
+    /** Random bytes of a secret issued by {@link #claim} */
+    private static final int SECRET_BYTES = 12;
+    /** Queue marker that tells the worker to write everything and stop */
+    private static final GameResult STOP = new GameResult(null, null, 0);
+
+    /**
+     * Result of one finished game between two named players.
+     */
+    public static final class GameResult {
+        /** Name of player 1 */
+        final String player1;
+        /** Name of player 2 */
+        final String player2;
+        /** 1 or 2 = winner, 0 = draw */
+        final int winner;
+
+        /**
+         * Creates a game result.
+         *
+         * @param player1 name of player 1
+         * @param player2 name of player 2
+         * @param winner 1 or 2 = winner, 0 = draw
+         */
+        public GameResult(String player1, String player2, int winner) {
+            this.player1 = player1;
+            this.player2 = player2;
+            this.winner = winner;
+        }
+    }
+
+    /**
+     * Rating of one player. Immutable, replaced as a whole on every update,
+     * so other threads can read it without locking.
+     */
+    static final class Entry {
+        /** Current rating */
+        final int rating;
+        /** Number of rated games */
+        final int games;
+
+        /**
+         * Creates an entry.
+         *
+         * @param rating rating
+         * @param games rated games
+         */
+        Entry(int rating, int games) {
+            this.rating = rating;
+            this.games = games;
+        }
+    }
+
+    /** Store file, or null to keep ratings only in memory */
+    private final Path file;
+    /** Ratings by player name (written only by the worker thread) */
+    private final Map<String, Entry> ratings = new ConcurrentHashMap<>();
+    /** SHA-256 of the secret of every claimed name */
+    private final Map<String, byte[]> secrets = new ConcurrentHashMap<>();
+    /** Set when a name is claimed, so the worker writes the store */
+    private volatile boolean secretsChanged;
+    /** Source of issued secrets */
+    private final SecureRandom random = new SecureRandom();
+    /** Results waiting for the worker */
+    private final BlockingQueue<GameResult> queue = new LinkedBlockingQueue<>();
+    /** Background thread applying results and writing the store */
+    private final Thread worker;
+
+    /**
+     * Loads ratings from the store file (if it exists) and starts the worker thread.
+     *
+     * @param file store file, or null for in-memory ratings only
+     * @throws IOException if the existing store file cannot be read
+     */
+    public RatingService(Path file) throws IOException {
+        this.file = file;
+        if (file != null && Files.exists(file)) load();
+        worker = new Thread(this::runWorker, "RatingService");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Returns the current rating of a player.
+     *
+     * @param name player name
+     * @return rating, {@link #INITIAL_RATING} for unknown players
+     */
+    public int rating(String name) {
+        Entry e = ratings.get(name);
+        return e == null ? INITIAL_RATING : e.rating;
+    }
+
+    /**
+     * Returns the number of rated games of a player.
+     *
+     * @param name player name
+     * @return rated games
+     */
+    public int games(String name) {
+        Entry e = ratings.get(name);
+        return e == null ? 0 : e.games;
+    }
+
+    /**
+     * Claims a name, or checks the secret of an already claimed one.
+     *
+     * @param name player name
+     * @param secret secret given by the client, or null to have one issued
+     *        (only for a name nobody has claimed yet)
+     * @return the name's secret (a new one if it was issued), or null if the
+     *         name belongs to someone else and the secret does not match
+     */
+    public String claim(String name, String secret) {
+        String s = secret != null ? secret : HexFormat.of().formatHex(randomBytes());
+        byte[] digest = digest(s);
+        byte[] owner = secrets.putIfAbsent(name, digest);
+        if (owner == null) {
+            secretsChanged = true;
+            return s;
+        }
+        return secret != null && MessageDigest.isEqual(owner, digest) ? secret : null;
+    }
+
+    /**
+     * Returns whether a name has been claimed.
+     *
+     * @param name player name
+     * @return true if games of the name can be rated
+     */
+    public boolean isClaimed(String name) {
+        return secrets.containsKey(name);
+    }
+
+    /**
+     * Queues a finished game for rating. Never blocks.
+     * Games with an anonymous or unclaimed player or against oneself are ignored.
+     *
+     * @param r game result
+     */
+    public void submit(GameResult r) {
+        if (r.player1 == null || r.player2 == null || r.player1.equals(r.player2)) return;
+        if (!isClaimed(r.player1) || !isClaimed(r.player2)) return;
+        queue.offer(r);
+    }
+
+    /**
+     * Applies all queued results, writes the store file and stops the worker.
+     */
+    @Override
+    public void close() {
+        queue.offer(STOP);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns new random bytes for an issued secret.
+     *
+     * @return random bytes
+     */
+    private byte[] randomBytes() {
+        byte[] b = new byte[SECRET_BYTES];
+        random.nextBytes(b);
+        return b;
+    }
+
+    /**
+     * Hashes a secret for storing.
+     *
+     * @param secret secret
+     * @return SHA-256 of its UTF-8 bytes
+     */
+    private static byte[] digest(String secret) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-256 jest w kazdej JVM
+        }
+    }
+
+    /**
+     * Expected score of player A against player B (Elo formula).
+     *
+     * @param ratingA rating of A
+     * @param ratingB rating of B
+     * @return expected score of A (0..1)
+     */
+    static double expectedScore(int ratingA, int ratingB) {
+        return 1.0 / (1.0 + Math.pow(10.0, (ratingB - ratingA) / 400.0));
+    }
+
+    /**
+     * Computes a new rating after one game.
+     *
+     * @param rating rating before the game
+     * @param opponent opponent's rating before the game
+     * @param score 1 win, 0.5 draw, 0 loss
+     * @return new rating
+     */
+    static int newRating(int rating, int opponent, double score) {
+        return (int) Math.round(rating + K_FACTOR * (score - expectedScore(rating, opponent)));
+    }
+
+    /**
+     * Worker loop: applies results in batches and writes the store file
+     * when something changed and the flush interval has passed.
+     */
+    private void runWorker() {
+        List<GameResult> batch = new ArrayList<>(MAX_BATCH);
+        boolean dirty = false;
+        long lastWrite = System.nanoTime();
+        while (true) {
+            try {
+                GameResult first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1); // wszystko co czeka, jednym przebiegiem
+                }
+            } catch (InterruptedException e) {
+                batch.add(STOP);
+            }
+            boolean stop = false;
+            for (GameResult r : batch) {
+                if (r == STOP) stop = true;
+                else {
+                    apply(r);
+                    dirty = true;
+                }
+            }
+            if (!batch.isEmpty()) ServerMetrics.ratingBatches.increment();
+            batch.clear();
+            if (secretsChanged) { // nowo zajete nazwy tez trafiaja do pliku
+                secretsChanged = false;
+                dirty = true;
+            }
+
+            long now = System.nanoTime();
+            if (dirty && (stop || now - lastWrite >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS))) {
+                save();
+                dirty = false;
+                lastWrite = now;
+            }
+            if (stop) return;
+        }
+    }
+
+    /**
+     * Updates both players' ratings for one game.
+     *
+     * @param r game result
+     */
+    private void apply(GameResult r) {
+        Entry a = ratings.getOrDefault(r.player1, new Entry(INITIAL_RATING, 0));
+        Entry b = ratings.getOrDefault(r.player2, new Entry(INITIAL_RATING, 0));
+        double scoreA = r.winner == 1 ? 1.0 : r.winner == 2 ? 0.0 : 0.5;
+        ratings.put(r.player1, new Entry(newRating(a.rating, b.rating, scoreA), a.games + 1));
+        ratings.put(r.player2, new Entry(newRating(b.rating, a.rating, 1.0 - scoreA), b.games + 1));
+        ServerMetrics.ratedGames.increment();
+    }
+
+    /**
+     * Reads the store file into memory.
+     *
+     * @throws IOException if the file cannot be read or has a wrong format
+     */
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a rating store: " + file);
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) throw new IOException("Unsupported rating store version " + version + ": " + file);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int rating = in.readInt();
+                int games = in.readInt();
+                ratings.put(name, new Entry(rating, games));
+            }
+            if (version == 1) return; // plik sprzed sekretow: nazwy zostana zajete przy pierwszym NAME
+            int claimed = in.readInt();
+            for (int i = 0; i < claimed; i++) {
+                String name = in.readUTF();
+                byte[] digest = new byte[DIGEST_BYTES];
+                in.readFully(digest);
+                secrets.put(name, digest);
+            }
+        }
+    }
+
+    /**
+     * Writes all ratings to the store file (temporary file + move).
+     * Errors are only logged; the next write will try again.
+     */
+    private void save() {
+        if (file == null) return;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ratings.size());
+                for (Map.Entry<String, Entry> e : ratings.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeInt(e.getValue().rating);
+                    out.writeInt(e.getValue().games);
+                }
+                List<Map.Entry<String, byte[]>> claimed = new ArrayList<>(secrets.entrySet()); // mapa rosnie z watkow lobby
+                out.writeInt(claimed.size());
+                for (Map.Entry<String, byte[]> e : claimed) {
+                    out.writeUTF(e.getKey());
+                    out.write(e.getValue());
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            ServerMetrics.ratingWrites.increment();
+        } catch (IOException e) {
+            System.err.println("Rating store write failed: " + e.getMessage());
+        }
+    }
+}
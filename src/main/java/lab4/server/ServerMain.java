@@ -3,47 +3,107 @@ package lab4.server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Server: accepts exactly two clients, registers them in GameSession and starts the game.
+ * Server: accepts clients and hands them to the Lobby, where they create, join
+ * or queue for games. Every pair of players gets its own GameSession.
+ * <p>
+ * Games run on a fixed pool of shard threads ({@code -Dlab4.shards=n});
+ * connection threads only read commands and queue them.
+ * Ratings are kept in the file named by {@code -Dlab4.ratings=...}
+ * (only in memory if the property is not set).
+ * With {@code -Dlab4.snapshot=file} running games are saved every
+ * {@code -Dlab4.snapshotInterval} seconds (default 10) and at shutdown, and
+ * restored from that file at startup, so players can REJOIN after a restart.
  */
 public class ServerMain
 {
-    public static void main(String[] args)
+    /** System property with the rating store file path */
+    static final String RATINGS_PROPERTY = "lab4.ratings";
+    /** System property with the number of game shards (default: number of cores) */
+    static final String SHARDS_PROPERTY = "lab4.shards";
+    /** System property with the game snapshot file path */
+    static final String SNAPSHOT_PROPERTY = "lab4.snapshot";
+    /** System property with the seconds between snapshots */
+    static final String SNAPSHOT_INTERVAL_PROPERTY = "lab4.snapshotInterval";
+
+    public static void main(String[] args) throws IOException
     {
         final int port = 55555;
-        final int boardSize = 19; //tu bedzie mozna zmienic rozmiar planszy
+        final int boardSize = 19; //domyslny rozmiar planszy (QUEUE/CREATE bez rozmiaru)
 
-        System.out.println("Server starting on port " + port + " (board " + boardSize + "x" + boardSize + ")");
+        System.out.println("Server starting on port " + port + " (default board " + boardSize + "x" + boardSize + ")");
+        String ratingsFile = System.getProperty(RATINGS_PROPERTY);
+        RatingService ratings = new RatingService(ratingsFile == null || ratingsFile.isEmpty() ? null : Paths.get(ratingsFile));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ratings.close(); // zapisujemy oczekujace zmiany rankingu
+            System.out.println("Server metrics: " + ServerMetrics.summary());
+        }));
 
+        SessionScheduler scheduler = new SessionScheduler(Integer.getInteger(SHARDS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        System.out.println("Game shards: " + scheduler.shardCount());
+        Lobby lobby = new Lobby(boardSize, ratings, scheduler);
+        String snapshotFile = System.getProperty(SNAPSHOT_PROPERTY);
+        if (snapshotFile != null && !snapshotFile.isEmpty()) startSnapshots(lobby, Paths.get(snapshotFile));
+        int connected = 0;
         try (ServerSocket serverSocket = new ServerSocket(port))
         {
-
-            // Prepare SINGLETON session
-            GameSession.getInstance(boardSize);
-
-            int connected = 0;
-            ClientHandler[] handlers = new ClientHandler[2]; //tablica z dwoma handlerami dla playerow; do komunikacji z klientem
-
-            while (connected < 2)
+            while (true)
             {
                 Socket client = serverSocket.accept(); // serverSocket.accept() blokuje wątek, aż klient się połączy
                 connected++;
-                System.out.println("Client connected - assign playerId=" + connected);
-                ClientHandler handler = new ClientHandler(client, connected); // tworzymy clientHandler podajac do konstruktora socket ktory zaakceptowalismy wlasnie
-                handlers[connected-1] = handler;
-                GameSession.getInstance().register(handler); //Rejestruje handler w sesji gry, żeby gra wiedziała o wszystkich graczach
+                System.out.println("Client connected (#" + connected + ", games: " + lobby.gameCount() + ")");
+                ClientHandler handler = new ClientHandler(client, lobby); // tworzymy clientHandler podajac do konstruktora socket ktory zaakceptowalismy wlasnie
                 new Thread(handler, "ClientHandler-" + connected).start(); //Tworzy nowy wątek dla klienta, żeby obsługa komunikacji była równoległa
             }
-
-            System.out.println("Two players connected. Starting game.");
-            GameSession.getInstance().startGame();
-
-            // keep server alive (ale tylko dopoki nie jest gameOver)
-            while (GameSession.getInstance().isRunning()) Thread.sleep(1000);
-
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Restores games from the snapshot file (if it exists) and starts writing
+     * it periodically and at shutdown.
+     *
+     * @param lobby server lobby
+     * @param file snapshot file
+     */
+    private static void startSnapshots(Lobby lobby, Path file)
+    {
+        if (Files.exists(file))
+        {
+            long t0 = System.nanoTime();
+            try
+            {
+                int games = lobby.restoreSnapshot(file);
+                System.out.printf("Restored %d games from %s in %.1f ms%n", games, file, (System.nanoTime() - t0) / 1e6);
+            } catch (IOException e)
+            {
+                System.err.println("Snapshot not restored: " + e.getMessage());
+            }
+        }
+        Runnable save = () -> {
+            try
+            {
+                lobby.writeSnapshot(file);
+            } catch (IOException | RuntimeException e)
+            {
+                System.err.println("Snapshot write failed: " + e.getMessage());
+            }
+        };
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, 10);
+        timer.scheduleWithFixedDelay(save, interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(save)); // ostatni stan przed wylaczeniem
+    }
+}
@@ -0,0 +1,76 @@
+package lab4.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Liczniki serwera (wspolne dla wszystkich polaczen).
+ * LongAdder, bo inkrementuja je rownolegle watki ClientHandler.
+ */
+public final class ServerMetrics {
+    /** Lines queued for sending to clients */
+    static final LongAdder linesQueued = new LongAdder();
+    /** Socket writes actually performed (one per non-empty flush) */
+    static final LongAdder socketWrites = new LongAdder();
+    /** Bytes written to client sockets */
+    static final LongAdder bytesWritten = new LongAdder();
+    /** Lines encoded into frames (a broadcast frame is shared by all its recipients) */
+    static final LongAdder framesEncoded = new LongAdder();
+    /** Bytes of encoded frames (lengths of the arrays allocated by Frame.of) */
+    static final LongAdder frameBytes = new LongAdder();
+    /** Frames queued to connections (copies of an already encoded frame) */
+    static final LongAdder framesSent = new LongAdder();
+    /** Games applied to player ratings */
+    static final LongAdder ratedGames = new LongAdder();
+    /** Batches of results processed by RatingService */
+    static final LongAdder ratingBatches = new LongAdder();
+    /** Writes of the rating store file */
+    static final LongAdder ratingWrites = new LongAdder();
+    /** Commands rejected because the client was over its rate limit */
+    static final LongAdder commandsDropped = new LongAdder();
+    /** Times a connection stopped reading because its game commands were still queued */
+    static final LongAdder commandsThrottled = new LongAdder();
+    /** Connections closed because their outbound queue overflowed (client not reading) */
+    static final LongAdder outboundOverflows = new LongAdder();
+    /** Analysis positions rebuilt from an ancestor after LRU eviction */
+    static final LongAdder analysisRebuilds = new LongAdder();
+    /** BOARD frames found in BoardFrameCache (not serialized again) */
+    static final LongAdder boardCacheHits = new LongAdder();
+    /** BOARD frames not in BoardFrameCache (serialized and added) */
+    static final LongAdder boardCacheMisses = new LongAdder();
+
+    private ServerMetrics() {}
+
+    /**
+     * Returns how many socket writes were avoided by batching lines
+     * (with autoflush every line would be a separate write).
+     *
+     * @return saved write calls
+     */
+    public static long writesSaved() {
+        return linesQueued.sum() - socketWrites.sum();
+    }
+
+    /**
+     * Returns a one-line summary of all counters.
+     *
+     * @return human-readable metrics
+     */
+    public static String summary() {
+        return "lines=" + linesQueued.sum()
+                + " writes=" + socketWrites.sum()
+                + " writesSaved=" + writesSaved()
+                + " bytes=" + bytesWritten.sum()
+                + " frames=" + framesEncoded.sum()
+                + " frameBytes=" + frameBytes.sum()
+                + " frameSends=" + framesSent.sum()
+                + " dropped=" + commandsDropped.sum()
+                + " throttled=" + commandsThrottled.sum()
+                + " outboundOverflows=" + outboundOverflows.sum()
+                + " ratedGames=" + ratedGames.sum()
+                + " ratingBatches=" + ratingBatches.sum()
+                + " ratingWrites=" + ratingWrites.sum()
+                + " analysisRebuilds=" + analysisRebuilds.sum()
+                + " boardCacheHits=" + boardCacheHits.sum()
+                + " boardCacheMisses=" + boardCacheMisses.sum();
+    }
+}
@@ -0,0 +1,112 @@
+package lab4.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stala pula watkow ("shardow") wykonujacych komendy gier.
+ * <p>
+ * Every game is pinned to one shard by its id, and a shard runs its tasks one
+ * after another on a single thread. All code of a GameSession therefore runs on
+ * one thread and needs no locks; games on different shards run in parallel.
+ * Tasks are handed over through a lock-free queue; an idle shard parks and is
+ * unparked by the next submit.
+ */
+public class SessionScheduler {
+    /** Shards, index = game id modulo shard count */
+    private final Shard[] shards;
+
+    /**
+     * One worker thread with its task queue.
+     */
+    private static final class Shard implements Runnable {
+        /** Pending tasks (many producers: connection threads, timers; one consumer) */
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        /** Worker thread */
+        final Thread thread;
+        /** Cleared by shutdown() */
+        volatile boolean running = true;
+
+        /**
+         * Creates and starts a shard.
+         *
+         * @param index shard number (for the thread name)
+         */
+        Shard(int index) {
+            thread = new Thread(this, "GameShard-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Queues a task and wakes the worker if it is parked.
+         *
+         * @param task task to run
+         */
+        void submit(Runnable task) {
+            tasks.offer(task);
+            LockSupport.unpark(thread); // unpark przed park tez dziala (watek nie zasnie)
+        }
+
+        /**
+         * Worker loop: runs tasks in submission order, parks when there are none.
+         */
+        @Override
+        public void run() {
+            while (running) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) { // blad jednej komendy nie zatrzymuje innych gier
+                    System.err.println(thread.getName() + ": command failed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the pool and starts its threads.
+     *
+     * @param shardCount number of shards (threads)
+     */
+    public SessionScheduler(int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("shardCount must be positive");
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard(i);
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return shard count
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns an executor that runs tasks on the shard owning the given game.
+     *
+     * @param gameId game id
+     * @return executor for that game
+     */
+    public Executor executorFor(int gameId) {
+        return shards[Math.floorMod(gameId, shards.length)]::submit;
+    }
+
+    /**
+     * Stops all shards after their current task. Tasks still queued are dropped.
+     */
+    public void shutdown() {
+        for (Shard s : shards) {
+            s.running = false;
+            LockSupport.unpark(s.thread);
+        }
+    }
+}
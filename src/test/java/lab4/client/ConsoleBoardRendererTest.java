@@ -0,0 +1,51 @@
+package lab4.client;
+
+import lab4.common.Board;
+import lab4.common.BoardSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsoleBoardRendererTest {
+
+    @Test
+    void plainTextMatchesBoardToString() throws Exception {
+        for (int size : new int[] {5, 13}) { // 13: dwucyfrowe numery wierszy i kolumn
+            Board b = new Board(size);
+            b.applyMoveAndCapture(1, 2, 1);
+            b.applyMoveAndCapture(size - 1, size - 1, 2);
+            StringWriter out = new StringWriter();
+            ConsoleBoardRenderer r = new ConsoleBoardRenderer(out, false);
+            r.draw(BoardSnapshot.of(b));
+            assertEquals(b.toString(), out.toString());
+        }
+    }
+
+    @Test
+    void ansiModeRedrawsOnlyChangedCells() throws Exception {
+        StringWriter out = new StringWriter();
+        ConsoleBoardRenderer r = new ConsoleBoardRenderer(out, true);
+        Board b = new Board(9);
+        r.draw(BoardSnapshot.of(b));
+        String first = out.toString();
+        assertTrue(first.startsWith("\u001b[2J\u001b[H    "));
+        assertTrue(first.endsWith("\u001b[11r\u001b[11;1H"));
+
+        out.getBuffer().setLength(0);
+        b.applyMoveAndCapture(2, 4, 1);
+        r.draw(BoardSnapshot.of(b));
+        assertEquals("\u001b7\u001b[4;14HX\u001b8", out.toString()); // wiersz 2 -> linia 4, kolumna 4 -> znak 14
+
+        out.getBuffer().setLength(0);
+        r.draw(BoardSnapshot.of(b));
+        assertEquals("", out.toString(), "Bez zmian nic nie wysylamy");
+
+        r.draw(BoardSnapshot.of(new Board(5)));
+        assertTrue(out.toString().startsWith("\u001b[2J"), "Inny rozmiar: cala plansza od nowa");
+        out.getBuffer().setLength(0);
+        r.reset();
+        assertEquals("\u001b[r", out.toString());
+    }
+}
@@ -0,0 +1,109 @@
+package lab4.common;
+
+import java.util.Random;
+
+/**
+ * Prosty benchmark applyMoveAndCapture (uruchamiany recznie, nie przez surefire):
+ * java -cp target/classes:target/test-classes lab4.common.BoardBench
+ *
+ * Each round replays the same pseudo-random games (seeded) on a fresh board,
+ * so every engine sees identical positions. Prints ns per applyMoveAndCapture call,
+ * and ns per move when every position is also kept as a branch point (a grid
+ * copy per move on Board vs. PersistentBoard, where keeping a position is free).
+ */
+public class BoardBench {
+    private static final int SIZE = 19;
+    private static final int GAMES = 200;
+    private static final int MOVES_PER_GAME = 400;
+
+    public static void main(String[] args) {
+        int[] moves = randomMoves(new Random(42), GAMES * MOVES_PER_GAME);
+        for (int round = 0; round < 5; round++) { // pierwsze rundy to rozgrzewka JIT
+            long board = timeBoard(moves);
+            long padded = timePadded(moves);
+            long copied = timeBoardWithCopies(moves);
+            long persistent = timePersistent(moves);
+            System.out.printf("round %d: Board %.1f ns/move, PaddedBoard %.1f ns/move, Board+copy %.1f ns/move, PersistentBoard %.1f ns/move%n",
+                    round, board / (double) moves.length, padded / (double) moves.length,
+                    copied / (double) moves.length, persistent / (double) moves.length);
+        }
+    }
+
+    private static int[] randomMoves(Random rnd, int n) {
+        int[] m = new int[n];
+        for (int i = 0; i < n; i++) m[i] = rnd.nextInt(SIZE * SIZE);
+        return m;
+    }
+
+    private static long timeBoard(int[] moves) {
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int g = 0; g < GAMES; g++) {
+            Board b = new Board(SIZE);
+            int player = 1;
+            for (int i = g * MOVES_PER_GAME; i < (g + 1) * MOVES_PER_GAME; i++) {
+                int res = b.applyMoveAndCapture(moves[i] / SIZE, moves[i] % SIZE, player);
+                sink += res;
+                if (res >= 0) player = 3 - player;
+            }
+        }
+        long t = System.nanoTime() - t0;
+        if (sink == 42) System.out.println(); // zeby JIT nie wyrzucil petli
+        return t;
+    }
+
+    private static long timePadded(int[] moves) {
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int g = 0; g < GAMES; g++) {
+            PaddedBoard b = new PaddedBoard(SIZE);
+            int player = 1;
+            for (int i = g * MOVES_PER_GAME; i < (g + 1) * MOVES_PER_GAME; i++) {
+                int res = b.applyMoveAndCapture(moves[i] / SIZE, moves[i] % SIZE, player);
+                sink += res;
+                if (res >= 0) player = 3 - player;
+            }
+        }
+        long t = System.nanoTime() - t0;
+        if (sink == 42) System.out.println();
+        return t;
+    }
+
+    private static long timeBoardWithCopies(int[] moves) {
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int g = 0; g < GAMES; g++) {
+            Board b = new Board(SIZE);
+            int player = 1;
+            for (int i = g * MOVES_PER_GAME; i < (g + 1) * MOVES_PER_GAME; i++) {
+                int[][] branch = b.getGridCopy(); // pozycja zachowana do rozgalezienia
+                int res = b.applyMoveAndCapture(moves[i] / SIZE, moves[i] % SIZE, player);
+                sink += res + branch[0][0];
+                if (res >= 0) player = 3 - player;
+            }
+        }
+        long t = System.nanoTime() - t0;
+        if (sink == 42) System.out.println();
+        return t;
+    }
+
+    private static long timePersistent(int[] moves) {
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int g = 0; g < GAMES; g++) {
+            PersistentBoard b = PersistentBoard.empty(SIZE);
+            int player = 1;
+            for (int i = g * MOVES_PER_GAME; i < (g + 1) * MOVES_PER_GAME; i++) {
+                PersistentBoard next = b.play(moves[i] / SIZE, moves[i] % SIZE, player); // b zostaje bez zmian
+                if (next != null) {
+                    sink += next.captured();
+                    b = next;
+                    player = 3 - player;
+                }
+            }
+        }
+        long t = System.nanoTime() - t0;
+        if (sink == 42) System.out.println();
+        return t;
+    }
+}
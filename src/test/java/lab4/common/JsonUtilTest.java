@@ -43,4 +43,39 @@ class JsonUtilTest {
         assertThrows(IllegalArgumentException.class, () -> JsonUtil.jsonToBoard("not a board"));
         assertThrows(IllegalArgumentException.class, () -> JsonUtil.jsonToBoard("{\"size\":3}")); // brak grid
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSnapshotSharesUnchangedRows() {
+        Board b = new Board(3);
+        b.grid[0][0] = 1;
+        BoardSnapshot first = JsonUtil.jsonToSnapshot(JsonUtil.boardToJson(b), null);
+
+        b.grid[2][1] = 2;
+        BoardSnapshot second = JsonUtil.jsonToSnapshot(JsonUtil.boardToJson(b), first);
+
+        assertTrue(Board.gridsEqual(b.grid, second.toBoard().grid), "Snapshot powinien odpowiadać planszy");
+        assertTrue(second.sameRow(first, 0), "Niezmieniony wiersz powinien być współdzielony");
+        assertTrue(second.sameRow(first, 1));
+        assertFalse(second.sameRow(first, 2), "Zmieniony wiersz powinien być nowy");
+        assertEquals(0, first.get(2, 1), "Poprzedni snapshot się nie zmienia");
+        assertThrows(IllegalArgumentException.class, () -> JsonUtil.jsonToSnapshot("{\"size\":3}", null));
+    }
+
+    @Test
+    void ownershipRoundTrip() {
+        int[] own = {100, -100, 0, 37, -5, 60, -60, 1, 99};
+        boolean[] dead = new boolean[9];
+        dead[1] = true;
+        dead[6] = true;
+        OwnershipMap m = new OwnershipMap(3, 1234, own, dead);
+
+        OwnershipMap back = JsonUtil.jsonToOwnership(JsonUtil.ownershipToJson(m));
+
+        assertEquals(3, back.size);
+        assertEquals(1234, back.playouts);
+        for (int p = 0; p < 9; p++) {
+            assertEquals(own[p], back.ownership(p / 3, p % 3));
+            assertEquals(dead[p], back.isDead(p / 3, p % 3));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package lab4.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaddedBoardTest {
+
+    @Test
+    void testCaptureAndSuicideLikeBoard() {
+        PaddedBoard b = new PaddedBoard(3);
+        b.set(1, 1, 2);
+        b.set(0, 1, 1);
+        b.set(1, 0, 1);
+        b.set(1, 2, 1);
+
+        assertEquals(1, b.applyMoveAndCapture(2, 1, 1), "Powinien zostać złapany dokładnie 1 kamień");
+        assertEquals(0, b.get(1, 1));
+        assertEquals(-2, b.applyMoveAndCapture(1, 1, 2), "Ruch samobójczy zwraca -2");
+        assertEquals(0, b.get(1, 1), "Pole powinno pozostać puste po odrzuceniu ruchu");
+        assertEquals(-1, b.applyMoveAndCapture(3, 0, 1), "Poza planszą -> -1");
+        assertEquals(-1, b.applyMoveAndCapture(0, 1, 2), "Zajęte pole -> -1");
+    }
+
+    @Test
+    void testSameResultsAsBoardOnRandomGame() {
+        Random rnd = new Random(7);
+        Board ref = new Board(9);
+        PaddedBoard fast = new PaddedBoard(9);
+        int player = 1;
+        for (int i = 0; i < 2000; i++) {
+            int r = rnd.nextInt(9), c = rnd.nextInt(9);
+            int expected = ref.applyMoveAndCapture(r, c, player);
+            assertEquals(expected, fast.applyMoveAndCapture(r, c, player), "Ruch " + i);
+            if (expected >= 0) player = 3 - player;
+        }
+        assertTrue(Board.gridsEqual(ref.grid, fast.toGrid()), "Plansze powinny być identyczne");
+    }
+
+    @Test
+    void visitStampWrapAroundResetsMarks() throws Exception {
+        PaddedBoard b = new PaddedBoard(3);
+        Field stamp = PaddedBoard.class.getDeclaredField("stamp");
+        stamp.setAccessible(true);
+        stamp.setInt(b, -1); // nastepne szukanie grupy przepelnia licznik do 0, a znaczniki maja 0 od poczatku
+        //  O O .     grupa O ma oddech tylko przez drugi kamien
+        //  . X .     X gra (1,0): O nie moze zostac zbite
+        b.set(0, 0, 2);
+        b.set(0, 1, 2);
+        b.set(1, 1, 1);
+        assertEquals(0, b.applyMoveAndCapture(1, 0, 1));
+        assertEquals(2, b.get(0, 0));
+        assertEquals(2, b.get(0, 1));
+        assertTrue(stamp.getInt(b) > 0);
+    }
+}
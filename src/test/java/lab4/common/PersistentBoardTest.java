@@ -0,0 +1,58 @@
+package lab4.common;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentBoardTest {
+
+    @Test
+    void movesCopyOnlyTouchedRowsAndLeaveTheParentUnchanged() {
+        PersistentBoard root = PersistentBoard.empty(9);
+        PersistentBoard a = root.play(4, 4, 1);
+        PersistentBoard b = root.play(2, 2, 2); // drugi wariant z tej samej pozycji
+        assertEquals(0, root.get(4, 4));
+        assertEquals(1, a.get(4, 4));
+        assertEquals(0, a.get(2, 2));
+        assertEquals(2, b.get(2, 2));
+        for (int r = 0; r < 9; r++) assertEquals(r != 4, a.sharesRow(root, r), "Skopiowany tylko wiersz 4");
+        assertNotEquals(root.hash(), a.hash());
+        assertNull(a.play(4, 4, 2), "Zajete pole");
+    }
+
+    @Test
+    void captureAndSuicideFollowBoardRules() {
+        PersistentBoard p = PersistentBoard.empty(3)
+                .play(1, 1, 2).play(0, 1, 1).play(1, 0, 1).play(1, 2, 1);
+        PersistentBoard after = p.play(2, 1, 1);
+        assertEquals(1, after.captured());
+        assertEquals(0, after.get(1, 1));
+        assertEquals(PersistentBoard.empty(3).play(0, 1, 1).play(1, 0, 1).play(1, 2, 1).play(2, 1, 1), after,
+                "Ta sama pozycja inna droga: rowne plansze i hasze");
+        assertNull(after.play(1, 1, 2), "Samobojstwo");
+    }
+
+    @Test
+    void randomGamesMatchBoard() {
+        Random rnd = new Random(3);
+        for (int game = 0; game < 20; game++) {
+            Board ref = new Board(7);
+            PersistentBoard pb = PersistentBoard.empty(7);
+            for (int i = 0; i < 300; i++) {
+                int r = rnd.nextInt(7), c = rnd.nextInt(7), player = 1 + (i & 1);
+                int res = ref.applyMoveAndCapture(r, c, player);
+                PersistentBoard next = pb.play(r, c, player);
+                if (res < 0) {
+                    assertNull(next);
+                    continue;
+                }
+                assertEquals(res, next.captured());
+                pb = next;
+                for (int y = 0; y < 7; y++) for (int x = 0; x < 7; x++) assertEquals(ref.grid[y][x], pb.get(y, x));
+                assertEquals(PersistentBoard.of(ref).hash(), pb.hash(), "Hasz przyrostowy = hasz liczony od nowa");
+            }
+        }
+    }
+}
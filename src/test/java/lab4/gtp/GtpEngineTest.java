@@ -0,0 +1,76 @@
+package lab4.gtp;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtpEngineTest {
+
+    @Test
+    void protocolResponsesAndErrors() {
+        GtpEngine e = new GtpEngine(1);
+        assertEquals("= 2\n\n", e.handle("protocol_version"));
+        assertEquals("=5 true\n\n", e.handle("5 known_command genmove"));
+        assertEquals("= false\n\n", e.handle("known_command fly"));
+        assertEquals("? unknown command\n\n", e.handle("fly"));
+        assertNull(e.handle("   # sam komentarz"));
+        assertEquals("= \n\n", e.handle("boardsize 9 # komentarz"));
+        assertEquals("? unacceptable size\n\n", e.handle("boardsize 40"));
+        assertEquals("? invalid coordinate\n\n", e.handle("play b J10"));
+        assertEquals("= \n\n", e.handle("play black J9")); // J to dziewiata kolumna (bez I)
+        assertEquals(1, e.stone(0, 8));
+        assertEquals("? illegal move\n\n", e.handle("play w j9"));
+    }
+
+    @Test
+    void koIsRejectedAndUndoRestoresCaptures() {
+        GtpEngine e = new GtpEngine(1);
+        e.handle("boardsize 4");
+        // ta sama partia co w ArchiveAnalyzerTest (wiersz 0 = gorny = 4)
+        for (String m : new String[]{"b B4", "w C4", "b A3", "w B3", "b B2", "w C2", "b A1", "w D3"}) {
+            assertEquals("= \n\n", e.handle("play " + m));
+        }
+        assertEquals("= \n\n", e.handle("play b C3")); // zbija B3
+        assertEquals(0, e.stone(1, 1));
+        assertEquals("? illegal move\n\n", e.handle("play w B3"), "Ko: natychmiastowe odbicie");
+        assertEquals("= \n\n", e.handle("undo"));
+        assertEquals(2, e.stone(1, 1), "Undo przywraca zbity kamien");
+        assertEquals(0, e.stone(1, 2));
+        assertEquals(8, e.moves());
+    }
+
+    @Test
+    void finalScoreCountsAreaAndKomi() {
+        GtpEngine e = new GtpEngine(1);
+        e.handle("boardsize 5");
+        e.handle("komi 0.5");
+        for (int row = 1; row <= 5; row++) e.handle("play b B" + row);
+        assertEquals("= B+24.5\n\n", e.handle("final_score")); // cala plansza przylega tylko do czarnych
+        e.handle("komi 1.5");
+        for (int row = 1; row <= 5; row++) e.handle("play w D" + row);
+        // czarne: kolumny A-B (10), biale: D-E (10), kolumna C dotyka obu kolorow, wiec jest niczyja
+        assertEquals("= W+1.5\n\n", e.handle("final_score"));
+        e.handle("clear_board");
+        e.handle("komi 6.5");
+        assertEquals("= W+6.5\n\n", e.handle("final_score"));
+    }
+
+    @Test
+    void seededSelfPlayIsReproducibleAndEndsWithPasses() throws Exception {
+        String script = "boardsize 9\nclear_board\n" + "genmove b\ngenmove w\n".repeat(300) + "final_score\nquit\n";
+        String first = play(script, 42);
+        assertEquals(first, play(script, 42));
+        assertTrue(first.contains("= pass\n\n= pass\n\n"), "Losowe partie koncza sie pasami");
+        assertTrue(first.endsWith("= \n\n"));
+    }
+
+    private static String play(String script, long seed) throws Exception {
+        StringWriter out = new StringWriter();
+        new GtpEngine(seed).run(new BufferedReader(new StringReader(script)), out);
+        return out.toString();
+    }
+}
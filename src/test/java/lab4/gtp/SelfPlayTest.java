@@ -0,0 +1,28 @@
+package lab4.gtp;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SelfPlayTest {
+
+    @Test
+    void gamesAreReproducibleFromSeedWhateverThreadPlaysThem() {
+        List<SelfPlay.GameRecord> a = SelfPlay.run(40, 7, MovePolicy.CAPTURE, MovePolicy.RANDOM, 5);
+        List<SelfPlay.GameRecord> b = SelfPlay.run(40, 7, MovePolicy.CAPTURE, MovePolicy.RANDOM, 5);
+        assertEquals(40, a.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(i, a.get(i).index);
+            assertEquals(a.get(i).moves, b.get(i).moves);
+            assertEquals(a.get(i).score, b.get(i).score);
+            assertEquals(a.get(i).blackCaptures, b.get(i).blackCaptures);
+        }
+        // jedna partia odtworzona osobno, na nowym silniku
+        SelfPlay.GameRecord again = SelfPlay.playGame(new GtpEngine(0), 17, 7, MovePolicy.CAPTURE, MovePolicy.RANDOM, 5);
+        assertEquals(a.get(17).moves, again.moves);
+        assertEquals(a.get(17).score, again.score);
+        assertTrue(a.stream().allMatch(r -> r.illegal == 0), "Wbudowane strategie graja tylko legalne ruchy");
+    }
+}
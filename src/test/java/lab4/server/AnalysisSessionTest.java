@@ -0,0 +1,79 @@
+package lab4.server;
+
+import lab4.common.PersistentBoard;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisSessionTest {
+
+    @Test
+    void variationsBranchAndAreReused() {
+        AnalysisSession a = new AnalysisSession(9);
+        assertNull(a.play(2, 2, 1));
+        assertNull(a.play(6, 6, 2));
+        assertEquals(1, a.toMove());
+        assertNull(a.back(1));
+        assertNull(a.play(2, 6, 2)); // druga odnoga
+        assertEquals(4, a.nodeCount());
+
+        assertNull(a.back(1));
+        assertNull(a.play(6, 6, 2)); // istniejacy wariant, bez nowego wezla
+        assertEquals(4, a.nodeCount());
+        assertEquals(2, a.current());
+
+        assertNull(a.back(1));
+        assertNull(a.forward(1));
+        assertEquals(3, a.current());
+        assertEquals(2, a.board().get(2, 6));
+        assertEquals(0, a.board().get(6, 6));
+        assertNotNull(a.forward(0)); // brak dalszych wariantow
+    }
+
+    @Test
+    void koIsRejected() {
+        AnalysisSession a = new AnalysisSession(5);
+        int[][] moves = {{0, 1, 1}, {0, 2, 2}, {1, 0, 1}, {2, 2, 2}, {2, 1, 1}, {1, 3, 2}, {4, 4, 1}, {1, 1, 2}};
+        for (int[] m : moves) assertNull(a.play(m[0], m[1], m[2]));
+        assertNull(a.play(1, 2, 1)); // bicie w ko
+        assertEquals(1, a.board().captured());
+        assertNotNull(a.play(1, 1, 2)); // natychmiastowe odbicie
+        assertNull(a.pass(2));
+        assertNull(a.play(3, 3, 1));
+        assertNull(a.play(1, 1, 2)); // po wymianie odbicie jest juz dozwolone
+    }
+
+    @Test
+    void evictedPositionsAreRebuiltFromAncestors() {
+        AnalysisSession a = new AnalysisSession(25);
+        PersistentBoard expected = PersistentBoard.empty(25);
+        PersistentBoard atNode10 = null;
+        for (int i = 0; a.nodeCount() <= AnalysisSession.CACHED_POSITIONS + 100; i++) {
+            assertNull(a.play(i / 25, i % 25, 1));
+            assertNull(a.pass(2));
+            expected = expected.play(i / 25, i % 25, 1);
+            if (a.current() == 10) atNode10 = expected;
+        }
+        assertEquals(expected, a.board());
+
+        long rebuilds = ServerMetrics.analysisRebuilds.sum();
+        assertTrue(a.goTo(10));
+        assertEquals(rebuilds + 1, ServerMetrics.analysisRebuilds.sum());
+        assertEquals(atNode10, a.board());
+
+        assertTrue(a.goTo(0));
+        assertEquals(PersistentBoard.empty(25), a.board());
+        assertFalse(a.goTo(a.nodeCount()));
+    }
+
+    @Test
+    void gameIsLoadedAsMainLine() {
+        int[] moves = {MoveHistory.packMove(0, 0, 1, 0), MoveHistory.packMove(1, 1, 2, 0), MoveHistory.packPass(1)};
+        AnalysisSession a = AnalysisSession.ofGame(9, moves);
+        assertEquals(3, a.current());
+        assertEquals(2, a.toMove());
+        assertTrue(a.goTo(0));
+        assertNull(a.forward(0));
+        assertEquals(1, a.board().get(0, 0));
+    }
+}
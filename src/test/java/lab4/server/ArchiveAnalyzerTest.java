@@ -0,0 +1,87 @@
+package lab4.server;
+
+import lab4.common.Board;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveAnalyzerTest {
+
+    @Test
+    void archiveLineRoundtrip() {
+        MoveHistory h = new MoveHistory(9);
+        Board b = new Board(9);
+        b.applyMoveAndCapture(4, 4, 1);
+        h.record(MoveHistory.packMove(4, 4, 1, 0), b);
+        h.record(MoveHistory.packPass(2), b);
+
+        int[] parsed = GameArchive.parse(GameArchive.format(h));
+        assertArrayEquals(new int[]{9, h.get(1), h.get(2)}, parsed);
+        assertThrows(IllegalArgumentException.class, () -> GameArchive.parse("9 x"));
+    }
+
+    @Test
+    void analyzeCountsCapturesKoAndPasses(@TempDir Path dir) throws Exception {
+        // gra na planszy 4x4 konczona zbiciem w ko i dwoma pasami:
+        //  . X O .
+        //  X O . O     X gra (1,2) i zbija O z (1,1); X na (1,2) zostaje sam z jednym oddechem
+        //  . X O .
+        int[] game = {
+                MoveHistory.packMove(0, 1, 1, 0),
+                MoveHistory.packMove(0, 2, 2, 0),
+                MoveHistory.packMove(1, 0, 1, 0),
+                MoveHistory.packMove(1, 1, 2, 0),
+                MoveHistory.packMove(2, 1, 1, 0),
+                MoveHistory.packMove(2, 2, 2, 0),
+                MoveHistory.packMove(3, 0, 1, 0),
+                MoveHistory.packMove(1, 3, 2, 0),
+                MoveHistory.packMove(1, 2, 1, 1),
+                MoveHistory.packPass(2),
+                MoveHistory.packPass(1),
+        };
+        StringBuilder line = new StringBuilder("4");
+        for (int m : game) line.append(' ').append(m);
+        Path f = dir.resolve("games.txt");
+        Files.write(f, List.of(line.toString(), "5 " + MoveHistory.packPass(1), "garbage"));
+
+        ArchiveAnalyzer.Stats s = ArchiveAnalyzer.analyze(List.of(f));
+        assertEquals(2, s.games);
+        assertEquals(1, s.badGames);
+        assertEquals(game.length + 1, s.moves);
+        assertEquals(3, s.passes);
+        assertEquals(1, s.endedByPasses);
+        assertEquals(1, s.capturingMoves);
+        assertEquals(1, s.captureSizes[1]);
+        assertEquals(1, s.koCaptures);
+        assertTrue(s.report().endsWith("Moves per game:\n  1: 1\n  " + game.length + ": 1\n"), s.report());
+    }
+
+    @Test
+    void gameWithIllegalMoveAfterCaptureCountsOnlyAsBad(@TempDir Path dir) throws Exception {
+        // X zbija O w rogu, potem O gra na zajetym punkcie
+        int[] game = {
+                MoveHistory.packMove(0, 0, 2, 0),
+                MoveHistory.packMove(0, 1, 1, 0),
+                MoveHistory.packMove(3, 3, 2, 0),
+                MoveHistory.packMove(1, 0, 1, 1),
+                MoveHistory.packMove(0, 1, 2, 0),
+        };
+        StringBuilder line = new StringBuilder("4");
+        for (int m : game) line.append(' ').append(m);
+        Path f = dir.resolve("games.txt");
+        Files.write(f, List.of(line.toString()));
+
+        ArchiveAnalyzer.Stats s = ArchiveAnalyzer.analyze(List.of(f));
+        assertEquals(0, s.games);
+        assertEquals(1, s.badGames);
+        assertEquals(0, s.moves);
+        assertEquals(0, s.capturingMoves);
+        assertEquals(0, s.koCaptures);
+        for (long n : s.captureSizes) assertEquals(0, n);
+    }
+}
@@ -0,0 +1,65 @@
+package lab4.server;
+
+import lab4.common.Board;
+import lab4.common.JsonUtil;
+import lab4.common.PersistentBoard;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoardFrameCacheTest {
+
+    @Test
+    void samePositionIsSerializedOnce() {
+        PersistentBoard p = PersistentBoard.empty(13).play(3, 3, 1).play(9, 9, 2);
+        long misses = ServerMetrics.boardCacheMisses.sum();
+        long hits = ServerMetrics.boardCacheHits.sum();
+        Frame first = BoardFrameCache.of(p);
+        Frame second = BoardFrameCache.of(PersistentBoard.empty(13).play(9, 9, 2).play(3, 3, 1)); // inna kolejnosc, ta sama pozycja
+        assertSame(first, second);
+        assertEquals(misses + 1, ServerMetrics.boardCacheMisses.sum());
+        assertEquals(hits + 1, ServerMetrics.boardCacheHits.sum());
+
+        // mutowalna plansza z tymi samymi kamieniami ma ten sam hash i dostaje ta sama ramke
+        Board b = new Board(13);
+        b.applyMoveAndCapture(3, 3, 1);
+        b.applyMoveAndCapture(9, 9, 2);
+        assertEquals(p.hash(), PersistentBoard.hashOf(b));
+        assertSame(first, BoardFrameCache.get(13, PersistentBoard.hashOf(b), BoardFrameCache.pack(b)));
+        assertEquals("BOARD " + JsonUtil.boardToJson(b), first.toString().trim());
+    }
+
+    @Test
+    void sizesDoNotShareFrames() {
+        Frame nine = BoardFrameCache.of(PersistentBoard.empty(9));
+        Frame nineteen = BoardFrameCache.of(PersistentBoard.empty(19));
+        assertNotSame(nine, nineteen);
+        assertTrue(nine.length() < nineteen.length());
+    }
+
+    @Test
+    void cacheIsBounded() {
+        SplittableRandom rnd = new SplittableRandom(5);
+        Frame f = BoardFrameCache.of(PersistentBoard.empty(5));
+        byte[] position = BoardFrameCache.pack(PersistentBoard.empty(5));
+        for (int i = 0; i < BoardFrameCache.capacity() * 3; i++) BoardFrameCache.put(5, rnd.nextLong(), position, f);
+        assertTrue(BoardFrameCache.size() <= BoardFrameCache.capacity());
+    }
+
+    @Test
+    void sameHashWithOtherStonesIsAMiss() {
+        // pozycja dobrana pod cudzy hash (klucze Zobrista sa jawne) nie moze podmienic ramki innej gry
+        PersistentBoard real = PersistentBoard.empty(9).play(4, 4, 1);
+        PersistentBoard forged = PersistentBoard.empty(9).play(0, 0, 2).play(8, 8, 1);
+        Frame realFrame = BoardFrameCache.of(real);
+        Frame forgedFrame = Frame.of("BOARD forged");
+        BoardFrameCache.put(9, real.hash(), BoardFrameCache.pack(forged), forgedFrame); // ten sam hash, inne kamienie
+
+        assertSame(realFrame, BoardFrameCache.get(9, real.hash(), BoardFrameCache.pack(real)));
+        assertSame(forgedFrame, BoardFrameCache.get(9, real.hash(), BoardFrameCache.pack(forged)));
+        assertNull(BoardFrameCache.get(9, real.hash(), BoardFrameCache.pack(PersistentBoard.empty(9).play(4, 4, 2))));
+        assertSame(realFrame, BoardFrameCache.of(real));
+    }
+}
@@ -0,0 +1,37 @@
+package lab4.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameTest {
+
+    @Test
+    void framesEncodeAsciiAndUtf8Lines() {
+        assertEquals("WYNIKI1 3", Frame.of(new StringBuilder("WYNIKI1 ").append(3)).toString());
+        assertEquals(10, Frame.of("WYNIKI1 3").length());
+        Frame polish = Frame.of("INFO Gracz się rozłączył");
+        assertEquals("INFO Gracz się rozłączył", polish.toString());
+        assertEquals("INFO Gracz się rozłączył\n".getBytes(StandardCharsets.UTF_8).length, polish.length());
+    }
+
+    @Test
+    void oneFrameIsSharedByAllRecipients() {
+        Frame board = Frame.of("BOARD {\"size\":2,\"grid\":[[0,1],[0,0]]}");
+        ByteArrayOutputStream[] outs = new ByteArrayOutputStream[3];
+        for (int i = 0; i < outs.length; i++) {
+            outs[i] = new ByteArrayOutputStream();
+            ClientHandler h = new ClientHandler(null, InputStream.nullInputStream(), outs[i]);
+            h.sendFrame(board);
+            h.sendLine("YOUR_TURN");
+            h.flush();
+        }
+        for (ByteArrayOutputStream out : outs) {
+            assertEquals("BOARD {\"size\":2,\"grid\":[[0,1],[0,0]]}\nYOUR_TURN\n", out.toString(StandardCharsets.UTF_8));
+        }
+    }
+}
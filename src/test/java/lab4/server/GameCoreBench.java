@@ -0,0 +1,63 @@
+package lab4.server;
+
+import java.util.Random;
+
+/**
+ * Przepustowosc samej logiki gry, bez socketow i watkow (uruchamiany recznie):
+ * java -cp target/classes:target/test-classes lab4.server.GameCoreBench [games] [commandsPerGame] [size]
+ *
+ * Drives GameCore directly with pre-generated random commands (moves, some
+ * passes and out-of-turn commands) and no listener, so the number is rules,
+ * Ko check and history only. Compare with ShardBench, which adds the protocol
+ * output and the shard executors on top.
+ */
+public class GameCoreBench {
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int commandsPerGame = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 9;
+        int[] commands = commands(commandsPerGame, size, 42);
+        System.out.println("games=" + games + " commandsPerGame=" + commandsPerGame + " size=" + size);
+        for (int round = 0; round < 5; round++) { // pierwsze rundy to rozgrzewka JIT
+            long t0 = System.nanoTime();
+            long accepted = 0;
+            for (int g = 0; g < games; g++) accepted += run(new GameCore(size), commands);
+            double seconds = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("round %d: %,.0f commands/s (%,d accepted)%n", round, games * (double) commandsPerGame / seconds, accepted);
+        }
+    }
+
+    /**
+     * Generates commands: point index, -1 for a pass, or -2 for a move out of turn.
+     *
+     * @return commands
+     */
+    private static int[] commands(int n, int size, long seed) {
+        Random rnd = new Random(seed);
+        int[] c = new int[n];
+        for (int i = 0; i < n; i++) {
+            int kind = rnd.nextInt(50);
+            c[i] = kind == 0 ? -1 : kind == 1 ? -2 : rnd.nextInt(size * size);
+        }
+        return c;
+    }
+
+    /**
+     * Plays one game; a stopped game is resumed at once.
+     *
+     * @return accepted moves and passes
+     */
+    private static int run(GameCore g, int[] commands) {
+        int size = g.board().size;
+        g.start();
+        for (int c : commands) {
+            int player = g.currentPlayer();
+            if (g.isStopped()) g.resume(player);
+            else if (c == -1) g.pass(player);
+            else if (c == -2) g.move(3 - player, 0, 0);
+            else g.move(player, c / size, c % size);
+        }
+        return g.history().size();
+    }
+}
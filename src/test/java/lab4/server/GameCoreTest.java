@@ -0,0 +1,159 @@
+package lab4.server;
+
+import lab4.common.Board;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameCoreTest {
+
+    /** Zapisuje zdarzenia jako tekst, zeby porownywac cale przebiegi. */
+    private static final class EventLog implements GameCore.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override public void started() { events.add("started"); }
+        @Override public void moveAccepted(int player, int row, int col, int captured) { events.add("move " + player + " " + row + " " + col + " " + captured); }
+        @Override public void passed(int player) { events.add("pass " + player); }
+        @Override public void turn(int player) { events.add("turn " + player); }
+        @Override public void agreementStarted() { events.add("agreement"); }
+        @Override public void resumed(int player) { events.add("resumed " + player); }
+        @Override public void finishVoted(int player) { events.add("finish " + player); }
+        @Override public void gameOver(int winner, int reason) { events.add("over " + winner + " " + reason); }
+    }
+
+    /** Losowe komendy (ruchy, pasy, wznowienia) z ziarna; zwraca kody wynikow. */
+    private static List<Integer> play(GameCore g, long seed, int commands) {
+        Random rnd = new Random(seed);
+        int size = g.board().size;
+        List<Integer> results = new ArrayList<>();
+        g.start();
+        for (int i = 0; i < commands; i++) {
+            int player = rnd.nextInt(5) == 0 ? 3 - g.currentPlayer() : g.currentPlayer(); // czasem nie ten gracz
+            int kind = rnd.nextInt(30);
+            if (g.isStopped()) results.add(g.resume(player));
+            else if (kind == 0) results.add(g.pass(player));
+            else results.add(g.move(player, rnd.nextInt(size), rnd.nextInt(size)));
+        }
+        return results;
+    }
+
+    @Test
+    void sameCommandsGiveSameEventsAndBoard() {
+        GameCore a = new GameCore(9), b = new GameCore(9);
+        EventLog la = new EventLog(), lb = new EventLog();
+        a.setListener(la);
+        b.setListener(lb);
+        assertEquals(play(a, 7, 3000), play(b, 7, 3000));
+        assertEquals(la.events, lb.events);
+        assertArrayEquals(a.board().grid, b.board().grid);
+        assertArrayEquals(a.captures, b.captures);
+        assertTrue(a.history().size() > 100);
+    }
+
+    @Test
+    void replayingHistoryRebuildsTheGame() {
+        for (int size : new int[] {5, 9, 13}) {
+            GameCore live = new GameCore(size);
+            play(live, size, 2000);
+
+            // tylko przyjete komendy z historii, bez wznowien: ta sama pozycja i wyniki
+            GameCore replay = new GameCore(size);
+            replay.start();
+            MoveHistory h = live.history();
+            for (int n = 1; n <= h.size(); n++) {
+                int m = h.get(n), p = MoveHistory.player(m);
+                if (replay.isStopped()) replay.resume(3 - p);
+                int r = MoveHistory.isPass(m) ? replay.pass(p) : replay.move(p, MoveHistory.row(m), MoveHistory.col(m));
+                assertEquals(MoveHistory.isPass(m) ? GameCore.OK : MoveHistory.captured(m), r, "move " + n);
+            }
+            assertArrayEquals(live.board().grid, replay.board().grid);
+            assertArrayEquals(live.captures, replay.captures);
+            assertArrayEquals(live.history().positionAt(h.size()).grid, replay.board().grid);
+        }
+    }
+
+    @Test
+    void koIsRefusedWithoutChangingState() {
+        GameCore g = new GameCore(5);
+        g.start();
+        // klasyczne Ko w lewym gornym rogu
+        int[][] moves = {{0, 1}, {0, 2}, {1, 0}, {1, 3}, {2, 1}, {2, 2}, {4, 4}, {1, 1}};
+        for (int[] m : moves) assertTrue(g.move(g.currentPlayer(), m[0], m[1]) >= 0);
+        assertEquals(1, g.move(1, 1, 2)); // X bije O na (1,1)
+        int[][] before = g.board().getGridCopy();
+        EventLog log = new EventLog();
+        g.setListener(log);
+        assertEquals(GameCore.KO, g.move(2, 1, 1)); // natychmiastowe odbicie
+        assertArrayEquals(before, g.board().grid);
+        assertEquals(2, g.currentPlayer());
+        assertTrue(log.events.isEmpty());
+        assertEquals(GameCore.OCCUPIED, g.move(2, 1, 2));
+        assertEquals(GameCore.NOT_YOUR_TURN, g.move(1, 3, 3));
+    }
+
+    @Test
+    void agreementResumeAndFinish() {
+        GameCore g = new GameCore(9);
+        EventLog log = new EventLog();
+        g.setListener(log);
+        assertEquals(GameCore.NOT_STARTED, g.pass(1));
+        g.start();
+        assertEquals(GameCore.NOT_STOPPED, g.resume(1));
+        g.pass(1);
+        g.pass(2);
+        assertTrue(g.isStopped());
+        assertEquals(GameCore.STOPPED, g.move(1, 0, 0));
+        g.voteFinish(1);
+        assertEquals(GameCore.OK, g.resume(1));
+        assertEquals(2, g.currentPlayer()); // zaczyna przeciwnik proszacego o wznowienie
+        g.pass(2);
+        g.pass(1);
+        g.voteFinish(2); // glos sprzed wznowienia sie nie liczy
+        assertFalse(g.isOver());
+        g.voteFinish(1);
+        assertTrue(g.isOver());
+        assertEquals(0, g.winner());
+        assertEquals(GameCore.OVER, g.resign(1));
+        assertEquals(List.of("started", "turn 1", "pass 1", "turn 2", "pass 2", "agreement", "finish 1",
+                "resumed 1", "turn 2", "pass 2", "turn 1", "pass 1", "agreement", "finish 2", "finish 1",
+                "over 0 " + GameCore.AGREED), log.events);
+    }
+
+    @Test
+    void resignEndsTheGame() {
+        GameCore g = new GameCore(9);
+        g.start();
+        g.move(1, 4, 4);
+        assertEquals(GameCore.OK, g.resign(1));
+        assertTrue(g.isOver());
+        assertEquals(2, g.winner());
+        assertEquals(GameCore.OVER, g.move(2, 3, 3));
+    }
+
+    @Test
+    void snapshotRoundtrip() {
+        GameCore g = new GameCore(13);
+        play(g, 21, 500);
+        ByteBuffer buf = ByteBuffer.allocate(g.snapshotBytes());
+        g.writeTo(buf);
+        assertEquals(buf.capacity(), buf.position());
+        buf.flip();
+        GameCore back = GameCore.readFrom(buf);
+        assertArrayEquals(g.board().grid, back.board().grid);
+        assertArrayEquals(g.previousBoard(), back.previousBoard());
+        assertArrayEquals(g.captures, back.captures);
+        assertEquals(g.currentPlayer(), back.currentPlayer());
+        assertEquals(g.isStopped(), back.isStopped());
+        assertEquals(g.history().size(), back.history().size());
+
+        // obie gry graja dalej identycznie
+        Board expected = g.board();
+        assertEquals(play(g, 22, 300), play(back, 22, 300));
+        assertArrayEquals(expected.grid, back.board().grid);
+    }
+}
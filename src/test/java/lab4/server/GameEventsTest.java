@@ -0,0 +1,62 @@
+package lab4.server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import lab4.common.Move;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameEventsTest {
+
+    @Test
+    void movesKoAndStateChangesAreRecorded(@TempDir Path dir) throws Exception {
+        GameSession gs = new GameSession(3, 4);
+        ClientHandler[] h = new ClientHandler[3];
+        for (int id = 1; id <= 2; id++) {
+            h[id] = new ClientHandler(null, InputStream.nullInputStream(), OutputStream.nullOutputStream());
+            h[id].setPlayerId(id);
+            h[id].setSession(gs);
+            gs.register(h[id]);
+        }
+        Path file = dir.resolve("game.jfr");
+        try (Recording r = new Recording()) {
+            for (String name : List.of("lab4.MoveApplied", "lab4.KoRejected", "lab4.Broadcast", "lab4.GameStateChanged")) {
+                r.enable(name);
+            }
+            r.start();
+            gs.startGame();
+            // ta sama partia co w ArchiveAnalyzerTest: X zbija w ko na (1,2), O od razu odbija na (1,1)
+            int[][] moves = {{0, 1}, {0, 2}, {1, 0}, {1, 1}, {2, 1}, {2, 2}, {3, 0}, {1, 3}, {1, 2}, {1, 1}};
+            for (int[] m : moves) {
+                int p = gs.getCurrentPlayer();
+                gs.applyMove(new Move(m[0], m[1], p), h[p]);
+            }
+            gs.playerPassed(h[2]);
+            gs.playerPassed(h[1]);
+            r.stop();
+            r.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        List<RecordedEvent> applied = events.stream().filter(e -> e.getEventType().getName().equals("lab4.MoveApplied")).collect(Collectors.toList());
+        assertEquals(10, applied.size());
+        assertEquals(1, applied.get(8).getInt("captures"));
+        assertEquals(GameEvents.KO, applied.get(9).getInt("result"));
+        assertEquals(1, events.stream().filter(e -> e.getEventType().getName().equals("lab4.KoRejected")).count());
+        List<String> states = events.stream().filter(e -> e.getEventType().getName().equals("lab4.GameStateChanged"))
+                .map(e -> e.getString("state")).collect(Collectors.toList());
+        assertEquals(List.of("STARTED", "AGREEMENT"), states);
+        RecordedEvent board = events.stream().filter(e -> e.getEventType().getName().equals("lab4.Broadcast")).findFirst().orElseThrow();
+        assertEquals(2, board.getInt("recipients"));
+        assertEquals(2L * board.getInt("frameBytes"), board.getLong("totalBytes"));
+    }
+}
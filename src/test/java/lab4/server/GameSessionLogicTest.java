@@ -4,7 +4,23 @@ import lab4.common.Board;
 import lab4.common.Move;
 import org.junit.jupiter.api.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,4 +80,257 @@ class GameSessionLogicTest {
         assertEquals(-2, result); // nie pozwala na suicide
         assertEquals(0, board.grid[2][2]); // przeciecie pozostaje puste
     }
-}
\ No newline at end of file
+
+    /** Tworzy gracza bez socketu, z wyjsciem do bufora. */
+    private static ClientHandler player(GameSession gs, int id, InputStream in, ByteArrayOutputStream out) {
+        ClientHandler h = new ClientHandler(null, in, out);
+        h.setPlayerId(id);
+        h.setSession(gs);
+        gs.register(h);
+        return h;
+    }
+
+    @Test
+    void conditionalReplyIsPlayedWhenOpponentMoveLands() throws Exception {
+        GameSession gs = new GameSession(1, 5);
+        ClientHandler p1 = player(gs, 1, InputStream.nullInputStream(), new ByteArrayOutputStream());
+        ClientHandler p2 = player(gs, 2, InputStream.nullInputStream(), new ByteArrayOutputStream());
+        gs.startGame();
+
+        gs.addConditionalMove(p2, new Move(0, 0, 1), new Move(4, 4, 2)); // nie zajdzie
+        gs.addConditionalMove(p2, new Move(2, 2, 1), new Move(2, 3, 2));
+        gs.applyMove(new Move(2, 2, 1), p1);
+
+        Field boardField = GameSession.class.getDeclaredField("board");
+        boardField.setAccessible(true);
+        Board board = (Board) boardField.get(gs);
+        assertEquals(2, board.grid[2][3], "Odpowiedz warunkowa zagrana od razu");
+        assertEquals(0, board.grid[4][4]);
+        assertEquals(1, gs.getCurrentPlayer());
+
+        gs.applyMove(new Move(0, 0, 1), p1); // warunki zostaly wyczyszczone po poprzednim ruchu
+        assertEquals(0, board.grid[4][4]);
+        assertEquals(2, gs.getCurrentPlayer());
+    }
+
+    @Test
+    void requestIdsAreEchoedInOkAndError() {
+        GameSession gs = new GameSession(1, 5);
+        String input = "#a1 MOVE {\"row\":1,\"col\":1,\"player\":1}\n#a2 MOVE {\"row\":1,\"col\":2,\"player\":1}\nPASS\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClientHandler p1 = player(gs, 1, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        player(gs, 2, InputStream.nullInputStream(), new ByteArrayOutputStream());
+        gs.startGame();
+
+        p1.run(); // bez shardow komendy wykonuja sie od razu
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertTrue(text.contains("OK #a1\n"));
+        assertTrue(text.contains("ERROR #a2 Not your turn\n"));
+        assertFalse(text.contains("OK #a2"));
+        assertTrue(text.contains("ERROR Not your turn\n"), "Bez id - bez zmian w protokole");
+    }
+
+    @Test
+    void floodOfCommandsIsCutByRateLimit() {
+        GameSession gs = new GameSession(1, 5);
+        StringBuilder input = new StringBuilder();
+        int sent = RateLimiter.DEFAULT_BURST + 30;
+        for (int i = 0; i < sent; i++) input.append('#').append(i).append(" HISTORY\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClientHandler p1 = player(gs, 1, new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), out);
+        player(gs, 2, InputStream.nullInputStream(), new ByteArrayOutputStream());
+        gs.startGame();
+
+        long dropped = ServerMetrics.commandsDropped.sum();
+        p1.run();
+        String text = out.toString(StandardCharsets.UTF_8);
+        for (int i = 0; i < RateLimiter.DEFAULT_BURST; i++) assertTrue(text.contains("OK #" + i + "\n"), "Pelny kubelek: " + i);
+        assertTrue(text.contains("ERROR #" + (sent - 1) + " Too many commands, slow down\n"));
+        assertTrue(ServerMetrics.commandsDropped.sum() - dropped >= 20);
+    }
+
+    @Test
+    void requestIdsStayWithTheirCommandsWhileFlooding() throws Exception {
+        SessionScheduler scheduler = new SessionScheduler(1);
+        System.setProperty(RateLimiter.RATE_PROPERTY, "1"); // po pierwszej komendzie wszystko jest odrzucane
+        System.setProperty(RateLimiter.BURST_PROPERTY, "1");
+        AtomicBoolean armed = new AtomicBoolean();
+        CountDownLatch writing = new CountDownLatch(1), release = new CountDownLatch(1);
+        OutputStream opponent = new OutputStream() { // przeciwnik przestaje odbierac: shard stoi w srodku rozsylania #A
+            @Override public void write(int b) { write(new byte[]{(byte) b}, 0, 1); }
+            @Override public void write(byte[] b, int off, int len) {
+                if (!armed.get()) return;
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        PipedOutputStream client = new PipedOutputStream(); // zamkniecie konczy watek czytajacy p1
+        try (PipedInputStream in = new PipedInputStream(client, 64 * 1024)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ClientHandler p1 = new ClientHandler(null, in, out);
+            ClientHandler p2 = new ClientHandler(null, InputStream.nullInputStream(), opponent);
+            GameSession gs = new GameSession(1, 9);
+            gs.setExecutor(scheduler.executorFor(1));
+            CountDownLatch started = new CountDownLatch(1);
+            gs.execute(null, () -> {
+                for (int id = 1; id <= 2; id++) {
+                    ClientHandler h = id == 1 ? p1 : p2;
+                    h.setPlayerId(id);
+                    h.setSession(gs);
+                    gs.register(h);
+                }
+                gs.startGame();
+                started.countDown();
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            int free = ClientHandler.OUT_BUFFER_SIZE - 8 * 1024; // bufor p2 pelny poza jednym bajtem: #A musi go zapisac
+            p2.sendLine("INFO " + "x".repeat(8 * 1024 - 6));
+            p2.sendLine("INFO " + "x".repeat(free - 7));
+            armed.set(true);
+
+            Thread reader = new Thread(p1::run);
+            reader.start();
+            client.write("#A MOVE {\"row\":4,\"col\":4,\"player\":1}\n".getBytes(StandardCharsets.UTF_8));
+            client.flush();
+            assertTrue(writing.await(5, TimeUnit.SECONDS), "#A stoi na shardzie w trakcie rozsylania");
+            int flood = 50;
+            for (int i = 0; i < flood; i++) client.write(("#B" + i + " PASS\n").getBytes(StandardCharsets.UTF_8));
+            client.flush();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!out.toString(StandardCharsets.UTF_8).contains("#B" + (flood - 1) + " ") && System.nanoTime() < deadline) Thread.sleep(5);
+            release.countDown(); // #A konczy sie dopiero teraz
+            client.close();
+            reader.join(5000);
+            CountDownLatch drained = new CountDownLatch(1);
+            gs.execute(null, drained::countDown);
+            assertTrue(drained.await(5, TimeUnit.SECONDS));
+
+            String text = out.toString(StandardCharsets.UTF_8);
+            assertEquals(1, count(text, "OK #A\n"), "#A zakonczylo sie bez bledu: " + text);
+            assertFalse(text.contains("ERROR #A"));
+            for (int i = 0; i < flood; i++) {
+                assertEquals(1, count(text, "ERROR #B" + i + " Too many commands, slow down\n"), "#B" + i);
+                assertFalse(text.contains("OK #B" + i + "\n"));
+            }
+        } finally {
+            release.countDown();
+            client.close();
+            System.clearProperty(RateLimiter.RATE_PROPERTY);
+            System.clearProperty(RateLimiter.BURST_PROPERTY);
+            scheduler.shutdown();
+        }
+    }
+
+    private static int count(String text, String part) {
+        int n = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) n++;
+        return n;
+    }
+
+    /**
+     * Measures, in this JVM, the most heap a frame takes besides its encoded
+     * bytes (array header, Frame object and alignment), over lines of every
+     * length modulo the object alignment.
+     */
+    private static long maxFrameOverhead(com.sun.management.ThreadMXBean mx) {
+        Frame[] keep = new Frame[64]; // ramki zostaja osiagalne: JIT nie usunie alokacji
+        long max = 0;
+        for (int round = 0; round < 2; round++) { // pierwsza runda laduje klasy
+            for (int len = 0; len < keep.length; len++) {
+                String line = "x".repeat(len);
+                long before = mx.getCurrentThreadAllocatedBytes();
+                keep[len] = Frame.of(line);
+                long overhead = mx.getCurrentThreadAllocatedBytes() - before - keep[len].length();
+                if (round == 1) max = Math.max(max, overhead);
+            }
+        }
+        return max;
+    }
+
+    @Test
+    void applyMoveAllocatesOnlyBroadcastFrames() throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled());
+        Random rnd = new Random(7);
+        Move m = new Move();
+        Field historyField = GameSession.class.getDeclaredField("history");
+        historyField.setAccessible(true);
+        long allocated = 0, frameBytes = 0, frameCount = 0;
+        for (int round = 0; round < 20; round++) { // pierwsze rundy to rozgrzewka (ladowanie klas, JIT)
+            GameSession gs = new GameSession(1, 9);
+            ClientHandler[] h = new ClientHandler[3];
+            for (int id = 1; id <= 2; id++) {
+                h[id] = new ClientHandler(null, InputStream.nullInputStream(), OutputStream.nullOutputStream());
+                h[id].setPlayerId(id);
+                h[id].setSession(gs);
+                gs.register(h[id]);
+            }
+            gs.startGame();
+            MoveHistory history = (MoveHistory) historyField.get(gs);
+            // do 31 ruchow: bez klatki kluczowej historii (co 32) i bez powiekszania tablicy ruchow
+            long frames = ServerMetrics.framesEncoded.sum(), bytes = ServerMetrics.frameBytes.sum();
+            long before = mx.getCurrentThreadAllocatedBytes();
+            while (history.size() < MoveHistory.KEYFRAME_INTERVAL - 1) {
+                int point = rnd.nextInt(81);
+                m.row = point / 9;
+                m.col = point % 9;
+                m.player = gs.getCurrentPlayer();
+                gs.applyMove(m, h[m.player]);
+            }
+            long delta = mx.getCurrentThreadAllocatedBytes() - before;
+            if (round >= 10) {
+                allocated += delta;
+                frameCount += ServerMetrics.framesEncoded.sum() - frames;
+                frameBytes += ServerMetrics.frameBytes.sum() - bytes;
+            }
+        }
+        // jedyne alokacje to ramki rozsylane do klientow: ich bajty i naglowki (tablica + obiekt Frame, z wyrownaniem)
+        long overhead = maxFrameOverhead(mx);
+        assertTrue(allocated - frameBytes <= frameCount * overhead, "applyMove allocated " + allocated
+                + " bytes for " + frameCount + " frames of " + frameBytes + " bytes (at most " + overhead + " more per frame)");
+    }
+
+    @Test
+    void rejoinReplacesHalfOpenConnection() throws Exception {
+        GameSession gs = new GameSession(1, 9);
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(server.getInetAddress(), server.getLocalPort());
+             Socket accepted = server.accept()) {
+            // stare polaczenie gracza 1: gniazdo otwarte, rozlaczenie nigdy nie zostalo wykryte
+            ClientHandler stale = new ClientHandler(accepted, null);
+            stale.setPlayerId(1);
+            stale.setSession(gs);
+            gs.register(stale);
+            player(gs, 2, InputStream.nullInputStream(), new ByteArrayOutputStream());
+            gs.startGame();
+
+            Field tokens = GameSession.class.getDeclaredField("resumeTokens");
+            tokens.setAccessible(true);
+            String token = ((String[]) tokens.get(gs))[1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ClientHandler fresh = new ClientHandler(null, InputStream.nullInputStream(), out);
+            assertTrue(gs.rejoin(fresh, token, 0));
+            fresh.flush();
+            assertTrue(out.toString(StandardCharsets.UTF_8).startsWith("REJOINED 1\n"));
+            assertTrue(accepted.isClosed(), "stare gniazdo jest zamykane");
+            client.setSoTimeout(5000); // bez zamkniecia readAllBytes rzucilby SocketTimeoutException
+            client.getInputStream().readAllBytes(); // to, co stare polaczenie zdazylo wyslac, az do EOF
+            assertEquals(-1, client.getInputStream().read(), "klient widzi koniec starego polaczenia");
+
+            Field observersField = GameSession.class.getDeclaredField("observers");
+            observersField.setAccessible(true);
+            List<?> observers = (List<?>) observersField.get(gs);
+            assertFalse(observers.contains(stale));
+            assertTrue(observers.contains(fresh));
+            assertEquals(2, observers.size());
+
+            gs.clientDisconnected(stale); // watek czytajacy starego polaczenia konczy sie pozniej
+            assertTrue(observers.contains(fresh));
+            assertTrue(gs.isRunning());
+        }
+    }
+}
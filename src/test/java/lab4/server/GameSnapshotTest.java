@@ -0,0 +1,115 @@
+package lab4.server;
+
+import lab4.common.Board;
+import lab4.common.Move;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameSnapshotTest {
+
+    /** Gra z dwoma graczami bez socketow, rozegrana losowo do podanej liczby ruchow. */
+    private static GameSession playedGame(int id, int size, int moves, long seed) {
+        GameSession gs = new GameSession(id, size);
+        ClientHandler[] h = new ClientHandler[3];
+        for (int p = 1; p <= 2; p++) {
+            h[p] = new ClientHandler(null, InputStream.nullInputStream(), new ByteArrayOutputStream());
+            h[p].setPlayerId(p);
+            h[p].setSession(gs);
+            gs.register(h[p]);
+        }
+        gs.startGame();
+        Random rnd = new Random(seed);
+        Move m = new Move();
+        for (int tries = 0; tries < moves * 20 && gs.packedMoves().length < moves; tries++) {
+            int point = rnd.nextInt(size * size);
+            m.row = point / size;
+            m.col = point % size;
+            m.player = gs.getCurrentPlayer();
+            gs.applyMove(m, h[m.player]);
+        }
+        return gs;
+    }
+
+    private static Object field(GameSession gs, String name) throws Exception {
+        Field f = GameSession.class.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(gs);
+    }
+
+    @Test
+    void gridsArePackedTwoBitsPerPoint() {
+        int[][] grid = new int[5][5];
+        Random rnd = new Random(1);
+        for (int[] row : grid) for (int c = 0; c < 5; c++) row[c] = rnd.nextInt(3);
+        ByteBuffer buf = ByteBuffer.allocate(GameSnapshot.gridBytes(5));
+        GameSnapshot.putGrid(buf, grid);
+        assertEquals(7, buf.position()); // 25 punktow -> 7 bajtow
+        buf.flip();
+        int[][] back = new int[5][5];
+        GameSnapshot.getGrid(buf, back);
+        assertArrayEquals(grid, back);
+    }
+
+    @Test
+    void runningGamesSurviveRestart(@TempDir Path dir) throws Exception {
+        List<GameSession> games = List.of(playedGame(3, 9, 70, 11), playedGame(8, 13, 40, 12), playedGame(9, 19, 5, 13));
+        List<byte[]> records = new ArrayList<>();
+        for (GameSession g : games) records.add(g.snapshot());
+        records.add(new GameSession(10, 9).snapshot()); // nierozpoczeta: brak rekordu
+        records.removeIf(r -> r == null);
+        Path file = dir.resolve("games.snap");
+        GameSnapshot.write(file, records, 0);
+
+        List<GameSession> restored = GameSnapshot.read(file);
+        assertEquals(3, restored.size());
+        for (GameSession before : games) {
+            GameSession after = restored.stream().filter(g -> g.getId() == before.getId()).findFirst().orElseThrow();
+            Board b1 = (Board) field(before, "board"), b2 = (Board) field(after, "board");
+            assertArrayEquals(b1.grid, b2.grid);
+            GameCore c1 = (GameCore) field(before, "core"), c2 = (GameCore) field(after, "core");
+            assertArrayEquals(c1.previousBoard(), c2.previousBoard());
+            assertEquals(before.getCurrentPlayer(), after.getCurrentPlayer());
+            assertArrayEquals(before.wyniki, after.wyniki);
+            assertArrayEquals(before.packedMoves(), after.packedMoves());
+            MoveHistory h1 = (MoveHistory) field(before, "history"), h2 = (MoveHistory) field(after, "history");
+            for (int n = 0; n <= h1.size(); n++) assertArrayEquals(h1.positionAt(n).grid, h2.positionAt(n).grid);
+            assertTrue(after.isRunning());
+        }
+
+        // gracz wraca do odtworzonej gry swoim starym tokenem
+        GameSession g = restored.get(0);
+        String token = ((String[]) field(g, "resumeTokens"))[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClientHandler ch = new ClientHandler(null, InputStream.nullInputStream(), out);
+        g.restored();
+        assertTrue(g.rejoin(ch, token, 0));
+        ch.flush();
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("REJOINED 1\n"));
+        assertTrue(text.contains("\nBOARD {"));
+    }
+
+    @Test
+    void damagedRecordIsSkipped(@TempDir Path dir) throws Exception {
+        byte[] good = playedGame(1, 9, 20, 5).snapshot();
+        byte[] bad = playedGame(2, 9, 20, 6).snapshot();
+        bad[20] ^= 0x55; // hash planszy sie nie zgadza
+        Path file = dir.resolve("games.snap");
+        GameSnapshot.write(file, List.of(good, bad), 0);
+        List<GameSession> restored = GameSnapshot.read(file);
+        assertEquals(1, restored.size());
+        assertEquals(1, restored.get(0).getId());
+    }
+}
@@ -0,0 +1,184 @@
+package lab4.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LobbyTest {
+    private SessionScheduler scheduler;
+    private RatingService ratings;
+    private Lobby lobby;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        scheduler = new SessionScheduler(2); // gry o nieparzystym i parzystym id na roznych shardach
+        ratings = new RatingService(null);
+        lobby = new Lobby(9, ratings, scheduler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ratings.close();
+        scheduler.shutdown();
+    }
+
+    /** Klient bez socketu; jego odpowiedzi czyta {@link #output}. */
+    private static ClientHandler client(ByteArrayOutputStream out) {
+        return new ClientHandler(null, InputStream.nullInputStream(), out);
+    }
+
+    private static String output(ClientHandler ch, ByteArrayOutputStream out) {
+        ch.flush();
+        String text = out.toString(StandardCharsets.UTF_8);
+        out.reset();
+        return text;
+    }
+
+    @Test
+    void nameIsRefusedWhileInUseAndNeedsItsSecret() {
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream(), out2 = new ByteArrayOutputStream();
+        ClientHandler first = client(out1), second = client(out2);
+
+        lobby.handle(first, "NAME", "alice");
+        String reply = output(first, out1);
+        assertEquals("alice", first.getName());
+        assertTrue(reply.startsWith("INFO Name alice is yours. Secret: "), reply);
+        String secret = reply.substring("INFO Name alice is yours. Secret: ".length()).split(" ")[0];
+
+        lobby.handle(second, "NAME", "alice " + secret);
+        assertTrue(output(second, out2).startsWith("ERROR Name alice is in use"));
+        assertNull(second.getName());
+
+        lobby.releaseName(first); // pierwszy klient sie rozlaczyl
+        lobby.handle(second, "NAME", "alice");
+        assertTrue(output(second, out2).startsWith("ERROR Name alice is registered"));
+        lobby.handle(second, "NAME", "alice wrong");
+        assertTrue(output(second, out2).startsWith("ERROR Name alice is registered"));
+        assertNull(second.getName());
+
+        lobby.handle(second, "NAME", "alice " + secret);
+        assertTrue(output(second, out2).startsWith("INFO Rating of alice: "));
+        assertEquals("alice", second.getName());
+    }
+
+    @Test
+    void analyzeOfGameOnStuckShardRepliesWithError() throws Exception {
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream(), out2 = new ByteArrayOutputStream();
+        ClientHandler creator = client(out1), analyst = client(out2);
+        lobby.handle(creator, "CREATE", "");
+        assertTrue(output(creator, out1).contains("INFO Created game 1"));
+
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.executorFor(1).execute(() -> { // jedyny shard stoi
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {}
+        });
+        try {
+            long t0 = System.nanoTime();
+            lobby.handle(analyst, "ANALYZE", "GAME 1");
+            long waited = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - t0);
+            assertTrue(waited >= Lobby.SHARD_REPLY_SECONDS - 1 && waited < Lobby.SHARD_REPLY_SECONDS + 5, "waited " + waited + " s");
+            assertTrue(output(analyst, out2).startsWith("ERROR Game 1 is not responding"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void snapshotKeepsPreviousRecordOfGameOnStuckShard(@TempDir Path dir) throws Exception {
+        for (int game = 1; game <= 2; game++) { // dwie pary z kolejki: gra 1 i gra 2
+            lobby.handle(client(new ByteArrayOutputStream()), "QUEUE", "");
+            lobby.handle(client(new ByteArrayOutputStream()), "QUEUE", "");
+        }
+        Path file = dir.resolve("games.snap");
+        assertEquals(2, lobby.writeSnapshot(file));
+
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.executorFor(1).execute(() -> { // shard gier 1 i 3 stoi
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {}
+        });
+        try {
+            assertEquals(2, lobby.writeSnapshot(file), "gra 1 z poprzedniego zrzutu");
+            assertEquals(List.of(1, 2), GameSnapshot.read(file).stream().map(GameSession::getId).sorted().toList());
+
+            lobby.handle(client(new ByteArrayOutputStream()), "QUEUE", ""); // gra 3 na zablokowanym shardzie, bez wczesniejszego rekordu
+            lobby.handle(client(new ByteArrayOutputStream()), "QUEUE", "");
+            byte[] before = Files.readAllBytes(file);
+            assertThrows(IOException.class, () -> lobby.writeSnapshot(file));
+            assertArrayEquals(before, Files.readAllBytes(file), "stary plik zostaje");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void commandOfJustMatchedClientGetsAnError() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClientHandler ch = client(out);
+        lobby.handle(ch, "QUEUE", "");
+        assertTrue(output(ch, out).startsWith("INFO Queued"));
+        // inny watek wlasnie zdjal bilet z kolejki i zaraz posadzi klienta w grze
+        Field f = Lobby.class.getDeclaredField("matchmaker");
+        f.setAccessible(true);
+        assertTrue(((Matchmaker) f.get(lobby)).remove(ch.getTicket()));
+
+        lobby.handle(ch, "CREATE", "");
+        assertEquals("ERROR Already matched, game starting\n", output(ch, out));
+        assertEquals(0, lobby.gameCount(), "komenda nie zostala wykonana");
+    }
+
+    @Test
+    void rejoinToStuckShardFailsAndLateShardDoesNotSeat() throws Exception {
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        ClientHandler p1 = client(out1);
+        lobby.handle(p1, "QUEUE", "");
+        lobby.handle(client(new ByteArrayOutputStream()), "QUEUE", "");
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.executorFor(1).execute(started::countDown); // START i TOKEN juz wyslane
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        String text = output(p1, out1);
+        String token = text.substring(text.indexOf("TOKEN ") + 6).split("\n")[0];
+
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.executorFor(1).execute(() -> { // shard gry 1 stoi
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {}
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClientHandler back = client(out);
+        try {
+            long t0 = System.nanoTime();
+            lobby.handle(back, "REJOIN", token + " 0");
+            long waited = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - t0);
+            assertTrue(waited >= Lobby.SHARD_REPLY_SECONDS - 1 && waited < Lobby.SHARD_REPLY_SECONDS + 5, "waited " + waited + " s");
+            assertEquals("REJOIN_FAILED Game 1 is not responding, try again later\n", output(back, out));
+        } finally {
+            release.countDown();
+        }
+        CountDownLatch drained = new CountDownLatch(1);
+        scheduler.executorFor(1).execute(drained::countDown);
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+        assertEquals("", output(back, out), "spozniony shard nie sadza klienta po REJOIN_FAILED");
+        Field session = ClientHandler.class.getDeclaredField("session");
+        session.setAccessible(true);
+        assertNull(session.get(back));
+    }
+}
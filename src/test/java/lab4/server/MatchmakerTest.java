@@ -0,0 +1,72 @@
+package lab4.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchmakerTest {
+
+    @Test
+    void pairsClosestRatingWithinBandAndSameSize() {
+        Matchmaker mm = new Matchmaker();
+        Matchmaker.Ticket a = mm.ticket(null, 1500, 19);
+        Matchmaker.Ticket b = mm.ticket(null, 1900, 19);
+        Matchmaker.Ticket other = mm.ticket(null, 1550, 9);
+        assertNull(mm.enqueue(a));
+        assertNull(mm.enqueue(b));
+        assertNull(mm.enqueue(other), "Inny rozmiar planszy -> brak pary");
+
+        Matchmaker.Ticket c = mm.ticket(null, 1850, 19);
+        assertSame(b, mm.enqueue(c), "Najbliższy ranking w przedziale");
+        assertEquals(1, mm.waiting(19));
+    }
+
+    @Test
+    void noMatchOutsideBandAndRemoveWorks() {
+        Matchmaker mm = new Matchmaker();
+        Matchmaker.Ticket a = mm.ticket(null, 1000, 19);
+        assertNull(mm.enqueue(a));
+        assertNull(mm.enqueue(mm.ticket(null, 1000 + Matchmaker.RATING_BAND + 1, 19)), "Poza przedziałem rankingu");
+        assertTrue(mm.remove(a));
+        assertFalse(mm.remove(a), "Drugi raz nie ma czego usuwać");
+        assertEquals(1, mm.waiting(19));
+    }
+
+    @Test
+    void equalRatingsAreServedInArrivalOrder() {
+        Matchmaker mm = new Matchmaker();
+        Matchmaker.Ticket first = mm.ticket(null, 1500, 19);
+        assertNull(mm.enqueue(first));
+        assertSame(first, mm.enqueue(mm.ticket(null, 1500, 19)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void longestWaitingOfEqualRatingsIsMatchedFirst() throws Exception {
+        Matchmaker mm = new Matchmaker();
+        Matchmaker.Ticket a = mm.ticket(null, 1500, 19);
+        Matchmaker.Ticket b = mm.ticket(null, 1500, 19);
+        Matchmaker.Ticket c = mm.ticket(null, 1500, 19);
+        assertNull(mm.enqueue(a));
+        // enqueue od razu sparowalby b z a, wiec trzy rowne bilety wkladamy do kolejki bezposrednio
+        Object stripe = ((Map<Integer, ?>) field(mm, "stripes")).get(19);
+        TreeMap<Long, Matchmaker.Ticket> waiting = (TreeMap<Long, Matchmaker.Ticket>) field(stripe, "waiting");
+        waiting.put(b.key, b);
+        waiting.put(c.key, c);
+
+        assertSame(a, mm.enqueue(mm.ticket(null, 1500, 19)), "Równe rankingi: najdłużej czekający pierwszy");
+        assertSame(b, mm.enqueue(mm.ticket(null, 1600, 19)), "Najbliższy ranking poniżej: też najstarszy bilet");
+        assertSame(c, mm.enqueue(mm.ticket(null, 1400, 19)));
+        assertEquals(0, mm.waiting(19));
+    }
+
+    private static Object field(Object o, String name) throws Exception {
+        Field f = o.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(o);
+    }
+}
@@ -0,0 +1,56 @@
+package lab4.server;
+
+import lab4.common.Board;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoveHistoryTest {
+
+    @Test
+    void packedMoveRoundtrip() {
+        int m = MoveHistory.packMove(18, 7, 2, 300);
+        assertEquals(18, MoveHistory.row(m));
+        assertEquals(7, MoveHistory.col(m));
+        assertEquals(2, MoveHistory.player(m));
+        assertEquals(300, MoveHistory.captured(m));
+        assertFalse(MoveHistory.isPass(m));
+
+        int p = MoveHistory.packPass(1);
+        assertTrue(MoveHistory.isPass(p));
+        assertEquals(1, MoveHistory.player(p));
+        assertEquals("PASS 1", MoveHistory.describe(p));
+    }
+
+    @Test
+    void everyPositionCanBeRebuilt() {
+        // gramy losowa partie (z przejsciem przez kilka keyframe'ow) i zapamietujemy kazda pozycje
+        Random rnd = new Random(3);
+        Board live = new Board(9);
+        MoveHistory h = new MoveHistory(9);
+        List<int[][]> positions = new ArrayList<>();
+        positions.add(live.getGridCopy());
+        int player = 1;
+        while (h.size() < 150) {
+            if (rnd.nextInt(20) == 0) {
+                h.record(MoveHistory.packPass(player), live);
+            } else {
+                int r = rnd.nextInt(9), c = rnd.nextInt(9);
+                int res = live.applyMoveAndCapture(r, c, player);
+                if (res < 0) continue;
+                h.record(MoveHistory.packMove(r, c, player, res), live);
+            }
+            positions.add(live.getGridCopy());
+            player = 3 - player;
+        }
+
+        for (int n = 0; n <= h.size(); n++) {
+            assertTrue(Board.gridsEqual(positions.get(n), h.positionAt(n).grid), "Pozycja po ruchu " + n);
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> h.positionAt(151));
+    }
+}
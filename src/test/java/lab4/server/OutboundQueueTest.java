@@ -0,0 +1,108 @@
+package lab4.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import lab4.common.Move;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    @Test
+    void writerSendsQueuedBytesAndFullQueueRefuses() throws Exception {
+        OutboundQueue q = new OutboundQueue(16);
+        assertTrue(q.offer("hello\n".getBytes(StandardCharsets.US_ASCII), 0, 6));
+        assertTrue(q.offer(Frame.of("world")));
+        assertFalse(q.offer(new byte[5], 0, 5), "12 + 5 > 16");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread writer = new Thread(() -> {
+            try {
+                q.drainTo(out);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (q.queuedBytes() > 0 && System.nanoTime() < deadline) Thread.sleep(1);
+        assertTrue(q.offer(new byte[16], 0, 16), "po wyslaniu jest znowu miejsce");
+        q.close();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertTrue(out.toString(StandardCharsets.US_ASCII).startsWith("hello\nworld\n"));
+    }
+
+    @Test
+    void clientThatNeverReadsDoesNotStallItsShard() throws Exception {
+        SessionScheduler scheduler = new SessionScheduler(1); // obie gry na jednym watku
+        long overflowsBefore = ServerMetrics.outboundOverflows.sum();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket stalled = new Socket()) {
+            stalled.setReceiveBufferSize(4096);
+            stalled.connect(server.getLocalSocketAddress());
+            Socket accepted = server.accept(); // klient nigdy nie czyta z tego polaczenia
+            accepted.setSendBufferSize(4096);
+
+            ClientHandler slow = new ClientHandler(accepted, null);
+            slow.startWriter();
+            GameSession first = seatedGame(1, scheduler, slow);
+            ClientHandler[] fast = {null, stream(), stream()};
+            GameSession second = seatedGame(2, scheduler, fast[1], fast[2]);
+
+            Frame big = Frame.of("INFO " + "x".repeat(32 * 1024)); // wiecej niz bufory gniazd i kolejka razem
+            for (int i = 0; i < 64; i++) first.execute(slow, () -> slow.sendFrame(big));
+
+            CountDownLatch done = new CountDownLatch(1);
+            for (int i = 0; i < 50; i++) {
+                int n = i;
+                second.execute(null, () -> {
+                    Move m = new Move(n / 9, n % 9, second.getCurrentPlayer());
+                    second.applyMove(m, fast[m.player]);
+                });
+            }
+            second.execute(null, done::countDown);
+            assertTrue(done.await(10, TimeUnit.SECONDS), "druga gra na tym samym shardzie stoi");
+            assertTrue(second.packedMoves().length > 0);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!accepted.isClosed() && System.nanoTime() < deadline) Thread.sleep(10);
+            assertTrue(accepted.isClosed(), "polaczenie z pelna kolejka jest zamykane");
+            assertTrue(ServerMetrics.outboundOverflows.sum() > overflowsBefore);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /** Handler bez gniazda, ktory wszystko odrzuca. */
+    private static ClientHandler stream() {
+        return new ClientHandler(null, InputStream.nullInputStream(), OutputStream.nullOutputStream());
+    }
+
+    /** Gra 9x9 na shardzie schedulera z podanymi graczami (drugi gracz opcjonalny). */
+    private static GameSession seatedGame(int id, SessionScheduler scheduler, ClientHandler... players) throws Exception {
+        GameSession gs = new GameSession(id, 9);
+        gs.setExecutor(scheduler.executorFor(id));
+        CountDownLatch started = new CountDownLatch(1);
+        gs.execute(null, () -> {
+            for (int p = 0; p < players.length; p++) {
+                players[p].setPlayerId(p + 1);
+                players[p].setSession(gs);
+                gs.register(players[p]);
+            }
+            if (players.length == 2) gs.startGame();
+            started.countDown();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gs;
+    }
+}
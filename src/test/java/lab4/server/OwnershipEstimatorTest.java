@@ -0,0 +1,65 @@
+package lab4.server;
+
+import lab4.common.OwnershipMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OwnershipEstimatorTest {
+
+    @Test
+    void wallsSplitTheBoardAndInvaderIsDead() {
+        // 7x7: czarna sciana w kolumnie 2, biala w kolumnie 4, bialy najezdzca w (3,0) na terenie czarnego
+        int[][] grid = new int[7][7];
+        for (int r = 0; r < 7; r++) {
+            grid[r][2] = 1;
+            grid[r][4] = 2;
+        }
+        grid[3][0] = 2;
+
+        OwnershipMap m = OwnershipEstimator.estimate(grid, 1, 200);
+
+        assertTrue(m.playouts > 0);
+        assertTrue(m.ownership(0, 0) >= 50, "Lewa strona czarnego");
+        assertTrue(m.ownership(6, 6) <= -50, "Prawa strona bialego");
+        assertTrue(m.isDead(3, 0), "Najezdzca martwy");
+        for (int r = 0; r < 7; r++) {
+            assertFalse(m.isDead(r, 2));
+            assertFalse(m.isDead(r, 4));
+        }
+        assertEquals(1, m.deadCount());
+    }
+
+    @Test
+    void asyncEstimateRunsOnItsOwnPool() throws Exception {
+        String thread = OwnershipEstimator.estimateAsync(new int[9][9], 1, 100)
+                .thenApply(m -> Thread.currentThread().getName()) // wykonuje watek, ktory skonczyl szacowanie
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(thread.startsWith("OwnershipEstimator-"), "nie we wspolnej puli fork-join: " + thread);
+    }
+
+    @Test
+    void fullPoolFailsTheFutureInsteadOfThrowing() throws Exception {
+        List<CompletableFuture<OwnershipMap>> futures = new ArrayList<>();
+        int n = Runtime.getRuntime().availableProcessors() + OwnershipEstimator.MAX_QUEUED + 8; // wiecej niz watki + kolejka
+        for (int i = 0; i < n; i++) futures.add(OwnershipEstimator.estimateAsync(new int[5][5], 1, 20));
+
+        long rejected = futures.stream().filter(f -> {
+            if (!f.isCompletedExceptionally()) return false;
+            ExecutionException e = assertThrows(ExecutionException.class, f::get);
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+            return true;
+        }).count();
+        assertTrue(rejected > 0, "kolejka puli nie zostala zapelniona");
+        for (CompletableFuture<OwnershipMap> f : futures) { // przyjete szacowania koncza sie normalnie, pula wolna dla innych testow
+            if (!f.isCompletedExceptionally()) assertTrue(f.get(30, TimeUnit.SECONDS).playouts > 0);
+        }
+    }
+}
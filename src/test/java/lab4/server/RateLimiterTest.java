@@ -0,0 +1,36 @@
+package lab4.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void burstThenSteadyRate() {
+        RateLimiter l = new RateLimiter(10, 5, 0);
+        for (int i = 0; i < 5; i++) assertTrue(l.tryAcquire(0));
+        assertFalse(l.tryAcquire(0));
+        assertFalse(l.tryAcquire(SECOND / 10 - 1)); // zeton jeszcze nie narosl
+        assertTrue(l.tryAcquire(SECOND / 10));
+        assertFalse(l.tryAcquire(SECOND / 10));
+
+        // 0,25 s = dwa zetony, reszta czasu liczy sie do trzeciego
+        assertTrue(l.tryAcquire(SECOND / 10 + SECOND / 4));
+        assertTrue(l.tryAcquire(SECOND / 10 + SECOND / 4));
+        assertFalse(l.tryAcquire(SECOND / 10 + SECOND / 4));
+        assertTrue(l.tryAcquire(SECOND / 10 + SECOND * 3 / 10));
+    }
+
+    @Test
+    void longPauseRefillsOnlyToBurst() {
+        RateLimiter l = new RateLimiter(10, 3, 0);
+        for (int i = 0; i < 3; i++) assertTrue(l.tryAcquire(0));
+        long later = 60 * SECOND;
+        for (int i = 0; i < 3; i++) assertTrue(l.tryAcquire(later));
+        assertFalse(l.tryAcquire(later));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0, 1, 0));
+    }
+}
@@ -0,0 +1,63 @@
+package lab4.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingServiceTest {
+
+    @Test
+    void eloUpdateIsSymmetricForEqualRatings() {
+        assertEquals(0.5, RatingService.expectedScore(1500, 1500), 1e-9);
+        assertEquals(1516, RatingService.newRating(1500, 1500, 1.0));
+        assertEquals(1484, RatingService.newRating(1500, 1500, 0.0));
+        assertEquals(1500, RatingService.newRating(1500, 1500, 0.5));
+        assertTrue(RatingService.newRating(1300, 1700, 1.0) - 1300 > 16, "Wygrana ze silniejszym daje wiecej punktow");
+    }
+
+    @Test
+    void resultsArePersistedAndReloaded(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("ratings.dat");
+        RatingService rs = new RatingService(file);
+        String aliceSecret = rs.claim("alice", null);
+        assertNotNull(rs.claim("bob", "bobs-secret"));
+        rs.submit(new RatingService.GameResult("alice", "bob", 1));
+        rs.submit(new RatingService.GameResult("alice", "bob", 0));
+        rs.submit(new RatingService.GameResult(null, "bob", 1)); // anonimowy gracz -> bez rankingu
+        rs.submit(new RatingService.GameResult("bob", "bob", 1)); // gra sam ze soba -> bez rankingu
+        rs.submit(new RatingService.GameResult("alice", "mallory", 1)); // niezajeta nazwa -> bez rankingu
+        rs.close();
+        assertTrue(Files.exists(file));
+        assertEquals(2, rs.games("alice"));
+        assertEquals(2, rs.games("bob"));
+
+        RatingService reloaded = new RatingService(file);
+        assertEquals(rs.rating("alice"), reloaded.rating("alice"));
+        assertEquals(rs.rating("bob"), reloaded.rating("bob"));
+        assertEquals(2, reloaded.games("bob"));
+        assertTrue(reloaded.rating("alice") > RatingService.INITIAL_RATING);
+        assertEquals(RatingService.INITIAL_RATING, reloaded.rating("carol"));
+        assertEquals(0, reloaded.games("mallory"));
+        assertEquals(aliceSecret, reloaded.claim("alice", aliceSecret), "sekret przetrwal restart");
+        assertNull(reloaded.claim("bob", null));
+        reloaded.close();
+    }
+
+    @Test
+    void nameBelongsToItsFirstClaim() throws Exception {
+        RatingService rs = new RatingService(null);
+        String secret = rs.claim("alice", null);
+        assertNotNull(secret);
+        assertNull(rs.claim("alice", null), "Bez sekretu nazwa jest zajeta");
+        assertNull(rs.claim("alice", "guess"));
+        assertEquals(secret, rs.claim("alice", secret));
+        assertEquals("mine", rs.claim("bob", "mine"), "Pierwszy NAME z sekretem ustala sekret");
+        assertTrue(rs.isClaimed("bob"));
+        assertFalse(rs.isClaimed("carol"));
+        rs.close();
+    }
+}
@@ -0,0 +1,364 @@
+package lab4.server;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import lab4.common.Board;
+import lab4.common.PaddedBoard;
+import lab4.common.PersistentBoard;
+import lab4.gtp.GtpEngine;
+
+/**
+ * Losowe partie z kontrola niezmiennikow i porownaniem silnikow planszy (uruchamiany recznie):
+ * java -cp target/classes:target/test-classes lab4.server.RulesFuzz [movesPerSize] [seed]
+ *
+ * GameCore (on the reference {@link Board}) plays random points, with a pass
+ * now and then, until both players pass or the game gets long; then a new game
+ * starts. Every command is also played on each {@link Engine}, and the result
+ * codes must match. After every accepted move the harness checks:
+ * <ul>
+ * <li>no group on the board is left without liberties;</li>
+ * <li>the captures reported by the moves add up to GameCore's captures
+ *     (GameSession.wyniki), and each player's stones on the board equal the
+ *     moves they played minus the stones the opponent took;</li>
+ * <li>the incremental Zobrist hash of PersistentBoard equals a hash of the
+ *     reference grid, so Ko by hash agrees with GameCore's Ko by grid;</li>
+ * <li>every engine shows the same stones as the reference board.</li>
+ * </ul>
+ * A new or rewritten board engine only needs an {@link Engine} adapter in
+ * {@link #engines()}. A failure names the size, seed, game and move, so the
+ * same run can be repeated.
+ */
+public class RulesFuzz {
+    /** Board sizes played by default */
+    static final int[] SIZES = {2, 3, 4, 5, 7, 9, 13, 19};
+
+    /**
+     * A board implementation checked against the reference. Result codes are
+     * those of {@link Board#applyMoveAndCapture}, plus -3 for Ko if the engine
+     * checks Ko itself.
+     */
+    interface Engine {
+        /**
+         * Returns the name used in failure messages.
+         *
+         * @return engine name
+         */
+        String name();
+
+        /**
+         * Starts a new empty game.
+         *
+         * @param size board size
+         */
+        void reset(int size);
+
+        /**
+         * Plays a stone.
+         *
+         * @param r row
+         * @param c column
+         * @param player 1 or 2
+         * @return captured stones or a negative result code
+         */
+        int play(int r, int c, int player);
+
+        /** Plays a pass. */
+        void pass();
+
+        /**
+         * Returns whether {@link #play} refuses Ko with -3 by itself.
+         *
+         * @return true if the engine checks Ko
+         */
+        boolean checksKo();
+
+        /**
+         * Called when the reference refused a move for Ko that this engine
+         * (which does not check Ko) accepted: go back to the given position.
+         *
+         * @param grid position before the move
+         */
+        void koRefused(int[][] grid);
+
+        /**
+         * Returns a stone.
+         *
+         * @param r row
+         * @param c column
+         * @return 0 empty, 1 or 2
+         */
+        int stone(int r, int c);
+    }
+
+    /** Totals of a run */
+    static final class Stats {
+        /** Accepted moves */
+        long moves;
+        /** Refused moves (occupied, suicide, Ko) */
+        long refused;
+        /** Moves refused for Ko */
+        long ko;
+        /** Captured stones */
+        long captured;
+        /** Games played */
+        int games;
+    }
+
+    /** Reference game */
+    private GameCore core;
+    /** Checked engines */
+    private final List<Engine> engines;
+    /** Stones placed per player (index = player) in the current game */
+    private final long[] placed = new long[3];
+    /** Captures per player (index = player), summed from move results */
+    private final long[] taken = new long[3];
+    /** Scratch for the liberty check: visit stamps, stack */
+    private int[] seen = new int[0], stack = new int[0];
+    /** Current visit stamp */
+    private int stamp;
+    /** Reused copy of the position before a move */
+    private int[][] before;
+    /** Size, seed and game number of the run, for failure messages */
+    private int size, game;
+    private long seed;
+
+    /**
+     * Creates a harness.
+     *
+     * @param engines engines to check against the reference
+     */
+    RulesFuzz(List<Engine> engines) {
+        this.engines = engines;
+    }
+
+    public static void main(String[] args) {
+        long moves = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        long total = 0;
+        long t0 = System.nanoTime();
+        for (int size : SIZES) {
+            Stats s = new RulesFuzz(engines()).run(size, seed, moves);
+            System.out.printf("%2dx%-2d %,d moves, %,d games, %,d refused (%,d Ko), %,d captured%n",
+                    size, size, s.moves, s.games, s.refused, s.ko, s.captured);
+            total += s.moves;
+        }
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("OK: %,d moves in %.1f s (%,.0f moves/s, %d engines + invariants)%n",
+                total, seconds, total / seconds, engines().size());
+    }
+
+    /**
+     * Returns adapters for all board engines in the tree.
+     *
+     * @return new engines
+     */
+    static List<Engine> engines() {
+        return List.of(new PaddedEngine(), new PersistentEngine(), new GtpAdapter());
+    }
+
+    /**
+     * Plays random games until the given number of moves has been accepted.
+     *
+     * @param size board size
+     * @param seed random seed
+     * @param moves accepted moves to play
+     * @return totals
+     * @throws AssertionError on the first difference or broken invariant
+     */
+    Stats run(int size, long seed, long moves) {
+        SplittableRandom rnd = new SplittableRandom(seed * 31 + size);
+        Stats stats = new Stats();
+        int n = size * size;
+        this.size = size;
+        this.seed = seed;
+        seen = new int[n];
+        stack = new int[n];
+        before = new int[size][size];
+        while (stats.moves < moves) {
+            newGame(size);
+            game = ++stats.games;
+            int maxPlies = 3 * n + 10, attempts = 0;
+            while (!core.isStopped() && core.history().size() < maxPlies && attempts++ < 20 * n && stats.moves < moves) {
+                int player = core.currentPlayer();
+                if (rnd.nextInt(n + 10) == 0) {
+                    check(core.pass(player) == GameCore.OK, "pass refused");
+                    for (Engine e : engines) e.pass();
+                    continue;
+                }
+                int point = rnd.nextInt(n);
+                int result = play(point / size, point % size, player);
+                if (result < 0) {
+                    stats.refused++;
+                    if (result == GameCore.KO) stats.ko++;
+                } else {
+                    stats.moves++;
+                    stats.captured += result;
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Starts a new game on the reference and all engines.
+     *
+     * @param size board size
+     */
+    private void newGame(int size) {
+        core = new GameCore(size);
+        core.start();
+        for (Engine e : engines) e.reset(size);
+        placed[1] = placed[2] = taken[1] = taken[2] = 0;
+    }
+
+    /**
+     * Plays a move on the reference and on every engine and compares them.
+     *
+     * @param r row
+     * @param c column
+     * @param player player to move
+     * @return reference result
+     */
+    private int play(int r, int c, int player) {
+        core.board().copyGridTo(before);
+        int expected = core.move(player, r, c);
+        for (Engine e : engines) {
+            int got = e.play(r, c, player);
+            if (expected == GameCore.KO && !e.checksKo()) {
+                check(got >= 0, e.name() + " refused a Ko move with " + got);
+                e.koRefused(before);
+            } else {
+                check(got == expected, e.name() + " returned " + got + ", reference " + expected + " at " + r + "," + c);
+            }
+        }
+        if (expected >= 0) {
+            placed[player]++;
+            taken[player] += expected;
+            checkInvariants();
+        }
+        return expected;
+    }
+
+    /** Checks the reference board and compares every engine with it. */
+    private void checkInvariants() {
+        Board b = core.board();
+        int size = b.size;
+        int[] stones = new int[3];
+        stamp++;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int v = b.grid[r][c];
+                stones[v]++;
+                if (v != 0 && seen[r * size + c] != stamp) check(hasLiberty(b, r * size + c), "group without liberties at " + r + "," + c);
+                for (Engine e : engines) {
+                    if (e.stone(r, c) != v) check(false, e.name() + " has " + e.stone(r, c) + " at " + r + "," + c + ", reference " + v);
+                }
+            }
+        }
+        for (int p = 1; p <= 2; p++) {
+            check(core.captures[p - 1] == taken[p], "captures of player " + p + ": " + core.captures[p - 1] + " != " + taken[p]);
+            check(stones[p] == placed[p] - taken[3 - p], "player " + p + " has " + stones[p] + " stones, expected "
+                    + placed[p] + " placed - " + taken[3 - p] + " captured");
+        }
+        int[][] previous = core.previousBoard();
+        for (Engine e : engines) {
+            if (e instanceof PersistentEngine pe) {
+                check(pe.current.hash() == PersistentBoard.hashOf(b), "incremental hash differs from the grid's hash");
+                check(pe.previous.hash() == PersistentBoard.hashOf(previous), "Ko hash differs from the previous grid");
+            }
+        }
+    }
+
+    /**
+     * Marks the group at a point as seen and checks it has a liberty.
+     *
+     * @param b board
+     * @param start point r * size + c of a stone
+     * @return true if the group has at least one liberty
+     */
+    private boolean hasLiberty(Board b, int start) {
+        int color = b.grid[start / size][start % size];
+        int top = 0;
+        boolean liberty = false;
+        seen[start] = stamp;
+        stack[top++] = start;
+        while (top > 0) { // cala grupa dostaje stamp, nawet gdy oddech juz znaleziony
+            int p = stack[--top], r = p / size, c = p % size;
+            for (int d = 0; d < 4; d++) {
+                int nr = r + (d == 0 ? 1 : d == 1 ? -1 : 0), nc = c + (d == 2 ? 1 : d == 3 ? -1 : 0);
+                if (nr < 0 || nc < 0 || nr >= size || nc >= size) continue;
+                int v = b.grid[nr][nc], q = nr * size + nc;
+                if (v == 0) liberty = true;
+                else if (v == color && seen[q] != stamp) {
+                    seen[q] = stamp;
+                    stack[top++] = q;
+                }
+            }
+        }
+        return liberty;
+    }
+
+    /**
+     * Fails with the current position in the message.
+     *
+     * @param ok condition
+     * @param message what is wrong
+     */
+    private void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError("size=" + size + " seed=" + seed + " game=" + game
+                    + " after " + core.history().size() + " moves: " + message);
+        }
+    }
+
+    /** PaddedBoard (no Ko check). */
+    static class PaddedEngine implements Engine {
+        PaddedBoard board;
+
+        @Override public String name() { return "PaddedBoard"; }
+        @Override public void reset(int size) { board = new PaddedBoard(size); }
+        @Override public int play(int r, int c, int player) { return board.applyMoveAndCapture(r, c, player); }
+        @Override public void pass() {}
+        @Override public boolean checksKo() { return false; }
+        @Override public void koRefused(int[][] grid) { board.setFromGrid(grid); }
+        @Override public int stone(int r, int c) { return board.get(r, c); }
+    }
+
+    /** PersistentBoard with Ko by comparing Zobrist hashes. */
+    static final class PersistentEngine implements Engine {
+        /** Current and previous position (the previous one is the Ko reference) */
+        PersistentBoard current, previous;
+
+        @Override public String name() { return "PersistentBoard"; }
+        @Override public void reset(int size) { current = previous = PersistentBoard.empty(size); }
+
+        @Override
+        public int play(int r, int c, int player) {
+            PersistentBoard next = current.play(r, c, player);
+            if (next == null) return r < 0 || c < 0 || r >= current.size || c >= current.size || current.get(r, c) != 0 ? -1 : -2;
+            if (next.hash() == previous.hash()) return -3; // Ko: ta sama pozycja co przed ostatnim ruchem
+            previous = current;
+            current = next;
+            return next.captured();
+        }
+
+        @Override public void pass() { previous = current; }
+        @Override public boolean checksKo() { return true; }
+        @Override public void koRefused(int[][] grid) {}
+        @Override public int stone(int r, int c) { return current.get(r, c); }
+    }
+
+    /** GtpEngine (Ko by hash of the position before the opponent's move). */
+    static final class GtpAdapter implements Engine {
+        final GtpEngine engine = new GtpEngine(1);
+
+        @Override public String name() { return "GtpEngine"; }
+        @Override public void reset(int size) { engine.newGame(size); }
+        @Override public int play(int r, int c, int player) { return engine.play(r, c, player); }
+        @Override public void pass() { engine.pass(); }
+        @Override public boolean checksKo() { return true; }
+        @Override public void koRefused(int[][] grid) {}
+        @Override public int stone(int r, int c) { return engine.stone(r, c); }
+    }
+}
@@ -0,0 +1,47 @@
+package lab4.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RulesFuzzTest {
+
+    @Test
+    void enginesAgreeWithReferenceOnRandomGames() {
+        // krotka wersja RulesFuzz.main (tam miliony ruchow)
+        long ko = 0;
+        for (int size : RulesFuzz.SIZES) {
+            RulesFuzz.Stats s = new RulesFuzz(RulesFuzz.engines()).run(size, 1, 20_000);
+            assertEquals(20_000, s.moves);
+            assertTrue(s.captured > 0, "size " + size + ": no captures");
+            ko += s.ko;
+        }
+        assertTrue(ko > 0, "no Ko position was reached");
+    }
+
+    @Test
+    void brokenEngineIsCaught() {
+        // silnik, ktory przy biciu nie zdejmuje jednego kamienia z tablicy
+        RulesFuzz.Engine broken = new RulesFuzz.PaddedEngine() {
+            @Override
+            public int play(int r, int c, int player) {
+                int result = super.play(r, c, player);
+                if (result == 1 && r > 0 && board.get(r - 1, c) == 0) board.set(r - 1, c, 3 - player);
+                return result;
+            }
+
+            @Override
+            public String name() {
+                return "broken";
+            }
+        };
+        List<RulesFuzz.Engine> engines = new ArrayList<>(RulesFuzz.engines());
+        engines.add(broken);
+        AssertionError e = assertThrows(AssertionError.class, () -> new RulesFuzz(engines).run(9, 1, 20_000));
+        assertTrue(e.getMessage().contains("broken"), e.getMessage());
+        assertTrue(e.getMessage().startsWith("size=9 seed=1 game="), e.getMessage());
+    }
+}
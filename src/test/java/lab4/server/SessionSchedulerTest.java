@@ -0,0 +1,52 @@
+package lab4.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionSchedulerTest {
+
+    @Test
+    void tasksOfOneGameRunInOrderOnOneThread() throws Exception {
+        SessionScheduler scheduler = new SessionScheduler(4);
+        Executor game = scheduler.executorFor(7);
+        List<Integer> order = new ArrayList<>(); // bez synchronizacji: wszystko na jednym watku
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            game.execute(() -> {
+                order.add(n);
+                threads.add(Thread.currentThread());
+            });
+        }
+        game.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) assertEquals(i, order.get(i));
+        assertTrue(threads.stream().allMatch(t -> t == threads.get(0)), "Jedna gra = jeden watek");
+        scheduler.shutdown();
+    }
+
+    @Test
+    void gamesAreSpreadOverShards() throws Exception {
+        SessionScheduler scheduler = new SessionScheduler(2);
+        Thread[] seen = new Thread[2];
+        CountDownLatch done = new CountDownLatch(2);
+        for (int id = 0; id < 2; id++) {
+            int i = id;
+            scheduler.executorFor(id).execute(() -> {
+                seen[i] = Thread.currentThread();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotSame(seen[0], seen[1]);
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,78 @@
+package lab4.server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import lab4.common.Move;
+
+/**
+ * Przepustowosc SessionScheduler w zaleznosci od liczby shardow (uruchamiany recznie):
+ * java -cp target/classes:target/test-classes lab4.server.ShardBench [games] [movesPerGame]
+ *
+ * Many games play random moves at the same time; every move is a separate task
+ * on the game's shard, exactly as a MOVE command from a connection. Output goes
+ * to null streams, so the numbers are game logic + JSON + buffering only.
+ * Prints commands per second for 1, 2, 4, ... shards up to twice the core count.
+ */
+public class ShardBench {
+    private static final int SIZE = 9;
+
+    public static void main(String[] args) throws InterruptedException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int movesPerGame = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("cores=" + cores + " games=" + games + " movesPerGame=" + movesPerGame);
+        for (int round = 0; round < 2; round++) { // pierwsza runda to rozgrzewka JIT
+            for (int shards = 1; shards <= Math.max(2, cores * 2); shards *= 2) {
+                double perSecond = run(shards, games, movesPerGame);
+                System.out.printf("round %d: %2d shards: %,.0f commands/s%n", round, shards, perSecond);
+            }
+        }
+    }
+
+    /**
+     * Plays all games on a scheduler with the given number of shards.
+     *
+     * @return commands per second
+     */
+    private static double run(int shardCount, int games, int movesPerGame) throws InterruptedException {
+        SessionScheduler scheduler = new SessionScheduler(shardCount);
+        GameSession[] sessions = new GameSession[games];
+        ClientHandler[][] players = new ClientHandler[games][3];
+        for (int g = 0; g < games; g++) {
+            GameSession s = new GameSession(g + 1, SIZE);
+            s.setExecutor(scheduler.executorFor(s.getId()));
+            for (int p = 1; p <= 2; p++) {
+                ClientHandler h = new ClientHandler(null, InputStream.nullInputStream(), OutputStream.nullOutputStream());
+                h.setPlayerId(p);
+                players[g][p] = h;
+                s.execute(h, () -> s.register(h));
+            }
+            s.execute(null, s::startGame);
+            sessions[g] = s;
+        }
+
+        CountDownLatch done = new CountDownLatch(games);
+        long t0 = System.nanoTime();
+        Random rnd = new Random(42);
+        for (int i = 0; i < movesPerGame; i++) { // przeplatamy gry, jak wiele polaczen naraz
+            for (int g = 0; g < games; g++) {
+                GameSession s = sessions[g];
+                ClientHandler[] h = players[g];
+                int point = rnd.nextInt(SIZE * SIZE);
+                boolean last = i == movesPerGame - 1;
+                s.execute(null, () -> {
+                    int p = s.getCurrentPlayer();
+                    s.applyMove(new Move(point / SIZE, point % SIZE, p), h[p]);
+                    if (last) done.countDown();
+                });
+            }
+        }
+        done.await();
+        long elapsed = System.nanoTime() - t0;
+        scheduler.shutdown();
+        return (double) games * movesPerGame / (elapsed / 1e9);
+    }
+}